@@ -1,14 +1,24 @@
 package com.threebird.recorder;
 
+import java.util.concurrent.CompletionException;
+
 import com.threebird.recorder.controllers.StartMenuController;
 import com.threebird.recorder.models.PositionManager;
-import com.threebird.recorder.persistence.CreateResources;
-import com.threebird.recorder.persistence.GsonUtils;
-import com.threebird.recorder.persistence.InitSQLiteTables;
-import com.threebird.recorder.persistence.recordings.Recordings;
-import com.threebird.recorder.persistence.recordings.Recordings.Writer;
+import com.threebird.recorder.persistence.DirectoryMonitor;
+import com.threebird.recorder.persistence.RawArchive;
+import com.threebird.recorder.persistence.SaveScheduler;
+import com.threebird.recorder.persistence.SessionCatalog;
+import com.threebird.recorder.utils.Alerts;
+import com.threebird.recorder.utils.metrics.MetricsLog;
+import com.threebird.recorder.utils.metrics.MetricsMBean;
+import com.threebird.recorder.utils.metrics.StallWatchdog;
+import com.threebird.recorder.utils.resources.ResourceUtils;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 
 /**
@@ -24,25 +34,80 @@ public class BehaviorLoggerApp extends Application
 
   public static String version = "1.1.2";
 
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+  private static final long METRICS_LOG_PERIOD_MILLIS = 60000;
+
+  private static StallWatchdog stallWatchdog;
+
   public static void main( String[] args )
   {
+    MetricsMBean.register();
+    MetricsLog.start( ResourceUtils.getMetricsLog(), METRICS_LOG_PERIOD_MILLIS );
+
     launch( args );
 
-    // Cleanup background threads
-    GsonUtils.es.shutdown();
-    for (Writer writer : Recordings.Writer.values()) {
-      writer.shutdown();
+    if (stallWatchdog != null) {
+      stallWatchdog.stop();
     }
+
+    // Write the final window positions before the save scheduler goes away
+    PositionManager.flush();
+
+    // Let any queued saves finish
+    SaveScheduler.shared.shutdown( SHUTDOWN_TIMEOUT_MILLIS );
+    DirectoryMonitor.shared.close();
+
+    MetricsLog.stop();
   }
 
   @Override public void start( Stage primaryStage ) throws Exception
   {
     STAGE = primaryStage;
+
+    // Log anything that blocks the FX thread for too long
+    stallWatchdog = StallWatchdog.forFxThread( ResourceUtils.getStallLog() );
+    stallWatchdog.start();
+
     // STAGE.getIcons().add( new Image( BehaviorLoggerApp.class.getResourceAsStream( "3bird-orig.png" ) ) );
 
-    CreateResources.apply();
-    InitSQLiteTables.init();
+    // Show something right away. The Start Menu replaces this once everything it needs has been loaded.
+    STAGE.setTitle( "Behavior Logger" );
+    STAGE.setScene( new Scene( new StackPane( new Label( "Loading..." ) ), 900, 700 ) );
+    STAGE.show();
+
+    StartupPipeline startup = new StartupPipeline();
+    startup.run().whenComplete( ( v, t ) -> Platform.runLater( ( ) -> {
+      if (t != null) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        cause.printStackTrace();
+        Exception e = cause instanceof Exception ? (Exception) cause : new Exception( cause );
+        Alerts.error( "Error Starting Behavior Logger", "There was a problem while loading your data.", e );
+        Platform.exit();
+        return;
+      }
+
+      long showStart = System.nanoTime();
+      showStartMenu();
+      startup.record( "start menu", showStart );
+      startup.recordTotal();
+
+      // Nothing waits on the catalog or the archive, so see to them after the Start Menu is showing
+      SessionCatalog.startAsync().exceptionally( e -> {
+        e.printStackTrace();
+        return 0;
+      } );
+      RawArchive.compactAsync().exceptionally( e -> {
+        e.printStackTrace();
+        return null;
+      } );
+    } ) );
+  }
 
+  /**
+   * Restores the main window's geometry and shows the Start Menu. Only call this after startup has loaded everything.
+   */
+  private void showStartMenu()
+  {
     STAGE.setX( PositionManager.mainXProperty().doubleValue() );
     STAGE.setY( PositionManager.mainYProperty().doubleValue() );
     STAGE.xProperty().addListener( ( obs, old, xpos ) -> PositionManager.mainXProperty().setValue( xpos ) );
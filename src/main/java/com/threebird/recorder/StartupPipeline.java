@@ -0,0 +1,101 @@
+package com.threebird.recorder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.threebird.recorder.models.PositionManager;
+import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.models.schemas.SchemasManager;
+import com.threebird.recorder.models.sessions.SessionManager;
+import com.threebird.recorder.persistence.CreateResources;
+import com.threebird.recorder.persistence.InitSQLiteTables;
+import com.threebird.recorder.utils.metrics.Metrics;
+
+/**
+ * Loads everything the Start Menu needs on a background pool, so the main window can be shown right away. Phases that
+ * don't depend on each other run at the same time:
+ *
+ * <pre>
+ * resources -+-> database -> schemas
+ *            +-> preferences
+ *            +-> session details
+ *            +-> window positions
+ * </pre>
+ *
+ * Nothing on the FX thread may touch the managers until {@link StartupPipeline#run()} completes.
+ */
+class StartupPipeline
+{
+  @FunctionalInterface
+  private interface Phase
+  {
+    void run() throws Exception;
+  }
+
+  private final ExecutorService pool = Executors.newFixedThreadPool( 4, r -> {
+    Thread t = new Thread( r, "startup" );
+    t.setDaemon( true );
+    return t;
+  } );
+
+  private final long start = System.nanoTime();
+
+  /**
+   * Starts every phase
+   *
+   * @return a future that completes once all phases are done, or completes exceptionally if any of them fail
+   */
+  CompletableFuture< Void > run()
+  {
+    CompletableFuture< Void > resources =
+        phase( "resources", CreateResources::apply, CompletableFuture.completedFuture( null ) );
+    CompletableFuture< Void > database = phase( "database", InitSQLiteTables::init, resources );
+    CompletableFuture< Void > schemas = phase( "schemas", SchemasManager::load, database );
+    CompletableFuture< Void > preferences = phase( "preferences", PreferencesManager::load, resources );
+    CompletableFuture< Void > session = phase( "session details", SessionManager::load, resources );
+    CompletableFuture< Void > positions = phase( "window positions", PositionManager::load, resources );
+
+    return CompletableFuture.allOf( schemas, preferences, session, positions ).whenComplete( ( v, t ) -> {
+      pool.shutdown();
+      record( "background total", start );
+    } );
+  }
+
+  /**
+   * Records how long the given step took, measured from 'nanoStart', in a "startup.*_ms" gauge
+   */
+  void record( String name, long nanoStart )
+  {
+    Metrics.gauge( "startup." + name.replace( ' ', '_' ) + "_ms" ).set( millisSince( nanoStart ) );
+  }
+
+  /**
+   * Records the time since the pipeline was created, once the Start Menu is up
+   */
+  void recordTotal()
+  {
+    Metrics.gauge( "startup.total_ms" ).set( millisSince( start ) );
+  }
+
+  private static long millisSince( long nanoStart )
+  {
+    return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - nanoStart );
+  }
+
+  private CompletableFuture< Void > phase( String name, Phase phase, CompletableFuture< Void > after )
+  {
+    return after.thenRunAsync( ( ) -> {
+      long phaseStart = System.nanoTime();
+      try {
+        phase.run();
+      } catch (Exception e) {
+        throw new CompletionException( e );
+      } finally {
+        record( name, phaseStart );
+      }
+    }, pool );
+  }
+}
@@ -1,6 +1,5 @@
 package com.threebird.recorder.controllers;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -9,12 +8,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.threebird.recorder.models.MappableChar;
-import com.threebird.recorder.models.behaviors.BehaviorEvent;
-import com.threebird.recorder.models.behaviors.ContinuousBehavior;
-import com.threebird.recorder.models.behaviors.DiscreteBehavior;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
 import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.models.schemas.SchemasManager;
@@ -149,59 +144,12 @@ public class AddKeysController
       return;
     }
 
-    Set< MappableChar > unknownChars = manager.unknowns.keySet();
-    Set< MappableChar > newChars =
+    Set< MappableChar > resolvedChars =
         behaviorFields.values().stream()
                       .map( kbm -> kbm.key )
                       .collect( Collectors.toSet() );
 
-    Set< MappableChar > ignoredChars =
-        unknownChars.stream()
-                    .filter( c -> !newChars.contains( c ) )
-                    .collect( Collectors.toSet() );
-
-    List< DiscreteBehavior > updatedDiscretes =
-        manager.discrete.stream()
-                        .filter( db -> newChars.contains( db.key ) )
-                        .collect( Collectors.toList() );
-
-    List< DiscreteBehavior > newDiscretes =
-        Lists.transform( updatedDiscretes, db -> new DiscreteBehavior( db.uuid,
-                                                                       db.key,
-                                                                       schema.behaviorsMap().get( db.key ).description,
-                                                                       db.startTime ) );
-
-    List< DiscreteBehavior > removedDiscretes =
-        manager.discrete.stream()
-                        .filter( db -> ignoredChars.contains( db.key ) )
-                        .collect( Collectors.toList() );
-    removedDiscretes.addAll( updatedDiscretes );
-
-    List< ContinuousBehavior > updatedContinuous =
-        manager.continuous.stream()
-                          .filter( cb -> newChars.contains( cb.key ) )
-                          .collect( Collectors.toList() );
-
-    List< ContinuousBehavior > newContinuous =
-        Lists.transform( updatedContinuous, cb -> new ContinuousBehavior( cb.uuid,
-                                                                          cb.key,
-                                                                          schema.behaviorsMap().get( cb.key ).description,
-                                                                          cb.startTime,
-                                                                          cb.getDuration() ) );
-
-    List< ContinuousBehavior > removedContinuous =
-        manager.continuous.stream()
-                          .filter( db -> ignoredChars.contains( db.key ) )
-                          .collect( Collectors.toList() );
-    removedContinuous.addAll( updatedContinuous );
-
-    manager.discrete.removeAll( removedDiscretes );
-    manager.discrete.addAll( newDiscretes );
-    manager.continuous.removeAll( removedContinuous );
-    manager.continuous.addAll( newContinuous );
-
-    Collections.sort( manager.discrete, BehaviorEvent.comparator );
-    Collections.sort( manager.continuous, BehaviorEvent.comparator );
+    manager.resolveUnknowns( resolvedChars );
 
     onSave.run();
 
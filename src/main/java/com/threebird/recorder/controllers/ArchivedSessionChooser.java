@@ -0,0 +1,61 @@
+package com.threebird.recorder.controllers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Maps;
+import com.threebird.recorder.persistence.recordings.SessionArchive;
+import com.threebird.recorder.persistence.recordings.SessionArchive.IndexEntry;
+import com.threebird.recorder.utils.Alerts;
+
+import javafx.scene.control.ChoiceDialog;
+
+/**
+ * Used by the calculators when the user browses to a {@link SessionArchive}: asks which session in it to use
+ */
+class ArchivedSessionChooser
+{
+  /**
+   * @return a reference to the chosen session, or empty if the user cancelled or the archive couldn't be read
+   */
+  static Optional< File > choose( File archive )
+  {
+    List< IndexEntry > entries;
+    try (SessionArchive.Reader reader = SessionArchive.Reader.open( archive )) {
+      entries = reader.entries();
+    } catch (IOException e) {
+      Alerts.error( "Session Archive", "Couldn't read " + archive.getName(), e );
+      return Optional.empty();
+    }
+
+    Map< String, IndexEntry > byLabel = Maps.newLinkedHashMap();
+    for (IndexEntry e : entries) {
+      String label = new DateTime( e.startTime ).toString( "yyyy-MM-dd HH:mm" );
+      if (e.sessionNumber != null) {
+        label += "  (session " + e.sessionNumber + ")";
+      }
+      // Two sessions can't start in the same millisecond, but they can in the same minute
+      while (byLabel.containsKey( label )) {
+        label += " ";
+      }
+      byLabel.put( label, e );
+    }
+
+    if (byLabel.isEmpty()) {
+      Alerts.warning( "Session Archive", null, archive.getName() + " doesn't have any sessions." );
+      return Optional.empty();
+    }
+
+    ChoiceDialog< String > dialog = new ChoiceDialog< String >( byLabel.keySet().iterator().next(), byLabel.keySet() );
+    dialog.setTitle( "Session Archive" );
+    dialog.setHeaderText( "Choose a session from " + archive.getName() );
+    return dialog.showAndWait()
+                 .map( byLabel::get )
+                 .map( e -> SessionArchive.reference( archive, e.sessionUuid ) );
+  }
+}
@@ -1,17 +1,18 @@
 package com.threebird.recorder.controllers;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 import com.google.common.base.Strings;
 import com.threebird.recorder.models.BinManager;
-import com.threebird.recorder.persistence.GsonUtils;
+import com.threebird.recorder.models.preferences.PreferencesManager;
 import com.threebird.recorder.persistence.WriteBinIntervals;
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.persistence.recordings.SessionArchive;
 import com.threebird.recorder.utils.Alerts;
 import com.threebird.recorder.utils.BehaviorLoggerUtil;
 import com.threebird.recorder.utils.ioa.KeyToInterval;
+import com.threebird.recorder.utils.ioa.ProcessIoa;
+import com.threebird.recorder.utils.ioa.SessionIndex;
 import com.threebird.recorder.utils.ioa.version1_1.IoaUtils1_1;
 
 import javafx.fxml.FXML;
@@ -78,12 +79,12 @@ public class BinCalculatorController
 
   @FXML private void browseBtnPressed()
   {
-    browseBtnPressed( this.fileField, "Raw data files (*.raw)", "*.raw" );
+    browseBtnPressed( this.fileField, "Session files (*.raw, *.raw.gz, *.blsa)", "*.raw", "*.raw.gz", "*.blsa" );
   }
 
   @FXML private void appendBtnPressed()
   {
-    browseBtnPressed( appendField, "Excel files (*.xls, *.xlsx)", "*.xls", "*.xlsx" );
+    browseBtnPressed( appendField, "Excel or CSV files (*.xls, *.xlsx, *.csv)", "*.xls", "*.xlsx", "*.csv" );
   }
 
   @FXML private void onCloseBtnPressed()
@@ -108,8 +109,7 @@ public class BinCalculatorController
       result = getFile( appendField );
     } else {
       FileChooser fileChooser = new FileChooser();
-      FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter( "XLS files (*.xls)", "*.xls" );
-      fileChooser.getExtensionFilters().add( extFilter );
+      fileChooser.getExtensionFilters().add( PreferencesManager.getBinExportFormat().filter() );
       result = fileChooser.showSaveDialog( BehaviorLoggerUtil.dialogStage.get() );
     }
 
@@ -136,7 +136,7 @@ public class BinCalculatorController
                                  String filterDescription,
                                  String... filterExtension )
   {
-    File f = getFile( fileField );
+    File f = SessionArchive.archiveOf( getFile( fileField ) );
     if (!f.exists()) {
       f = new File( System.getProperty( "user.home" ) );
     } else {
@@ -151,7 +151,9 @@ public class BinCalculatorController
     fileChooser.getExtensionFilters().add( extFilter );
     File newFile = fileChooser.showOpenDialog( BehaviorLoggerUtil.dialogStage.get() );
 
-    if (newFile != null) {
+    if (newFile != null && newFile.getName().endsWith( SessionArchive.EXTENSION )) {
+      ArchivedSessionChooser.choose( newFile ).ifPresent( ref -> fileField.setText( ref.getPath() ) );
+    } else if (newFile != null) {
       fileField.setText( newFile.getPath() );
     }
   }
@@ -170,7 +172,7 @@ public class BinCalculatorController
     File f1 = getFile( fileField );
     File f2 = getFile( appendField );
 
-    if (!f1.exists()) {
+    if (!SessionArchive.exists( f1 )) {
       fileField.setStyle( cssRed );
       fileNotFoundLbl.setVisible( true );
       valid = false;
@@ -196,9 +198,8 @@ public class BinCalculatorController
     File rawFile = this.getFile( this.fileField );
     boolean appendToFile = BinManager.appendSelectedProperty().get();
     int binsize = BinManager.binsizeProperty().get() < 1 ? 1 : BinManager.binsizeProperty().get();
-    SessionBean1_1 dataStream = GsonUtils.get( rawFile, new SessionBean1_1() );
-    HashMap< String, ArrayList< Integer > > map1 = IoaUtils1_1.createIoaMap( dataStream );
-    KeyToInterval partitioned = IoaUtils1_1.partition( map1, dataStream.duration, binsize );
+    SessionBean1_1 dataStream = ProcessIoa.load( rawFile );
+    KeyToInterval partitioned = IoaUtils1_1.partition( SessionIndex.of( dataStream ), binsize );
     WriteBinIntervals.write( partitioned, appendToFile, result );
   }
 }
@@ -4,6 +4,8 @@ import java.io.File;
 
 import com.google.common.base.Strings;
 import com.threebird.recorder.models.ioa.IoaManager;
+import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.persistence.recordings.SessionArchive;
 import com.threebird.recorder.utils.Alerts;
 import com.threebird.recorder.utils.BehaviorLoggerUtil;
 import com.threebird.recorder.utils.ioa.IoaMethod;
@@ -129,7 +131,7 @@ public class IoaCalculatorController
                                  String filterDescription,
                                  String... filterExtension )
   {
-    File f = getFile( fileField );
+    File f = SessionArchive.archiveOf( getFile( fileField ) );
     if (!f.exists()) {
       f = new File( System.getProperty( "user.home" ) );
     } else {
@@ -144,7 +146,9 @@ public class IoaCalculatorController
     fileChooser.getExtensionFilters().add( extFilter );
     File newFile = fileChooser.showOpenDialog( BehaviorLoggerUtil.dialogStage.get() );
 
-    if (newFile != null) {
+    if (newFile != null && newFile.getName().endsWith( SessionArchive.EXTENSION )) {
+      ArchivedSessionChooser.choose( newFile ).ifPresent( ref -> fileField.setText( ref.getPath() ) );
+    } else if (newFile != null) {
       fileField.setText( newFile.getPath() );
     }
   }
@@ -158,7 +162,7 @@ public class IoaCalculatorController
     File f2 = getFile2();
     File f3 = getAppendFile();
 
-    if (!f1.exists()) {
+    if (!SessionArchive.exists( f1 )) {
       file1Field.setStyle( cssRed );
       file1NotFoundLbl.setVisible( true );
       valid = false;
@@ -167,7 +171,7 @@ public class IoaCalculatorController
       file1NotFoundLbl.setVisible( false );
     }
 
-    if (!f2.exists()) {
+    if (!SessionArchive.exists( f2 )) {
       file2Field.setStyle( cssRed );
       file2NotFoundLbl.setVisible( true );
       valid = false;
@@ -190,17 +194,17 @@ public class IoaCalculatorController
 
   @FXML private void browse1BtnPressed()
   {
-    browseBtnPressed( file1Field, "Raw data files (*.raw)", "*.raw" );
+    browseBtnPressed( file1Field, "Session files (*.raw, *.raw.gz, *.blsa)", "*.raw", "*.raw.gz", "*.blsa" );
   }
 
   @FXML private void browse2BtnPressed()
   {
-    browseBtnPressed( file2Field, "Raw data files (*.raw)", "*.raw" );
+    browseBtnPressed( file2Field, "Session files (*.raw, *.raw.gz, *.blsa)", "*.raw", "*.raw.gz", "*.blsa" );
   }
 
   @FXML private void appendBtnPressed()
   {
-    browseBtnPressed( appendField, "Excel files (*.xls, *.xlsx)", "*.xls", "*.xlsx" );
+    browseBtnPressed( appendField, "Excel or CSV files (*.xls, *.xlsx, *.csv)", "*.xls", "*.xlsx", "*.csv" );
   }
 
   @FXML private void generateBtnPressed()
@@ -215,8 +219,7 @@ public class IoaCalculatorController
       result = getAppendFile();
     } else {
       FileChooser fileChooser = new FileChooser();
-      FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter( "XLS files (*.xls)", "*.xls" );
-      fileChooser.getExtensionFilters().add( extFilter );
+      fileChooser.getExtensionFilters().add( PreferencesManager.getIoaExportFormat().filter() );
       result = fileChooser.showSaveDialog( BehaviorLoggerUtil.dialogStage.get() );
     }
 
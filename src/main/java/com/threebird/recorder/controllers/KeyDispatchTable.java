@@ -0,0 +1,60 @@
+package com.threebird.recorder.controllers;
+
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.views.recording.BehaviorCountBox;
+
+import javafx.scene.input.KeyCode;
+
+/**
+ * Everything the {@link RecordingController} needs to log a key press, indexed by {@link MappableChar#ordinal()}. It's
+ * built once when the recording starts so that handling a key press is a couple of array reads instead of rebuilding
+ * the schema's behavior map and going through several hash maps.
+ */
+class KeyDispatchTable
+{
+  static class Binding
+  {
+    final KeyBehaviorMapping mapping;
+
+    /**
+     * null if the mapping is archived, in which case key presses are ignored
+     */
+    final BehaviorCountBox box;
+
+    Binding( KeyBehaviorMapping mapping, BehaviorCountBox box )
+    {
+      this.mapping = mapping;
+      this.box = box;
+    }
+  }
+
+  private final Binding[] bindings = new Binding[MappableChar.values().length];
+
+  void put( KeyBehaviorMapping mapping, BehaviorCountBox box )
+  {
+    bindings[mapping.key.ordinal()] = new Binding( mapping, box );
+  }
+
+  void remove( MappableChar mc )
+  {
+    bindings[mc.ordinal()] = null;
+  }
+
+  /**
+   * @return the binding for 'mc', or null if nothing is mapped to it yet
+   */
+  Binding get( MappableChar mc )
+  {
+    return bindings[mc.ordinal()];
+  }
+
+  /**
+   * @return the binding for 'code', or null if 'code' isn't mappable or nothing is mapped to it yet
+   */
+  Binding get( KeyCode code )
+  {
+    MappableChar mc = MappableChar.forKeyCode( code );
+    return mc == null ? null : bindings[mc.ordinal()];
+  }
+}
@@ -62,6 +62,7 @@ public class NotesController
     }
     stage.heightProperty().addListener( ( obs, o, xPos ) -> PositionManager.notesHeightProperty().setValue( xPos ) );
     stage.widthProperty().addListener( ( obs, o, xPos ) -> PositionManager.notesWidthProperty().setValue( xPos ) );
+    stage.setOnHidden( evt -> PositionManager.flush() );
 
     ChangeListener< Parent > onViewChange = new ChangeListener< Parent >() {
       @Override public void changed( ObservableValue< ? extends Parent > observable,
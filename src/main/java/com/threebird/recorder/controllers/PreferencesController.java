@@ -12,6 +12,7 @@ import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextField;
@@ -21,6 +22,8 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 
+import com.google.common.primitives.Ints;
+import com.threebird.recorder.models.preferences.ExportFormat;
 import com.threebird.recorder.models.preferences.FilenameComponent;
 import com.threebird.recorder.models.preferences.PreferencesManager;
 import com.threebird.recorder.utils.BehaviorLoggerUtil;
@@ -52,6 +55,13 @@ public class PreferencesController
 
   @FXML private CheckBox checkVersion;
 
+  @FXML private ChoiceBox< ExportFormat > sessionFormatBox;
+  @FXML private ChoiceBox< ExportFormat > ioaFormatBox;
+  @FXML private ChoiceBox< ExportFormat > binFormatBox;
+
+  @FXML private CheckBox compressCheckBox;
+  @FXML private TextField compactDaysField;
+
   @FXML private VBox errMsgBox;
 
   @FXML private Button saveBtn;
@@ -78,6 +88,19 @@ public class PreferencesController
     setupDurationTextFields();
 
     checkVersion.setSelected( PreferencesManager.getCheckVersion() );
+
+    sessionFormatBox.getItems().setAll( ExportFormat.values() );
+    sessionFormatBox.setValue( PreferencesManager.getSessionExportFormat() );
+    sessionFormatBox.valueProperty().addListener( ( o, oldV, newV ) -> redrawFilenameExample() );
+    ioaFormatBox.getItems().setAll( ExportFormat.values() );
+    ioaFormatBox.setValue( PreferencesManager.getIoaExportFormat() );
+    binFormatBox.getItems().setAll( ExportFormat.values() );
+    binFormatBox.setValue( PreferencesManager.getBinExportFormat() );
+
+    compressCheckBox.setSelected( PreferencesManager.getCompressRaw() );
+    int days = PreferencesManager.getCompactAfterDays();
+    compactDaysField.setText( days > 0 ? Integer.toString( days ) : "" );
+    compactDaysField.setOnKeyTyped( BehaviorLoggerUtil.createFieldLimiter( "0123456789".toCharArray(), 4 ) );
   }
 
   private void initComponentsBox()
@@ -132,7 +155,9 @@ public class PreferencesController
                      .map( c -> c.example )
                      .collect( Collectors.toList() );
 
-    String example = String.format( "%s.xls", String.join( "-", examples ) );
+    ExportFormat format = sessionFormatBox.getValue();
+    String extension = format == null ? PreferencesManager.getSessionExportFormat().extension : format.extension;
+    String example = String.format( "%s.%s", String.join( "-", examples ), extension );
     exampleLbl.setText( example );
   }
 
@@ -284,6 +309,14 @@ public class PreferencesController
 
     PreferencesManager.setCheckVersion( checkVersion.isSelected() );
 
+    PreferencesManager.saveSessionExportFormat( sessionFormatBox.getValue() );
+    PreferencesManager.saveIoaExportFormat( ioaFormatBox.getValue() );
+    PreferencesManager.saveBinExportFormat( binFormatBox.getValue() );
+
+    PreferencesManager.saveCompressRaw( compressCheckBox.isSelected() );
+    Integer days = Ints.tryParse( compactDaysField.getText().trim() );
+    PreferencesManager.saveCompactAfterDays( days == null ? 0 : days );
+
     BehaviorLoggerUtil.dialogStage.get().close();
   }
 
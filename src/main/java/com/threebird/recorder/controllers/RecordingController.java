@@ -2,31 +2,31 @@ package com.threebird.recorder.controllers;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.threebird.recorder.models.MappableChar;
 import com.threebird.recorder.models.behaviors.ContinuousBehavior;
 import com.threebird.recorder.models.behaviors.DiscreteBehavior;
+import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
 import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.models.schemas.SchemasManager;
 import com.threebird.recorder.models.sessions.ContinuousCounter;
 import com.threebird.recorder.models.sessions.RecordingManager;
 import com.threebird.recorder.models.sessions.SessionManager;
+import com.threebird.recorder.persistence.RawArchive;
 import com.threebird.recorder.utils.BehaviorLoggerUtil;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 import com.threebird.recorder.views.recording.BehaviorCountBox;
 import com.threebird.recorder.views.recording.ContinuousCountBox;
 import com.threebird.recorder.views.recording.DiscreteCountBox;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -45,15 +45,38 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 /**
  * Controls recording.fxml
  */
 public class RecordingController
 {
+  /**
+   * Pairs a continuous behavior's count-box with the counter it displays, so the render loop doesn't need any map
+   * lookups
+   */
+  private static class ContinuousRow
+  {
+    final ContinuousCountBox box;
+    final ContinuousCounter counter;
+
+    ContinuousRow( ContinuousCountBox box, ContinuousCounter counter )
+    {
+      this.box = box;
+      this.counter = counter;
+    }
+  }
+
+  private static final Histogram keyPresses = Metrics.histogram( "recording.key_pressed" );
+
   private RecordingManager manager;
 
+  /**
+   * The schema this recording was started with. It's pinned here so the per-frame and per-key code doesn't need to go
+   * through SchemasManager.
+   */
+  private SchemaVersion schema;
+
   @FXML private Label clientLabel;
   @FXML private Label projectLabel;
   @FXML private HBox sessionDetailsBox;
@@ -61,11 +84,16 @@ public class RecordingController
   @FXML private GridPane behaviorGrid;
   @FXML private VBox discreteBox;
   @FXML private VBox continuousBox;
-  private Map< MappableChar, BehaviorCountBox > countBoxes = Maps.newHashMap();
+  private final KeyDispatchTable keyTable = new KeyDispatchTable();
+  private List< ContinuousRow > continuousRows = new ArrayList< ContinuousRow >();
 
   @FXML private Text pausedText;
   @FXML private Text recordingText;
   @FXML private Label timeBox;
+  private AnimationTimer renderLoop;
+  private final char[] timestampBuffer = new char[12];
+  private int displayedSeconds = 0;
+  private boolean durationReached = false;
 
   @FXML private Label spacebarLbl;
   @FXML private StackPane saveLabelPane;
@@ -92,7 +120,7 @@ public class RecordingController
 
   private void init()
   {
-    SchemaVersion schema = SchemasManager.getSelected();
+    schema = SchemasManager.getSelected();
     manager = new RecordingManager();
 
     behaviorGrid.setDisable( true );
@@ -126,7 +154,9 @@ public class RecordingController
       sessionDetailsBox.getChildren().add( new Label( session ) );
     }
 
-    savedLabel.setText( "Saved data to " + RecordingManager.getFullFileName() + "(.raw/.xls)" );
+    String extension = PreferencesManager.getSessionExportFormat().extension;
+    String files = "(" + RawArchive.extension() + "/." + extension + ")";
+    savedLabel.setText( "Saved data to " + RecordingManager.getFullFileName() + files );
     savedLabel.setVisible( false );
     // saveLabelPane.setVisible( false );
 
@@ -139,17 +169,16 @@ public class RecordingController
 
   public void update()
   {
-    SchemaVersion schema = SchemasManager.getSelected();
-
     // Figure out which unknowns were ignored and which were updated
-    Set< MappableChar > mappedChars = schema.behaviorsMap().keySet();
+    CompiledSchema compiled = manager.compiledSchema();
+    Set< MappableChar > mappedChars = compiled.keys();
     Set< MappableChar > unknownChars = manager.unknowns.keySet();
     SetView< MappableChar > ignoredChars = Sets.difference( unknownChars, mappedChars );
     SetView< MappableChar > newChars = Sets.intersection( mappedChars, unknownChars );
 
     // Remove the [unknown]s we don't care about from the GUI
     for (MappableChar ignored : ignoredChars) {
-      BehaviorCountBox countBox = countBoxes.get( ignored );
+      BehaviorCountBox countBox = keyTable.get( ignored ).box;
       boolean isDiscrete = discreteBox.getChildren().contains( countBox );
       List< Node > target =
           isDiscrete ? discreteBox.getChildren() : continuousBox.getChildren();
@@ -158,19 +187,22 @@ public class RecordingController
       target.remove( i + 1 );
       target.remove( i );
 
-      countBoxes.remove( ignored );
+      keyTable.remove( ignored );
 
       if (isDiscrete) {
         manager.discreteCounts.remove( ignored );
       } else {
         manager.continuousCounts.remove( ignored );
+        continuousRows.removeIf( row -> row.box == countBox );
       }
     }
 
-    // Update the CountBoxes labels
+    // Update the CountBoxes labels, and point their keys at the new mappings
     for (MappableChar newChar : newChars) {
-      KeyBehaviorMapping kbm = schema.behaviorsMap().get( newChar );
-      countBoxes.get( kbm.key ).behaviorLbl.setText( kbm.description );
+      KeyBehaviorMapping kbm = compiled.mapping( newChar );
+      BehaviorCountBox countBox = keyTable.get( newChar ).box;
+      countBox.behaviorLbl.setText( kbm.description );
+      keyTable.put( kbm, countBox );
     }
 
     addNewKeysButton.setVisible( false );
@@ -181,10 +213,10 @@ public class RecordingController
    */
   private void initializeBehaviorCountBoxes()
   {
-    SchemaVersion schema = SchemasManager.getSelected();
-
     for (KeyBehaviorMapping kbm : schema.behaviors) {
-      if (!kbm.archived) {
+      if (kbm.archived) {
+        keyTable.put( kbm, null );
+      } else {
         initializeBehaviorCountBox( kbm );
       }
     }
@@ -194,74 +226,87 @@ public class RecordingController
   {
     BehaviorCountBox bcb;
     VBox target;
-    SimpleIntegerProperty count = new SimpleIntegerProperty( 0 );
 
     if (kbm.isContinuous) {
-      bcb = new ContinuousCountBox( kbm );
+      ContinuousCountBox ccb = new ContinuousCountBox( kbm );
+      ContinuousCounter counter = new ContinuousCounter();
+      bcb = ccb;
       target = continuousBox;
-      initializeContinuousCountBox( kbm, count );
+      manager.continuousCounts.put( kbm.key, counter );
+      continuousRows.add( new ContinuousRow( ccb, counter ) );
     } else {
+      SimpleIntegerProperty count = new SimpleIntegerProperty( 0 );
       bcb = new DiscreteCountBox( kbm );
       target = discreteBox;
       manager.discreteCounts.put( kbm.key, count );
+      count.addListener( ( obs, old, newv ) -> bcb.setCount( newv.intValue() ) );
     }
 
-    count.addListener( ( obs, old, newv ) -> bcb.setCount( newv.intValue() ) );
     target.getChildren().add( bcb );
     target.getChildren().add( new Separator() );
 
-    countBoxes.put( kbm.key, bcb );
+    keyTable.put( kbm, bcb );
   }
 
-  private void initializeContinuousCountBox( KeyBehaviorMapping kbm, SimpleIntegerProperty count )
+  /**
+   * Sets up the 'renderLoop', which redraws the time-box and continuous counters once per frame while recording. The
+   * session clock ticks every millisecond, but there's no point in touching the labels more often than they're drawn.
+   */
+  private void initializeTimer()
   {
-    Timeline timer = new Timeline();
-
-    timer.setCycleCount( Animation.INDEFINITE );
-    KeyFrame kf = new KeyFrame( Duration.millis( 1 ), evt -> {
-      count.set( count.get() + 1 );
-    } );
-    timer.getKeyFrames().add( kf );
-
-    manager.playingProperty.addListener( ( obs, oldV, playing ) -> {
-      if (manager.midContinuous.containsKey( kbm.key )) {
-        if (playing) {
-          timer.play();
-        } else {
-          timer.pause();
-        }
+    renderLoop = new AnimationTimer() {
+      @Override public void handle( long now )
+      {
+        render();
       }
-    } );
-
-    manager.continuousCounts.put( kbm.key, new ContinuousCounter( timer, count ) );
+    };
   }
 
   /**
-   * Sets up the 'timer' field to call "onTick" every second.
+   * Samples the session clock once and updates whichever labels display a different value than before
    */
-  private void initializeTimer()
+  private void render()
   {
-    manager.counter.addListener( ( ctr, old, count ) -> onTick( count.intValue() ) );
+    int millis = manager.count();
+
+    int seconds = millis / 1000;
+    if (seconds != displayedSeconds) {
+      displayedSeconds = seconds;
+      int length = BehaviorLoggerUtil.millisToTimestamp( millis, timestampBuffer );
+      timeBox.setText( length < 0
+          ? BehaviorLoggerUtil.millisToTimestamp( millis )
+          : new String( timestampBuffer, 0, length ) );
+    }
+
+    for (int i = 0; i < continuousRows.size(); i++) {
+      ContinuousRow row = continuousRows.get( i );
+      row.box.setCount( row.counter.total( millis ) );
+    }
+
+    checkDuration( millis );
   }
 
   /**
-   * Every millisecond, update the counter. When the counter reaches the duration, try to signal the user
+   * When the counter reaches the duration, try to signal the user
    */
-  private void onTick( int millis )
+  private void checkDuration( int millis )
   {
-    SchemaVersion schema = SchemasManager.getSelected();
-    timeBox.setText( BehaviorLoggerUtil.millisToTimestamp( millis ) );
+    if (durationReached || schema.duration == null || schema.duration <= 0) {
+      return;
+    }
+
+    if (millis >= schema.duration) {
+      durationReached = true;
 
-    if (millis == schema.duration) {
-      if (schema.color) {
+      if (Boolean.TRUE.equals( schema.color )) {
         timeBox.setStyle( "-fx-background-color: #FFC0C0;-fx-border-color:red;-fx-border-radius:2;" );
       }
 
-      if (schema.pause) {
+      if (Boolean.TRUE.equals( schema.pause )) {
         manager.playingProperty.set( false );
       }
 
-      if (schema.sound) {
+      if (Boolean.TRUE.equals( schema.sound )) {
         java.awt.Toolkit.getDefaultToolkit().beep();
       }
     }
@@ -273,22 +318,20 @@ public class RecordingController
   private void onPlayToggled( boolean playing )
   {
     if (playing) {
-      manager.timer.play();
+      renderLoop.start();
       saveLabelPane.setVisible( false );
     } else {
-      manager.timer.pause();
+      renderLoop.stop();
       saveLabelPane.setVisible( true );
       
       // trigger all mid-continuous keys
-      List< KeyBehaviorMapping > midContinousKeys = new ArrayList<KeyBehaviorMapping>();
-      for (Entry< MappableChar, ContinuousBehavior > e : manager.midContinuous.entrySet()) {
-        ContinuousBehavior cb = e.getValue();
-        KeyBehaviorMapping kbm = new KeyBehaviorMapping( cb.uuid, e.getKey(), cb.name, true, false );
-        midContinousKeys.add( kbm );
-      }
-      for (KeyBehaviorMapping kbm : midContinousKeys) {
-        logBehavior( kbm );
+      List< MappableChar > midContinousKeys = new ArrayList< MappableChar >( manager.midContinuous.keySet() );
+      for (MappableChar mc : midContinousKeys) {
+        logBehavior( keyTable.get( mc ) );
       }
+
+      // Draw the final values, since the render loop has stopped
+      render();
     }
 
     behaviorGrid.setDisable( !behaviorGrid.isDisabled() );
@@ -325,8 +368,17 @@ public class RecordingController
       return true;
     }
 
+    boolean isRedo = (KeyCode.Z.equals( c ) && evt.isShortcutDown() && evt.isShiftDown())
+        || (KeyCode.Y.equals( c ) && evt.isShortcutDown());
+    if (isRedo) {
+      redo();
+      render();
+      return true;
+    }
+
     if (KeyCode.Z.equals( c ) && evt.isShortcutDown()) {
       undo();
+      render();
       return true;
     }
 
@@ -339,158 +391,45 @@ public class RecordingController
   }
 
   /**
-   * Returns the latest, actively running, ContinuousBehavior or null if there are none running
+   * Reverts the latest logged behavior
    */
-  private ContinuousBehavior getLatestRunningContinuous()
+  private void undo()
   {
-    ContinuousBehavior result = null;
-
-    for (Entry< MappableChar, ContinuousBehavior > entry : manager.midContinuous.entrySet()) {
-      ContinuousBehavior cb = entry.getValue();
-      if (result == null || result.startTime < cb.startTime) {
-        result = cb;
-      }
-    }
-
-    return result;
+    syncToggle( manager.undo() );
   }
 
   /**
-   * Removes the latest logged behavior from either the Discrete or Continuous list (whichever is latest)
+   * Re-applies the most recently undone behavior
    */
-  private void undo()
+  private void redo()
   {
-    int lastIndexDiscrete = manager.discrete.size() - 1;
-    int lastIndexContinuous = manager.continuous.size() - 1;
-
-    DiscreteBehavior db = lastIndexDiscrete < 0 ? null : manager.discrete.get( lastIndexDiscrete );
-    ContinuousBehavior cb = lastIndexContinuous < 0 ? null : manager.continuous.get( lastIndexContinuous );
-    ContinuousBehavior midCb = getLatestRunningContinuous();
-
-    if (discreteIsLatest( db, cb, midCb )) {
-      removeLatestDiscrete();
-      return;
-    }
-
-    if (continuousIsLatest( db, cb, midCb )) {
-      removeLatestContinuous();
-      return;
-    }
-
-    if (midContinuousIsLatest( db, cb, midCb )) {
-      removeMidContinuous( midCb );
-      return;
-    }
+    syncToggle( manager.redo() );
   }
 
-  private boolean discreteIsLatest( DiscreteBehavior db,
-                                    ContinuousBehavior cb,
-                                    ContinuousBehavior midCb )
-  {
-    if (db == null) {
-      return false;
-    }
-
-    if (cb != null && db.startTime < cb.startTime + cb.getDuration()) {
-      return false;
-    }
-
-    if (midCb != null && db.startTime < midCb.startTime) {
-      return false;
-    }
-
-    return true;
-  }
-
-  private boolean continuousIsLatest( DiscreteBehavior db,
-                                      ContinuousBehavior cb,
-                                      ContinuousBehavior midCb )
-  {
-    if (cb == null) {
-      return false;
-    }
-
-    int endTime = cb.startTime + cb.getDuration();
-
-    if (db != null && db.startTime > endTime) {
-      return false;
-    }
-
-    if (midCb != null && endTime < midCb.startTime) {
-      return false;
-    }
-
-    return true;
-  }
-
-  private boolean midContinuousIsLatest( DiscreteBehavior db,
-                                         ContinuousBehavior cb,
-                                         ContinuousBehavior midCb )
-  {
-    if (midCb == null) {
-      return false;
-    }
-
-    if (db != null && db.startTime > midCb.startTime) {
-      return false;
-    }
-
-    if (cb != null && cb.startTime + cb.getDuration() > midCb.startTime) {
-      return false;
-    }
-
-    return true;
-  }
-
-  private void removeLatestDiscrete()
+  /**
+   * After an undo or redo, a continuous behavior may have started or stopped running, so make its box match
+   */
+  private void syncToggle( MappableChar key )
   {
-    int lastIndexDiscrete = manager.discrete.size() - 1;
-    if (lastIndexDiscrete < 0) {
+    if (key == null) {
       return;
     }
 
-    DiscreteBehavior db = manager.discrete.get( lastIndexDiscrete );
-    manager.discrete.remove( lastIndexDiscrete );
-    SimpleIntegerProperty count = manager.discreteCounts.get( db.key );
-    count.set( count.get() - 1 );
-  }
-
-  private void removeLatestContinuous()
-  {
-    int lastIndexContinuous = manager.continuous.size() - 1;
-    if (lastIndexContinuous < 0) {
-      return;
+    BehaviorCountBox box = keyTable.get( key ).box;
+    if (box instanceof ContinuousCountBox) {
+      ((ContinuousCountBox) box).setToggled( manager.midContinuous.containsKey( key ) );
     }
-
-    ContinuousBehavior cb = manager.continuous.get( lastIndexContinuous );
-    manager.continuous.remove( lastIndexContinuous );
-
-    ContinuousCounter counter = manager.continuousCounts.get( cb.key );
-    counter.count.set( counter.count.get() - cb.getDuration() );
   }
 
-  private void removeMidContinuous( ContinuousBehavior midCb )
+  private void logBehavior( KeyDispatchTable.Binding binding )
   {
-    manager.midContinuous.remove( midCb.key );
-
-    ContinuousCounter counter = manager.continuousCounts.get( midCb.key );
-    counter.timer.stop();
-    int duration = manager.count() - midCb.startTime;
-    counter.count.set( counter.count.get() - duration );
-
-    countBoxes.get( midCb.key ).toggle();
-  }
-
-  private void logBehavior( KeyBehaviorMapping mapping )
-  {
-    countBoxes.get( mapping.key ).toggle();
+    KeyBehaviorMapping mapping = binding.mapping;
+    binding.box.toggle();
 
     if (mapping.isContinuous) {
       logContinuous( mapping );
     } else {
       manager.log( new DiscreteBehavior( mapping.uuid, mapping.key, mapping.description, manager.count() ) );
-      SimpleIntegerProperty count = manager.discreteCounts.get( mapping.key );
-      count.set( count.get() + 1 );
     }
   }
 
@@ -502,16 +441,13 @@ public class RecordingController
   private void logContinuous( KeyBehaviorMapping mapping )
   {
     if (manager.midContinuous.containsKey( mapping.key )) {
-      ContinuousBehavior cb = manager.midContinuous.get( mapping.key );
-      int duration = manager.count() - cb.startTime;
-      manager.log( new ContinuousBehavior( cb.uuid, cb.key, cb.name, cb.startTime, duration ) );
-      manager.midContinuous.remove( mapping.key );
-      manager.continuousCounts.get( mapping.key ).timer.pause();
+      manager.stopContinuous( mapping.key );
     } else {
-      ContinuousBehavior cb =
-          new ContinuousBehavior( mapping.uuid, mapping.key, mapping.description, manager.count(), null );
-      manager.midContinuous.put( mapping.key, cb );
-      manager.continuousCounts.get( mapping.key ).timer.play();
+      manager.startContinuous( new ContinuousBehavior( mapping.uuid,
+                                                       mapping.key,
+                                                       mapping.description,
+                                                       manager.count(),
+                                                       null ) );
     }
   }
 
@@ -523,13 +459,20 @@ public class RecordingController
     KeyBehaviorMapping kbm = new KeyBehaviorMapping( null, mc, "[unknown]", isContinuous, false );
     initializeBehaviorCountBox( kbm );
     manager.unknowns.put( mc, kbm );
-    logBehavior( kbm );
+    logBehavior( keyTable.get( mc ) );
   }
 
   /**
    * Attached to the root pane, onKeyPressed should fire when the user types a key, no matter what is selected
    */
   @FXML private void onKeyPressed( KeyEvent evt )
+  {
+    long start = System.nanoTime();
+    dispatchKey( evt );
+    keyPresses.recordSince( start );
+  }
+
+  private void dispatchKey( KeyEvent evt )
   {
     boolean isShortcut = handleShortcut( evt );
     if (isShortcut) {
@@ -541,19 +484,19 @@ public class RecordingController
     }
 
     KeyCode code = evt.getCode();
-    MappableChar.getForKeyCode( code ).ifPresent( mc -> {
-      SchemaVersion schema = SchemasManager.getSelected();
-      if (schema.behaviorsMap().containsKey( mc )) {
-        KeyBehaviorMapping kbm = schema.behaviorsMap().get( mc );
-        if (!kbm.archived) {
-          logBehavior( schema.behaviorsMap().get( mc ) );
-        }
-      } else if (manager.unknowns.containsKey( mc )) {
-        logBehavior( manager.unknowns.get( mc ) );
-      } else {
-        initUnknown( mc, evt.isShiftDown() );
+    KeyDispatchTable.Binding binding = keyTable.get( code );
+    if (binding != null) {
+      // Archived behaviors don't have a box, and are ignored
+      if (binding.box != null) {
+        logBehavior( binding );
       }
-    } );
+      return;
+    }
+
+    MappableChar mc = MappableChar.forKeyCode( code );
+    if (mc != null) {
+      initUnknown( mc, evt.isShiftDown() );
+    }
   }
 
   @FXML private void onPlayPress( ActionEvent evt )
@@ -609,7 +552,7 @@ public class RecordingController
     Integer sessionNum = SessionManager.getSessionNumber();
 
     checkUnknownsAndChangeScene( () -> {
-      if (sessionNum != null && manager.timer.getCurrentTime().greaterThan( Duration.ZERO )) {
+      if (sessionNum != null && manager.clock.hasStarted()) {
         SessionManager.setSessionNumber( sessionNum + 1 );
       }
       StartMenuController.toStartMenuView();
@@ -0,0 +1,273 @@
+package com.threebird.recorder.controllers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Strings;
+import com.google.common.primitives.Ints;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.sessions.ReplayClock;
+import com.threebird.recorder.models.sessions.SessionReplay;
+import com.threebird.recorder.utils.Alerts;
+import com.threebird.recorder.utils.BehaviorLoggerUtil;
+import com.threebird.recorder.views.recording.ContinuousCountBox;
+import com.threebird.recorder.views.recording.DiscreteCountBox;
+
+import javafx.animation.AnimationTimer;
+import javafx.event.ActionEvent;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Separator;
+import javafx.scene.control.Slider;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.util.StringConverter;
+
+/**
+ * Controls replay.fxml, which plays a saved session back through the same count-boxes used while recording
+ */
+public class ReplayController
+{
+  private static class DiscreteRow
+  {
+    final DiscreteCountBox box;
+    final MappableChar key;
+    int displayed = 0;
+
+    DiscreteRow( DiscreteCountBox box, MappableChar key )
+    {
+      this.box = box;
+      this.key = key;
+    }
+  }
+
+  private static class ContinuousRow
+  {
+    final ContinuousCountBox box;
+    final MappableChar key;
+    boolean running = false;
+
+    ContinuousRow( ContinuousCountBox box, MappableChar key )
+    {
+      this.box = box;
+      this.key = key;
+    }
+  }
+
+  private static final int ARROW_SEEK_MILLIS = 5000;
+
+  private SessionReplay replay;
+  private ReplayClock clock;
+
+  @FXML private Label clientLabel;
+  @FXML private Label projectLabel;
+  @FXML private HBox sessionDetailsBox;
+
+  @FXML private VBox discreteBox;
+  @FXML private VBox continuousBox;
+  private final List< DiscreteRow > discreteRows = new ArrayList<>();
+  private final List< ContinuousRow > continuousRows = new ArrayList<>();
+
+  @FXML private Label timeBox;
+  @FXML private Slider seekBar;
+  @FXML private Label durationLbl;
+  @FXML private ChoiceBox< Integer > speedChoice;
+  @FXML private Button playButton;
+  @FXML private Button goBackButton;
+
+  private AnimationTimer renderLoop;
+  private final char[] timestampBuffer = new char[12];
+  private int displayedSeconds = -1;
+
+  /**
+   * True while render() moves the seek-bar, so that doesn't count as the user seeking
+   */
+  private boolean rendering = false;
+
+  /**
+   * Loads 'session' and sets the stage to the Replay view
+   *
+   * @param session
+   *          a session file, or a reference into a session archive
+   */
+  public static void toReplayView( File session )
+  {
+    SessionReplay replay;
+    try {
+      replay = SessionReplay.load( session );
+    } catch (Exception e) {
+      Alerts.error( "Replay Session", "Couldn't read " + session.getName(), e );
+      e.printStackTrace();
+      return;
+    }
+
+    String filepath = "views/recording/replay.fxml";
+    ReplayController controller = BehaviorLoggerUtil.loadScene( filepath, "Replay" );
+    controller.init( replay );
+  }
+
+  private void init( SessionReplay replay )
+  {
+    this.replay = replay;
+    this.clock = replay.clock;
+
+    clientLabel.setText( replay.schema.client );
+    projectLabel.setText( replay.schema.project );
+    String started = new DateTime( replay.startTime ).toString( "yyyy-MM-dd HH:mm" );
+    sessionDetailsBox.getChildren().add( new Label( "Recorded: " + started ) );
+
+    for (KeyBehaviorMapping kbm : replay.behaviors()) {
+      if (kbm.isContinuous) {
+        ContinuousCountBox box = new ContinuousCountBox( kbm );
+        continuousRows.add( new ContinuousRow( box, kbm.key ) );
+        continuousBox.getChildren().addAll( box, new Separator() );
+      } else {
+        DiscreteCountBox box = new DiscreteCountBox( kbm );
+        discreteRows.add( new DiscreteRow( box, kbm.key ) );
+        discreteBox.getChildren().addAll( box, new Separator() );
+      }
+    }
+
+    durationLbl.setText( BehaviorLoggerUtil.millisToTimestamp( replay.durationMillis ) );
+    seekBar.setMax( replay.durationMillis );
+    seekBar.valueProperty().addListener( ( obs, oldV, newV ) -> {
+      if (!rendering) {
+        clock.seek( newV.intValue() );
+        render( false );
+      }
+    } );
+
+    speedChoice.getItems().setAll( Ints.asList( SessionReplay.SPEEDS ) );
+    speedChoice.setConverter( new StringConverter< Integer >() {
+      @Override public String toString( Integer speed )
+      {
+        return speed + "x";
+      }
+
+      @Override public Integer fromString( String s )
+      {
+        return Integer.valueOf( Strings.nullToEmpty( s ).replace( "x", "" ) );
+      }
+    } );
+    speedChoice.setValue( clock.getSpeed() );
+    speedChoice.valueProperty().addListener( ( obs, oldV, speed ) -> clock.setSpeed( speed ) );
+
+    renderLoop = new AnimationTimer() {
+      @Override public void handle( long now )
+      {
+        render( true );
+        if (clock.isFinished()) {
+          setPlaying( false );
+        }
+      }
+    };
+
+    render( false );
+  }
+
+  /**
+   * Shows the session as of the clock's current time. Every value is looked up directly, so this is just as cheap after
+   * a seek as between two frames.
+   *
+   * @param flash
+   *          if true, discrete boxes whose count went up flash, as they did when the behavior was recorded
+   */
+  private void render( boolean flash )
+  {
+    int millis = clock.millis();
+
+    int seconds = millis / 1000;
+    if (seconds != displayedSeconds) {
+      displayedSeconds = seconds;
+      int length = BehaviorLoggerUtil.millisToTimestamp( millis, timestampBuffer );
+      timeBox.setText( length < 0
+          ? BehaviorLoggerUtil.millisToTimestamp( millis )
+          : new String( timestampBuffer, 0, length ) );
+    }
+
+    rendering = true;
+    seekBar.setValue( millis );
+    rendering = false;
+
+    for (int i = 0; i < discreteRows.size(); i++) {
+      DiscreteRow row = discreteRows.get( i );
+      int count = replay.count( row.key, millis );
+      if (count != row.displayed) {
+        if (flash && count > row.displayed) {
+          row.box.toggle();
+        }
+        row.displayed = count;
+        row.box.setCount( count );
+      }
+    }
+
+    for (int i = 0; i < continuousRows.size(); i++) {
+      ContinuousRow row = continuousRows.get( i );
+      row.box.setCount( replay.occupancy( row.key, millis ) );
+      boolean running = replay.isRunning( row.key, millis );
+      if (running != row.running) {
+        row.running = running;
+        row.box.setToggled( running );
+      }
+    }
+  }
+
+  private void setPlaying( boolean playing )
+  {
+    if (playing) {
+      clock.play();
+      renderLoop.start();
+    } else {
+      clock.pause();
+      renderLoop.stop();
+      render( false );
+    }
+
+    playButton.setText( playing ? "Pause" : clock.isFinished() ? "Replay" : "Play" );
+  }
+
+  private void seekBy( int millis )
+  {
+    clock.seek( clock.millis() + millis );
+    render( false );
+  }
+
+  @FXML private void onKeyPressed( KeyEvent evt )
+  {
+    KeyCode c = evt.getCode();
+    if (KeyCode.SPACE.equals( c )) {
+      setPlaying( !clock.isRunning() );
+    } else if (KeyCode.LEFT.equals( c )) {
+      seekBy( -ARROW_SEEK_MILLIS );
+    } else if (KeyCode.RIGHT.equals( c )) {
+      seekBy( ARROW_SEEK_MILLIS );
+    } else {
+      return;
+    }
+    evt.consume();
+  }
+
+  @FXML private void onPlayPress( ActionEvent evt )
+  {
+    setPlaying( !clock.isRunning() );
+  }
+
+  @FXML private void onGoBackPress( ActionEvent evt )
+  {
+    setPlaying( false );
+    StartMenuController.toStartMenuView();
+  }
+
+  @FXML private void onHelpBtnPressed()
+  {
+    BehaviorLoggerUtil.openManual( "recording" );
+  }
+}
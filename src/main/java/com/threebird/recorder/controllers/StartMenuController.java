@@ -1,15 +1,15 @@
 package com.threebird.recorder.controllers;
 
 import java.awt.Desktop;
-import java.io.BufferedReader;
 import java.io.File;
-import java.lang.reflect.Type;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.ResponseHandler;
@@ -18,12 +18,11 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
-import com.google.gson.reflect.TypeToken;
+import com.google.common.collect.Sets;
 import com.threebird.recorder.BehaviorLoggerApp;
 import com.threebird.recorder.models.NewVersionManager;
 import com.threebird.recorder.models.preferences.FilenameComponent;
@@ -33,8 +32,12 @@ import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.models.schemas.SchemasManager;
 import com.threebird.recorder.models.sessions.RecordingManager;
 import com.threebird.recorder.models.sessions.SessionManager;
-import com.threebird.recorder.persistence.GsonUtils;
-import com.threebird.recorder.persistence.Schemas;
+import com.threebird.recorder.persistence.DirectoryMonitor;
+import com.threebird.recorder.persistence.RawArchive;
+import com.threebird.recorder.persistence.SchemaTransfer;
+import com.threebird.recorder.persistence.SessionDirectories;
+import com.threebird.recorder.persistence.recordings.SessionArchive;
+import com.threebird.recorder.persistence.recordings.TrendReport;
 import com.threebird.recorder.utils.Alerts;
 import com.threebird.recorder.utils.BehaviorLoggerUtil;
 
@@ -70,6 +73,9 @@ public class StartMenuController
   @FXML private Button createSchemaButton;
   @FXML private Button editSchemaBtn;
   @FXML private Button exportSchemaButton;
+  @FXML private Button importSchemaButton;
+  @FXML private Button trendsButton;
+  @FXML private Button archiveButton;
 
   @FXML private VBox rightSide;
   @FXML private VBox mappingsBox;
@@ -134,6 +140,8 @@ public class StartMenuController
     rightSide.setVisible( visible );
     editSchemaBtn.setVisible( visible );
     exportSchemaButton.setVisible( visible );
+    trendsButton.setVisible( visible );
+    archiveButton.setVisible( visible );
   }
 
   /**
@@ -231,22 +239,30 @@ public class StartMenuController
       return;
     }
 
-    String text = String.format( "%s (.raw/.xls)", RecordingManager.getFileName() );
+    String text = String.format( "%s (%s/.%s)",
+                                 RecordingManager.getFileName(),
+                                 RawArchive.extension(),
+                                 PreferencesManager.getSessionExportFormat().extension );
     filenameLbl.setText( text );
 
-    boolean isConflicting = dataFilenameHasConflict();
+    // Called on every keystroke in the session details, so this checks DirectoryMonitor's listing instead of the disk
+    boolean isConflicting = dataFilenameHasConflict( DirectoryMonitor.shared::exists );
     warningImg.setVisible( isConflicting );
     filenameLbl.setTextFill( isConflicting ? Color.ORANGE : Color.BLACK );
   }
 
-  private boolean dataFilenameHasConflict()
+  /**
+   * @param exists
+   *          how to check whether each of the session's files exists
+   */
+  private boolean dataFilenameHasConflict( Predicate< File > exists )
   {
     String fullFileName = RecordingManager.getFullFileName();
-    File fCsv = new File( fullFileName + ".raw" );
-    File fXls = new File( fullFileName + ".xls" );
+    File fRaw = new File( fullFileName + RawArchive.EXTENSION );
+    File fRawGz = new File( fullFileName + RawArchive.COMPRESSED_EXTENSION );
+    File fSummary = new File( fullFileName + "." + PreferencesManager.getSessionExportFormat().extension );
 
-    boolean isConflicting = fCsv.exists() || fXls.exists();
-    return isConflicting;
+    return exists.test( fRaw ) || exists.test( fRawGz ) || exists.test( fSummary );
   }
 
   /**
@@ -278,50 +294,69 @@ public class StartMenuController
     EditSchemaController.toEditSchemaView( SchemasManager.getSelected() );
   }
 
+  /**
+   * Schema files can hold a long version-set, so reading and saving them happens in the background. The file is checked
+   * in full before the user is asked to confirm, and nothing is written until they do. Picking several files, or a zip
+   * of them, imports them all at once.
+   */
   @FXML private void onImportSchemaPressed()
   {
     // Load file
     FileChooser fileChooser = new FileChooser();
-    ExtensionFilter extFilter = new FileChooser.ExtensionFilter( "Schema files (*.schema)", "*.schema" );
+    ExtensionFilter extFilter =
+        new FileChooser.ExtensionFilter( "Schema files (*.schema, *.zip)",
+                                         "*" + SchemaTransfer.EXTENSION,
+                                         "*" + SchemaTransfer.ZIP_EXTENSION );
     fileChooser.getExtensionFilters().add( extFilter );
-    File newFile = fileChooser.showOpenDialog( BehaviorLoggerApp.STAGE );
-    
-    if (newFile == null) {
-      return;
-    }
+    List< File > files = fileChooser.showOpenMultipleDialog( BehaviorLoggerApp.STAGE );
     
-    // Parse into version-set
-    List< SchemaVersion > versionset;
-    try {
-      Type listType = new TypeToken< ArrayList< SchemaVersion > >() {}.getType();
-      BufferedReader reader = Files.newReader( newFile, Charsets.UTF_8 );
-      versionset = GsonUtils.gson.fromJson( reader, listType );
-    } catch (Exception e) {
-      Alerts.error( "Error Importing Schema", "There was a problem while processing the file.", e );
-      e.printStackTrace();
+    if (files == null || files.isEmpty()) {
       return;
     }
-    
-    if (versionset.isEmpty()) {
+
+    File newFile = files.get( 0 );
+    if (files.size() > 1 || newFile.getName().endsWith( SchemaTransfer.ZIP_EXTENSION )) {
+      importSchemas( files );
       return;
     }
-    
+
+    importSchemaButton.setDisable( true );
+    new Thread( ( ) -> {
+      // Parse into version-set
+      SchemaTransfer.Plan plan;
+      try {
+        plan = SchemaTransfer.inspect( newFile );
+      } catch (Exception e) {
+        e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          importSchemaButton.setDisable( false );
+          Alerts.error( "Error Importing Schema", "There was a problem while processing the file.", e );
+        } );
+        return;
+      }
+
+      if (plan.versions() == 0) {
+        Platform.runLater( ( ) -> importSchemaButton.setDisable( false ) );
+        return;
+      }
+
+      Platform.runLater( ( ) -> confirmImport( plan ) );
+    }, "schema-import" ).start();
+  }
+
+  private void confirmImport( SchemaTransfer.Plan plan )
+  {
     // Check if overwriting existing version-set
-    SchemaVersion newLatest = versionset.get( versionset.size() - 1 );
-    List< SchemaVersion > currentVersionset;
-    try {
-      currentVersionset = Schemas.getVersionSet( newLatest.uuid );
-    } catch (Exception e) {
-      Alerts.error( "Error Importing Schema", "There was a problem loading the current schema.", e );
-      e.printStackTrace();
-      return;
+    SchemaVersion oldLatest = null;
+    for (SchemaVersion sv : SchemasManager.schemas()) {
+      if (sv.uuid.equals( plan.schemaUuid )) {
+        oldLatest = sv;
+      }
     }
-    
+
     // Check if user wants to overwrite existing versionset
     AtomicBoolean doContinue = new AtomicBoolean( false );
-    SchemaVersion oldLatest = null;
-    if (!currentVersionset.isEmpty()) {
-      oldLatest = currentVersionset.get( currentVersionset.size() - 1 );
+    if (oldLatest != null) {
       String msg =
           String.format( "Importing this schema will edit an existing schema: %s-%s.",
                          oldLatest.client,
@@ -333,37 +368,108 @@ public class StartMenuController
       doContinue.set( true );
     }
     
-    // If this is new schema, or user denied update, then bail
+    // If user denied update, then bail
     if (!doContinue.get()) {
+      importSchemaButton.setDisable( false );
       return;
     }
-    
+
     // Save version-set to DB
-    try {
-      Schemas.saveVersionset( versionset );
-    } catch (Exception e) {
-      Alerts.error( "Error Importing Schema", "There was a problem saving the Schema.", e );
-      e.printStackTrace();
-      return;
-    }
-    
-    // Update the schema table
-    if (oldLatest != null) {
-      SchemasManager.schemas().remove( oldLatest );
-    }
-    SchemasManager.schemas().add( newLatest );
-    
-    schemaTable.refresh();
-    if (!newLatest.archived) {
-      schemaTable.getSelectionModel().select( newLatest );
-    }
+    String label = importSchemaButton.getText();
+    SchemaTransfer.Progress progress = showProgress( importSchemaButton );
+    new Thread( ( ) -> {
+      try {
+        SchemaVersion newLatest = SchemaTransfer.importFile( plan, progress );
+        Platform.runLater( ( ) -> {
+          importSchemaButton.setText( label );
+          importSchemaButton.setDisable( false );
+
+          // Update the schema table
+          SchemasManager.addOrReplace( Lists.newArrayList( newLatest ) );
+
+          schemaTable.refresh();
+          if (!newLatest.archived) {
+            schemaTable.getSelectionModel().select( newLatest );
+          }
+        } );
+      } catch (Exception e) {
+        e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          importSchemaButton.setText( label );
+          importSchemaButton.setDisable( false );
+          Alerts.error( "Error Importing Schema", "There was a problem saving the Schema.", e );
+        } );
+      }
+    }, "schema-import" ).start();
+  }
+
+  /**
+   * Imports many schema files at once, e.g. when setting up a new machine: they're parsed in parallel and saved in a
+   * single transaction, and the schema table is updated once at the end
+   */
+  private void importSchemas( List< File > files )
+  {
+    String label = importSchemaButton.getText();
+    importSchemaButton.setDisable( true );
+    new Thread( ( ) -> {
+      SchemaTransfer.Bulk bulk;
+      try {
+        bulk = SchemaTransfer.readAll( files );
+      } catch (Exception e) {
+        e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          importSchemaButton.setDisable( false );
+          Alerts.error( "Error Importing Schemas", "There was a problem while processing the files.", e );
+        } );
+        return;
+      }
+
+      Platform.runLater( ( ) -> {
+        Set< String > existing = Sets.newHashSet( Lists.transform( SchemasManager.schemas(), sv -> sv.uuid ) );
+        long replacing = bulk.schemaUuids().stream().filter( existing::contains ).count();
+        String msg = String.format( "Import %d schemas (%d versions)?", bulk.schemas(), bulk.versions() );
+        if (replacing > 0) {
+          msg += String.format( " This will edit %d existing schemas.", replacing );
+        }
+
+        AtomicBoolean doContinue = new AtomicBoolean( false );
+        Alerts.confirm( "Confirm import", null, msg, ( ) -> doContinue.set( true ) );
+        if (!doContinue.get()) {
+          importSchemaButton.setDisable( false );
+          return;
+        }
+
+        SchemaTransfer.Progress progress = showProgress( importSchemaButton );
+        new Thread( ( ) -> {
+          try {
+            List< SchemaVersion > imported = SchemaTransfer.importAll( bulk, progress );
+            Platform.runLater( ( ) -> {
+              importSchemaButton.setText( label );
+              importSchemaButton.setDisable( false );
+              SchemasManager.addOrReplace( imported );
+              schemaTable.refresh();
+            } );
+          } catch (Exception e) {
+            e.printStackTrace();
+            Platform.runLater( ( ) -> {
+              importSchemaButton.setText( label );
+              importSchemaButton.setDisable( false );
+              Alerts.error( "Error Importing Schemas",
+                            "There was a problem saving the schemas. None were imported.",
+                            e );
+            } );
+          }
+        }, "schema-import" ).start();
+      } );
+    }, "schema-import" ).start();
   }
 
   @FXML private void onExportBtnPressed()
   {
     SchemaVersion selected = SchemasManager.getSelected();
     FileChooser fileChooser = new FileChooser();
-    FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter( "Schema files (*.schema)", "*.schema" );
+    FileChooser.ExtensionFilter extFilter =
+        new FileChooser.ExtensionFilter( "Schema files (*.schema)", "*" + SchemaTransfer.EXTENSION );
     fileChooser.getExtensionFilters().add( extFilter );
 
     if (Strings.isNullOrEmpty( selected.client )) {
@@ -375,16 +481,119 @@ public class StartMenuController
     }
 
     File result = fileChooser.showSaveDialog( BehaviorLoggerApp.STAGE );
+    if (result == null) {
+      return;
+    }
+
+    String label = exportSchemaButton.getText();
+    SchemaTransfer.Progress progress = showProgress( exportSchemaButton );
+    exportSchemaButton.setDisable( true );
+    new Thread( ( ) -> {
+      try {
+        SchemaTransfer.export( selected.uuid, result, progress );
+        Platform.runLater( ( ) -> {
+          exportSchemaButton.setText( label );
+          exportSchemaButton.setDisable( false );
+        } );
+      } catch (Exception e) {
+        e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          exportSchemaButton.setText( label );
+          exportSchemaButton.setDisable( false );
+          Alerts.error( "Failed to Export", "There was a problem while exporting the selected schema.", e );
+        } );
+      }
+    }, "schema-export" ).start();
+  }
+
+  /**
+   * @return a {@link SchemaTransfer.Progress} that shows the percentage done on 'button', only when it changes
+   */
+  private static SchemaTransfer.Progress showProgress( Button button )
+  {
+    AtomicInteger shown = new AtomicInteger( -1 );
+    return ( done, total ) -> {
+      int percent = total == 0 ? 100 : done * 100 / total;
+      if (shown.getAndSet( percent ) != percent) {
+        Platform.runLater( ( ) -> button.setText( percent + "%" ) );
+      }
+    };
+  }
+
+  /**
+   * Writes a report of every session recorded with the selected schema. Reading the sessions can take a while the
+   * first time, so it happens in the background.
+   */
+  @FXML private void onTrendsPressed()
+  {
+    SchemaVersion selected = SchemasManager.getSelected();
+    FileChooser fileChooser = new FileChooser();
+    FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter( "Excel files (*.xls)", "*.xls" );
+    fileChooser.getExtensionFilters().add( extFilter );
+    fileChooser.setInitialFileName( String.format( "%s-%s-trends.xls",
+                                                   Strings.nullToEmpty( selected.client ),
+                                                   Strings.nullToEmpty( selected.project ) ) );
+
+    File result = fileChooser.showSaveDialog( BehaviorLoggerApp.STAGE );
+    if (result == null) {
+      return;
+    }
 
-    if (result != null) {
+    trendsButton.setDisable( true );
+    new Thread( ( ) -> {
       try {
-        List< SchemaVersion > versionSet = Schemas.getVersionSet( selected.uuid );
-        GsonUtils.save( result, versionSet );
+        int sessions = TrendReport.write( selected.uuid, result );
+        Platform.runLater( ( ) -> {
+          trendsButton.setDisable( false );
+          Alerts.info( "Trend Report", null, String.format( "Wrote %d sessions to %s", sessions, result.getPath() ) );
+        } );
       } catch (Exception e) {
-        Alerts.error( "Failed to Export", "There was a problem while exporting the selected schema.", e );
         e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          trendsButton.setDisable( false );
+          Alerts.error( "Failed to Write Report", "There was a problem while writing the trend report.", e );
+        } );
       }
+    }, "trend-report" ).start();
+  }
+
+  /**
+   * Packs every session recorded with the selected schema into a {@link SessionArchive}. Choosing an existing archive
+   * adds the sessions it doesn't have yet.
+   */
+  @FXML private void onArchivePressed()
+  {
+    SchemaVersion selected = SchemasManager.getSelected();
+    FileChooser fileChooser = new FileChooser();
+    FileChooser.ExtensionFilter extFilter =
+        new FileChooser.ExtensionFilter( "Session archives (*.blsa)", "*" + SessionArchive.EXTENSION );
+    fileChooser.getExtensionFilters().add( extFilter );
+    fileChooser.setInitialFileName( String.format( "%s-%s%s",
+                                                   Strings.nullToEmpty( selected.client ),
+                                                   Strings.nullToEmpty( selected.project ),
+                                                   SessionArchive.EXTENSION ) );
+
+    File result = fileChooser.showSaveDialog( BehaviorLoggerApp.STAGE );
+    if (result == null) {
+      return;
     }
+
+    archiveButton.setDisable( true );
+    new Thread( ( ) -> {
+      try {
+        int sessions = SessionArchive.build( selected.uuid, result );
+        Platform.runLater( ( ) -> {
+          archiveButton.setDisable( false );
+          Alerts.info( "Session Archive", null, String.format( "Added %d sessions to %s", sessions, result.getPath() ) );
+        } );
+      } catch (Exception e) {
+        e.printStackTrace();
+        Platform.runLater( ( ) -> {
+          archiveButton.setDisable( false );
+          Alerts.error( "Failed to Write Archive", "There was a problem while writing the session archive.", e );
+        } );
+      }
+    }, "session-archive" ).start();
   }
 
   private boolean validate()
@@ -436,7 +645,8 @@ public class StartMenuController
       return;
     }
 
-    boolean isConflicting = dataFilenameHasConflict();
+    // The listing behind the label can lag behind the disk, so check for real before anything is overwritten
+    boolean isConflicting = dataFilenameHasConflict( File::exists );
     if (isConflicting) {
       String msg =
           "Starting this session will overwrite an existing data file.\n"
@@ -458,6 +668,32 @@ public class StartMenuController
     BinCalculatorController.showBinCalculator();;
   }
 
+  /**
+   * Asks for a saved session, from the selected schema's session directory by default, and plays it back
+   */
+  @FXML private void onReplayBtnPressed()
+  {
+    FileChooser fileChooser = new FileChooser();
+    SchemaVersion selected = SchemasManager.getSelected();
+    if (selected != null) {
+      File dir = SessionDirectories.getForSchemaIdOrDefault( selected.uuid );
+      if (dir.isDirectory()) {
+        fileChooser.setInitialDirectory( dir );
+      }
+    }
+    fileChooser.getExtensionFilters().add( new ExtensionFilter( "Session files (*.raw, *.raw.gz, *.blsa)",
+                                                                "*.raw",
+                                                                "*.raw.gz",
+                                                                "*" + SessionArchive.EXTENSION ) );
+
+    File f = fileChooser.showOpenDialog( BehaviorLoggerApp.STAGE );
+    if (f != null && f.getName().endsWith( SessionArchive.EXTENSION )) {
+      ArchivedSessionChooser.choose( f ).ifPresent( ReplayController::toReplayView );
+    } else if (f != null) {
+      ReplayController.toReplayView( f );
+    }
+  }
+
   @FXML private void onHelpBtnPressed()
   {
     BehaviorLoggerUtil.openManual( "start-menu" );
@@ -85,21 +85,32 @@ public enum MappableChar
     this.code = code;
   }
 
-  private static HashMap< KeyCode, MappableChar > keycodes;
+  private static MappableChar[] keycodes;
   private static HashMap< Character, MappableChar > chars;
   static {
     MappableChar[] values = MappableChar.values();
-    keycodes = new HashMap< KeyCode, MappableChar >( values.length );
+    keycodes = new MappableChar[KeyCode.values().length];
     chars = new HashMap< Character, MappableChar >( values.length );
     for (MappableChar mc : values) {
-      keycodes.put( mc.code, mc );
+      keycodes[mc.code.ordinal()] = mc;
       chars.put( mc.c, mc );
     }
   }
 
   public static Optional< MappableChar > getForKeyCode( KeyCode kc )
   {
-    return Optional.ofNullable( keycodes.get( kc ) );
+    return Optional.ofNullable( forKeyCode( kc ) );
+  }
+
+  /**
+   * Like {@link MappableChar#getForKeyCode(KeyCode)}, but returns null instead of wrapping the result. This gets called
+   * on every key press, so it's a plain array lookup.
+   * 
+   * @return the MappableChar for 'kc', or null if 'kc' isn't mappable
+   */
+  public static MappableChar forKeyCode( KeyCode kc )
+  {
+    return keycodes[kc.ordinal()];
   }
 
   public static Optional< MappableChar > getForChar( char c )
@@ -7,10 +7,13 @@ import javafx.beans.property.SimpleDoubleProperty;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.threebird.recorder.persistence.GsonUtils;
+import com.threebird.recorder.persistence.ThrottledWriter;
 import com.threebird.recorder.utils.resources.ResourceUtils;
 
 /**
- * This simply exists to keep the state of windows' positions across sessions
+ * This simply exists to keep the state of windows' positions across sessions. Dragging or resizing a window fires
+ * hundreds of change events per second, so the geometry lives in memory and is written to disk through a
+ * {@link ThrottledWriter}. Call {@link PositionManager#flush()} when a window closes.
  */
 public class PositionManager
 {
@@ -49,6 +52,25 @@ public class PositionManager
     }
   } );
 
+  /**
+   * Reads the saved window positions from disk if that hasn't happened yet. Safe to call from a background thread.
+   */
+  public static void load()
+  {
+    defaultModel.get();
+  }
+
+  private static final long PERSIST_INTERVAL_MILLIS = 500;
+
+  private static ThrottledWriter< GsonBean > writer =
+      new ThrottledWriter< GsonBean >( PERSIST_INTERVAL_MILLIS, model -> {
+        try {
+          GsonUtils.save( file, model );
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      } );
+
   private static void persist()
   {
     GsonBean model = new GsonBean();
@@ -62,11 +84,15 @@ public class PositionManager
     model.notesHeight = notesHeightProperty().get();
     model.notesWidth = notesWidthProperty().get();
 
-    try {
-      GsonUtils.save( file, model );
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    writer.request( model );
+  }
+
+  /**
+   * Immediately writes any window geometry that hasn't been saved yet
+   */
+  public static void flush()
+  {
+    writer.flush();
   }
 
   public static SimpleDoubleProperty notesXProperty()
@@ -0,0 +1,37 @@
+package com.threebird.recorder.models.preferences;
+
+import java.io.File;
+
+import javafx.stage.FileChooser.ExtensionFilter;
+
+/**
+ * The file format of a session's summary or a calculator's results. CSV is written row by row as it's generated, so
+ * it stays fast and small on long sessions; XLS is built in memory with POI.
+ */
+public enum ExportFormat
+{
+  XLS("xls", "Excel files (*.xls)"),
+  CSV("csv", "CSV files (*.csv)");
+
+  public final String extension;
+  public final String description;
+
+  private ExportFormat( String extension, String description )
+  {
+    this.extension = extension;
+    this.description = description;
+  }
+
+  public ExtensionFilter filter()
+  {
+    return new ExtensionFilter( description, "*." + extension );
+  }
+
+  /**
+   * @return the format to write 'f' in, judging by its extension. Anything that isn't .csv is a workbook.
+   */
+  public static ExportFormat of( File f )
+  {
+    return f.getName().toLowerCase().endsWith( "." + CSV.extension ) ? CSV : XLS;
+  }
+}
@@ -5,8 +5,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -44,6 +46,11 @@ public class PreferencesManager
     boolean soundOnEnd = false;
     boolean checkVersion = true;
     String lastVersionCheck = "";
+    ExportFormat sessionExportFormat = ExportFormat.XLS;
+    ExportFormat ioaExportFormat = ExportFormat.XLS;
+    ExportFormat binExportFormat = ExportFormat.XLS;
+    boolean compressRaw = false;
+    int compactAfterDays = 0;
 
     List< GsonFilenameComp > filenameComponents =
         Lists.newArrayList( FilenameComponent.values() )
@@ -60,6 +67,11 @@ public class PreferencesManager
   private static SimpleBooleanProperty soundOnEndProperty;
   private static SimpleBooleanProperty checkVersionProperty;
   private static SimpleStringProperty lastVersionCheckProperty;
+  private static SimpleObjectProperty< ExportFormat > sessionExportFormatProperty;
+  private static SimpleObjectProperty< ExportFormat > ioaExportFormatProperty;
+  private static SimpleObjectProperty< ExportFormat > binExportFormatProperty;
+  private static SimpleBooleanProperty compressRawProperty;
+  private static SimpleIntegerProperty compactAfterDaysProperty;
 
   private static File file = ResourceUtils.getPrefs();
   private static Supplier< GsonBean > defaultModel = Suppliers.memoize( () -> {
@@ -67,13 +79,21 @@ public class PreferencesManager
     try {
       return GsonUtils.get( file, bean );
     } catch (Exception e) {
-      Alerts.warning( "Error Loading Preferences",
-                      "There was a problem while loading your preferences. The application will use default values.",
-                      e.getMessage() );
+      // This may be loaded off the FX thread during startup
+      String header = "There was a problem while loading your preferences. The application will use default values.";
+      Platform.runLater( ( ) -> Alerts.warning( "Error Loading Preferences", header, e.getMessage() ) );
       return bean;
     }
   } );
 
+  /**
+   * Reads the saved preferences from disk if that hasn't happened yet. Safe to call from a background thread.
+   */
+  public static void load()
+  {
+    defaultModel.get();
+  }
+
   private static void persist()
   {
     GsonBean model = new GsonBean();
@@ -84,6 +104,11 @@ public class PreferencesManager
     model.soundOnEnd = getSoundOnEnd();
     model.checkVersion = getCheckVersion();
     model.lastVersionCheck = lastVersionCheckProperty().get();
+    model.sessionExportFormat = getSessionExportFormat();
+    model.ioaExportFormat = getIoaExportFormat();
+    model.binExportFormat = getBinExportFormat();
+    model.compressRaw = getCompressRaw();
+    model.compactAfterDays = getCompactAfterDays();
     model.filenameComponents =
         filenameComponents().stream()
                             .map( c -> new GsonFilenameComp( c.name(), c.enabled ) )
@@ -159,6 +184,65 @@ public class PreferencesManager
     return lastVersionCheckProperty;
   }
 
+  public static synchronized SimpleObjectProperty< ExportFormat > sessionExportFormatProperty()
+  {
+    if (sessionExportFormatProperty == null) {
+      ExportFormat saved = orXls( defaultModel.get().sessionExportFormat );
+      sessionExportFormatProperty = new SimpleObjectProperty< ExportFormat >( saved );
+      sessionExportFormatProperty.addListener( ( o, old, newV ) -> persist() );
+    }
+    return sessionExportFormatProperty;
+  }
+
+  public static synchronized SimpleObjectProperty< ExportFormat > ioaExportFormatProperty()
+  {
+    if (ioaExportFormatProperty == null) {
+      ExportFormat saved = orXls( defaultModel.get().ioaExportFormat );
+      ioaExportFormatProperty = new SimpleObjectProperty< ExportFormat >( saved );
+      ioaExportFormatProperty.addListener( ( o, old, newV ) -> persist() );
+    }
+    return ioaExportFormatProperty;
+  }
+
+  public static synchronized SimpleObjectProperty< ExportFormat > binExportFormatProperty()
+  {
+    if (binExportFormatProperty == null) {
+      ExportFormat saved = orXls( defaultModel.get().binExportFormat );
+      binExportFormatProperty = new SimpleObjectProperty< ExportFormat >( saved );
+      binExportFormatProperty.addListener( ( o, old, newV ) -> persist() );
+    }
+    return binExportFormatProperty;
+  }
+
+  public static synchronized SimpleBooleanProperty compressRawProperty()
+  {
+    if (compressRawProperty == null) {
+      compressRawProperty = new SimpleBooleanProperty( defaultModel.get().compressRaw );
+      compressRawProperty.addListener( ( o, old, newV ) -> persist() );
+    }
+    return compressRawProperty;
+  }
+
+  /**
+   * Sessions untouched for this many days get compressed at startup. 0 turns that off.
+   */
+  public static synchronized SimpleIntegerProperty compactAfterDaysProperty()
+  {
+    if (compactAfterDaysProperty == null) {
+      compactAfterDaysProperty = new SimpleIntegerProperty( defaultModel.get().compactAfterDays );
+      compactAfterDaysProperty.addListener( ( o, old, newV ) -> persist() );
+    }
+    return compactAfterDaysProperty;
+  }
+
+  /**
+   * Preferences saved before export formats existed, or with a format this version doesn't know, get null from Gson
+   */
+  private static ExportFormat orXls( ExportFormat format )
+  {
+    return format == null ? ExportFormat.XLS : format;
+  }
+
   public static void saveSessionDirectory( String dir )
   {
     Preconditions.checkNotNull( dir );
@@ -221,6 +305,59 @@ public class PreferencesManager
     return checkVersionProperty().get();
   }
 
+  public static ExportFormat getSessionExportFormat()
+  {
+    return sessionExportFormatProperty().get();
+  }
+
+  public static void saveSessionExportFormat( ExportFormat format )
+  {
+    Preconditions.checkNotNull( format );
+    sessionExportFormatProperty().set( format );
+  }
+
+  public static ExportFormat getIoaExportFormat()
+  {
+    return ioaExportFormatProperty().get();
+  }
+
+  public static void saveIoaExportFormat( ExportFormat format )
+  {
+    Preconditions.checkNotNull( format );
+    ioaExportFormatProperty().set( format );
+  }
+
+  public static ExportFormat getBinExportFormat()
+  {
+    return binExportFormatProperty().get();
+  }
+
+  public static void saveBinExportFormat( ExportFormat format )
+  {
+    Preconditions.checkNotNull( format );
+    binExportFormatProperty().set( format );
+  }
+
+  public static boolean getCompressRaw()
+  {
+    return compressRawProperty().get();
+  }
+
+  public static void saveCompressRaw( boolean compressRaw )
+  {
+    compressRawProperty().set( compressRaw );
+  }
+
+  public static int getCompactAfterDays()
+  {
+    return compactAfterDaysProperty().get();
+  }
+
+  public static void saveCompactAfterDays( int days )
+  {
+    compactAfterDaysProperty().set( days );
+  }
+
   public static ObservableList< FilenameComponent > filenameComponents()
   {
     if (filenameComponents == null) {
@@ -0,0 +1,105 @@
+package com.threebird.recorder.models.schemas;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.threebird.recorder.models.MappableChar;
+
+/**
+ * An immutable, pre-indexed copy of a {@link SchemaVersion}'s behaviors. Everything is stored in arrays indexed by
+ * {@link MappableChar#ordinal()}, so lookups don't build anything. SchemaVersions are edited in place, so compile a
+ * new one whenever the schema changes rather than holding on to a stale copy.
+ */
+public final class CompiledSchema
+{
+  private static final int SIZE = MappableChar.values().length;
+
+  public final SchemaVersion source;
+  public final String versionUuid;
+
+  private final KeyBehaviorMapping[] mappings = new KeyBehaviorMapping[SIZE];
+  private final boolean[] continuous = new boolean[SIZE];
+  private final boolean[] archived = new boolean[SIZE];
+  private final String[] behaviorUuids = new String[SIZE];
+  private final Set< MappableChar > keys;
+  private final Map< String, KeyBehaviorMapping > byUuid;
+
+  private CompiledSchema( SchemaVersion source )
+  {
+    this.source = source;
+    this.versionUuid = source.versionUuid;
+
+    EnumSet< MappableChar > keys = EnumSet.noneOf( MappableChar.class );
+    HashMap< String, KeyBehaviorMapping > byUuid = new HashMap< String, KeyBehaviorMapping >();
+
+    for (KeyBehaviorMapping kbm : source.behaviors) {
+      int i = kbm.key.ordinal();
+      mappings[i] = kbm;
+      continuous[i] = kbm.isContinuous;
+      archived[i] = kbm.archived;
+      behaviorUuids[i] = kbm.uuid;
+      keys.add( kbm.key );
+      if (kbm.uuid != null) {
+        byUuid.put( kbm.uuid, kbm );
+      }
+    }
+
+    this.keys = Collections.unmodifiableSet( keys );
+    this.byUuid = Collections.unmodifiableMap( byUuid );
+  }
+
+  public static CompiledSchema of( SchemaVersion schema )
+  {
+    return new CompiledSchema( schema );
+  }
+
+  /**
+   * @return the mapping for 'mc', or null if it isn't mapped
+   */
+  public KeyBehaviorMapping mapping( MappableChar mc )
+  {
+    return mappings[mc.ordinal()];
+  }
+
+  public boolean isMapped( MappableChar mc )
+  {
+    return mappings[mc.ordinal()] != null;
+  }
+
+  public boolean isContinuous( MappableChar mc )
+  {
+    return continuous[mc.ordinal()];
+  }
+
+  public boolean isArchived( MappableChar mc )
+  {
+    return archived[mc.ordinal()];
+  }
+
+  /**
+   * @return the uuid of the behavior mapped to 'mc', or null if it isn't mapped
+   */
+  public String behaviorUuid( MappableChar mc )
+  {
+    return behaviorUuids[mc.ordinal()];
+  }
+
+  /**
+   * @return the mapping whose behavior has 'behaviorUuid', or null if there isn't one
+   */
+  public KeyBehaviorMapping mappingForUuid( String behaviorUuid )
+  {
+    return byUuid.get( behaviorUuid );
+  }
+
+  /**
+   * @return every mapped key, in keyboard order
+   */
+  public Set< MappableChar > keys()
+  {
+    return keys;
+  }
+}
@@ -3,10 +3,7 @@ package com.threebird.recorder.models.schemas;
 import java.util.List;
 import java.util.Set;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.threebird.recorder.models.MappableChar;
 
 public class SchemaVersion
 {
@@ -23,11 +20,6 @@ public class SchemaVersion
   public Boolean archived;
   public List< KeyBehaviorMapping > behaviors = Lists.newArrayList();
 
-  public ImmutableMap< MappableChar, KeyBehaviorMapping > behaviorsMap()
-  {
-    return Maps.uniqueIndex( behaviors, b -> b.key );
-  }
-
   @Override public String toString()
   {
     return "SchemaVersion [uuid=" + uuid + ", versionUuid=" + versionUuid + ", versionNumber=" + versionNumber
@@ -1,24 +1,41 @@
 package com.threebird.recorder.models.schemas;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import com.google.common.collect.Maps;
 import com.threebird.recorder.persistence.Schemas;
 import com.threebird.recorder.utils.Alerts;
 
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 public class SchemasManager
 {
   private static ObservableList< SchemaVersion > schemas;
   private static SimpleObjectProperty< SchemaVersion > selectedProperty;
+  private static volatile List< SchemaVersion > loaded;
+
+  /**
+   * Reads the latest schemas from the database ahead of time, so the first call to schemas() doesn't have to. Safe to
+   * call from a background thread.
+   */
+  public static void load() throws Exception
+  {
+    loaded = Schemas.allLatest();
+  }
 
   public static ObservableList< SchemaVersion > schemas()
   {
     if (schemas == null) {
       try {
-        schemas = FXCollections.observableArrayList( Schemas.allLatest() );
+        List< SchemaVersion > latest = loaded != null ? loaded : Schemas.allLatest();
+        loaded = null;
+        schemas = FXCollections.observableArrayList( latest );
       } catch (Exception e) {
         Alerts.error( "Error retrieving Schemas",
                       "There was an error retrieving your schemas from the local database.",
@@ -26,10 +43,35 @@ public class SchemasManager
         e.printStackTrace();
         schemas = FXCollections.emptyObservableList();
       }
+      schemas.addListener( (ListChangeListener< SchemaVersion >) c -> onSchemasChanged() );
     }
     return schemas;
   }
 
+  /**
+   * The selection is only validated here, when the list actually changes, so that reading it stays cheap. Schemas are
+   * compared by identity: the selected schema is always one of the instances in schemas().
+   */
+  private static void onSchemasChanged()
+  {
+    if (selectedProperty == null) {
+      return;
+    }
+
+    SchemaVersion selected = selectedProperty.get();
+    if (selected == null) {
+      return;
+    }
+
+    for (SchemaVersion s : schemas) {
+      if (s == selected) {
+        return;
+      }
+    }
+
+    selectedProperty.set( getFirstActiveSchema() );
+  }
+
   private static SchemaVersion getFirstActiveSchema()
   {
     for (SchemaVersion s : schemas()) {
@@ -41,6 +83,22 @@ public class SchemasManager
     return null;
   }
   
+  /**
+   * Puts each of 'latest' into schemas(), in place of any older version of the same schema, as a single change to the
+   * list
+   */
+  public static void addOrReplace( Collection< SchemaVersion > latest )
+  {
+    Map< String, SchemaVersion > byUuid = Maps.newLinkedHashMap();
+    for (SchemaVersion s : schemas()) {
+      byUuid.put( s.uuid, s );
+    }
+    for (SchemaVersion s : latest) {
+      byUuid.put( s.uuid, s );
+    }
+    schemas().setAll( byUuid.values() );
+  }
+
   public static void save(SchemaVersion sv) throws Exception {
     if (sv.uuid == null) {
       sv.uuid = UUID.randomUUID().toString();
@@ -59,21 +117,18 @@ public class SchemasManager
    */
   public static SimpleObjectProperty< SchemaVersion > selectedProperty()
   {
-    SchemaVersion selected = null;
-
     if (selectedProperty == null) {
-      selected = getFirstActiveSchema();
-      selectedProperty = new SimpleObjectProperty< SchemaVersion >( selected );
-    } else if (selectedProperty.get() == null || !schemas().contains( selectedProperty.get() )) {
-      selected = getFirstActiveSchema();
-      selectedProperty.set( selected );
+      selectedProperty = new SimpleObjectProperty< SchemaVersion >( getFirstActiveSchema() );
+    } else if (selectedProperty.get() == null) {
+      selectedProperty.set( getFirstActiveSchema() );
     }
 
     return selectedProperty;
   }
 
   /**
-   * Shortcut for selectedProperty().get()
+   * Shortcut for selectedProperty().get(). This is cheap enough to call on every key press, but a recording should
+   * hold on to the schema it started with rather than calling this repeatedly.
    */
   public static SchemaVersion getSelected()
   {
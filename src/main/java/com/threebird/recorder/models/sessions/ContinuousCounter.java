@@ -1,16 +1,76 @@
 package com.threebird.recorder.models.sessions;
 
-import javafx.animation.Timeline;
-import javafx.beans.property.SimpleIntegerProperty;
-
+/**
+ * Keeps the running total for a single continuous behavior. Rather than counting frames, it stores the sum of every
+ * closed interval plus the start-time of the interval that is currently open (if any). All times are in milliseconds
+ * of the {@link SessionClock}.
+ */
 public class ContinuousCounter
 {
-  public final Timeline timer;
-  public final SimpleIntegerProperty count;
+  private static final int NOT_RUNNING = -1;
+
+  private int closedMillis = 0;
+  private int openStart = NOT_RUNNING;
+
+  /**
+   * Opens a new interval at 'time'
+   */
+  public void start( int time )
+  {
+    openStart = time;
+  }
+
+  /**
+   * Closes the open interval at 'time' and adds it to the total
+   */
+  public void stop( int time )
+  {
+    if (openStart == NOT_RUNNING) {
+      return;
+    }
+
+    closedMillis += time - openStart;
+    openStart = NOT_RUNNING;
+  }
+
+  /**
+   * Discards the open interval without adding it to the total
+   */
+  public void cancel()
+  {
+    openStart = NOT_RUNNING;
+  }
+
+  /**
+   * Adds a closed interval of 'duration' millis to the total
+   */
+  public void add( int duration )
+  {
+    closedMillis += duration;
+  }
 
-  public ContinuousCounter( Timeline timer, SimpleIntegerProperty count )
+  /**
+   * Removes a closed interval of 'duration' millis from the total
+   */
+  public void subtract( int duration )
   {
-    this.timer = timer;
-    this.count = count;
+    closedMillis -= duration;
+  }
+
+  public boolean isRunning()
+  {
+    return openStart != NOT_RUNNING;
+  }
+
+  /**
+   * @return the total time of this behavior as of 'now', including the open interval
+   */
+  public int total( int now )
+  {
+    if (openStart == NOT_RUNNING) {
+      return closedMillis;
+    }
+
+    return closedMillis + (now - openStart);
   }
 }
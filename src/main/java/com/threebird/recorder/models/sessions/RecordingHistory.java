@@ -0,0 +1,94 @@
+package com.threebird.recorder.models.sessions;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.threebird.recorder.models.MappableChar;
+
+/**
+ * An ordered log of everything the user logged during a recording. Each {@link Entry} knows how to revert and re-apply
+ * itself, so undo and redo are just pops from one stack and pushes onto the other.
+ */
+public class RecordingHistory
+{
+  public interface Entry
+  {
+    /**
+     * @return the key of the behavior this entry affected
+     */
+    MappableChar key();
+
+    /**
+     * @return false if this entry no longer describes anything that can be undone (e.g. a continuous behavior that has
+     *         since ended, or an event that was discarded). Dead entries are skipped.
+     */
+    boolean isLive();
+
+    void undo();
+
+    void redo();
+  }
+
+  private final Deque< Entry > undoStack = new ArrayDeque< Entry >();
+  private final Deque< Entry > redoStack = new ArrayDeque< Entry >();
+
+  /**
+   * Records a new entry. Anything that was undone can no longer be redone.
+   */
+  public void push( Entry entry )
+  {
+    undoStack.push( entry );
+    redoStack.clear();
+  }
+
+  /**
+   * Reverts the latest live entry
+   *
+   * @return the reverted entry, or null if there was nothing to undo
+   */
+  public Entry undo()
+  {
+    Entry entry = pollLive( undoStack );
+    if (entry != null) {
+      entry.undo();
+      redoStack.push( entry );
+    }
+    return entry;
+  }
+
+  /**
+   * Re-applies the most recently undone entry
+   *
+   * @return the re-applied entry, or null if there was nothing to redo
+   */
+  public Entry redo()
+  {
+    Entry entry = pollLive( redoStack );
+    if (entry != null) {
+      entry.redo();
+      undoStack.push( entry );
+    }
+    return entry;
+  }
+
+  /**
+   * @return every entry that can still be undone or redone
+   */
+  public Iterable< Entry > entries()
+  {
+    Deque< Entry > all = new ArrayDeque< Entry >( undoStack );
+    all.addAll( redoStack );
+    return all;
+  }
+
+  private static Entry pollLive( Deque< Entry > stack )
+  {
+    Entry entry;
+    while ((entry = stack.poll()) != null) {
+      if (entry.isLive()) {
+        return entry;
+      }
+    }
+    return null;
+  }
+}
@@ -3,11 +3,17 @@ package com.threebird.recorder.models.sessions;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Lists;
@@ -15,15 +21,21 @@ import com.threebird.recorder.models.MappableChar;
 import com.threebird.recorder.models.behaviors.BehaviorEvent;
 import com.threebird.recorder.models.behaviors.ContinuousBehavior;
 import com.threebird.recorder.models.behaviors.DiscreteBehavior;
+import com.threebird.recorder.models.preferences.ExportFormat;
 import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.models.schemas.SchemasManager;
+import com.threebird.recorder.models.sessions.RecordingHistory.Entry;
+import com.threebird.recorder.persistence.RawArchive;
+import com.threebird.recorder.persistence.SaveScheduler.Priority;
 import com.threebird.recorder.persistence.SessionDirectories;
 import com.threebird.recorder.persistence.recordings.Recordings;
+import com.threebird.recorder.utils.metrics.Gauge;
+import com.threebird.recorder.utils.metrics.Metrics;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -36,41 +48,178 @@ import javafx.util.Duration;
 
 public class RecordingManager
 {
-  public final Timeline timer;
+  /**
+   * How long to wait after an undo/redo before saving, so that a burst of them only causes a single save
+   */
+  private static final Duration UNDO_PERSIST_DELAY = Duration.millis( 300 );
+  private static final Gauge clockDrift = Metrics.gauge( "recording.clock_drift_ms" );
+
+  /**
+   * Base class for history entries that refer to a single logged event. The event is null if it has been discarded.
+   */
+  private abstract class EventEntry< T extends BehaviorEvent > implements Entry
+  {
+    T event;
+
+    EventEntry( T event )
+    {
+      this.event = event;
+    }
+
+    @Override public MappableChar key()
+    {
+      return event.key;
+    }
+
+    @Override public boolean isLive()
+    {
+      return event != null;
+    }
+  }
+
+  private class DiscreteEntry extends EventEntry< DiscreteBehavior >
+  {
+    DiscreteEntry( DiscreteBehavior db )
+    {
+      super( db );
+    }
+
+    @Override public void undo()
+    {
+      removeFromTail( discrete, event );
+      incrementDiscreteCount( event.key, -1 );
+    }
+
+    @Override public void redo()
+    {
+      discrete.add( event );
+      incrementDiscreteCount( event.key, 1 );
+    }
+  }
+
+  /**
+   * A continuous behavior that was started. Once it ends, the {@link ClosedContinuousEntry} takes its place and this
+   * entry dies.
+   */
+  private class OpenContinuousEntry extends EventEntry< ContinuousBehavior >
+  {
+    boolean closed = false;
+
+    OpenContinuousEntry( ContinuousBehavior cb )
+    {
+      super( cb );
+    }
+
+    @Override public boolean isLive()
+    {
+      return super.isLive() && !closed;
+    }
+
+    @Override public void undo()
+    {
+      midContinuous.remove( event.key );
+      openEntries.remove( event.key );
+      continuousCounts.get( event.key ).cancel();
+    }
+
+    @Override public void redo()
+    {
+      midContinuous.put( event.key, event );
+      openEntries.put( event.key, this );
+      continuousCounts.get( event.key ).start( event.startTime );
+    }
+  }
+
+  private class ClosedContinuousEntry extends EventEntry< ContinuousBehavior >
+  {
+    ClosedContinuousEntry( ContinuousBehavior cb )
+    {
+      super( cb );
+    }
+
+    @Override public void undo()
+    {
+      removeFromTail( continuous, event );
+      continuousCounts.get( event.key ).subtract( event.getDuration() );
+    }
+
+    @Override public void redo()
+    {
+      continuous.add( event );
+      continuousCounts.get( event.key ).add( event.getDuration() );
+    }
+  }
+
+  public final SessionClock clock = new SessionClock();
   public final SimpleBooleanProperty saveSuccessfulProperty = new SimpleBooleanProperty();
   public final SimpleBooleanProperty playingProperty = new SimpleBooleanProperty( false );
-  public final SimpleIntegerProperty counter = new SimpleIntegerProperty( 0 );
   public final SimpleStringProperty notes = new SimpleStringProperty();
   public final ObservableList< DiscreteBehavior > discrete = FXCollections.observableArrayList();
   public final ObservableList< ContinuousBehavior > continuous = FXCollections.observableArrayList();
-  public final ObservableMap< MappableChar, KeyBehaviorMapping > unknowns = FXCollections.observableHashMap();
+  public final ObservableMap< MappableChar, KeyBehaviorMapping > unknowns =
+      FXCollections.observableMap( new EnumMap< MappableChar, KeyBehaviorMapping >( MappableChar.class ) );
 
   public final ObservableMap< MappableChar, ContinuousBehavior > midContinuous =
-      FXCollections.observableHashMap();
+      FXCollections.observableMap( new EnumMap< MappableChar, ContinuousBehavior >( MappableChar.class ) );
   public final ObservableMap< MappableChar, SimpleIntegerProperty > discreteCounts =
-      FXCollections.observableHashMap();
+      FXCollections.observableMap( new EnumMap< MappableChar, SimpleIntegerProperty >( MappableChar.class ) );
   public final ObservableMap< MappableChar, ContinuousCounter > continuousCounts =
-      FXCollections.observableHashMap();
+      FXCollections.observableMap( new EnumMap< MappableChar, ContinuousCounter >( MappableChar.class ) );
+  public final RecordingHistory history = new RecordingHistory();
+
+  private final Map< MappableChar, OpenContinuousEntry > openEntries = new EnumMap<>( MappableChar.class );
+  private final PauseTransition coalescedPersist = new PauseTransition( UNDO_PERSIST_DELAY );
+  private boolean batching = false;
 
   private final String streamUuid;
+  private final SchemaVersion schema;
+  private volatile CompiledSchema compiledSchema;
+
+  /**
+   * Resolved once, since the schema and session details can't change while recording
+   */
+  private final String fullFileName;
+  private final ExportFormat exportFormat;
+  private final String rawExtension;
   private long startTime = 0;
 
   public RecordingManager()
+  {
+    this( SchemasManager.getSelected(), getFullFileName() );
+  }
+
+  /**
+   * @param fullFileName
+   *          where to save the session, without an extension
+   */
+  RecordingManager( SchemaVersion schema, String fullFileName )
   {
     streamUuid = UUID.randomUUID().toString();
+    this.schema = schema;
+    compiledSchema = CompiledSchema.of( schema );
+    this.fullFileName = fullFileName;
+    exportFormat = PreferencesManager.getSessionExportFormat();
+    rawExtension = RawArchive.extension();
+
+    if (Boolean.TRUE.equals( schema.pause ) && schema.duration != null && schema.duration > 0) {
+      clock.stopAt( schema.duration );
+    }
 
-    timer = new Timeline();
-    timer.setCycleCount( Animation.INDEFINITE );
-    KeyFrame kf = new KeyFrame( Duration.millis( 1 ), evt -> {
-      counter.set( counter.get() + 1 );
+    playingProperty.addListener( ( o, oldV, playing ) -> {
+      if (playing) {
+        clock.start();
+      } else {
+        clock.pause();
+        clockDrift.set( clock.driftMillis() );
+      }
     } );
-    timer.getKeyFrames().add( kf );
 
-    discrete.addListener( (ListChangeListener< DiscreteBehavior >) c -> persist() );
-    continuous.addListener( (ListChangeListener< ContinuousBehavior >) c -> persist() );
+    coalescedPersist.setOnFinished( evt -> persist() );
+    discrete.addListener( (ListChangeListener< DiscreteBehavior >) c -> onEventsChanged() );
+    continuous.addListener( (ListChangeListener< ContinuousBehavior >) c -> onEventsChanged() );
     playingProperty.addListener( ( o, oldV, playing ) -> {
       if (!playing) {
-        persist();
+        persist( Priority.FINAL );
       }
     } );
 
@@ -88,32 +237,53 @@ public class RecordingManager
 
   }
 
+  private void onEventsChanged()
+  {
+    if (!batching) {
+      persist();
+    }
+  }
+
   private void persist()
   {
-    String fullFileName = getFullFileName();
+    persist( Priority.CHECKPOINT );
+  }
+
+  /**
+   * Writes the session to disk. Saves made when the session stops use {@link Priority#FINAL}, so they aren't queued
+   * behind checkpoints.
+   */
+  void persist( Priority priority )
+  {
+    coalescedPersist.stop();
+
     List< BehaviorEvent > behaviors = allBehaviors();
     String _notes = Optional.ofNullable( notes.get() ).orElse( "" );
 
     long stopTime = System.currentTimeMillis();
 
     CompletableFuture< Long > fCsv =
-        Recordings.saveJson( new File( fullFileName + ".raw" ),
+        Recordings.saveJson( new File( fullFileName + rawExtension ),
+                             priority,
+                             compiledSchema,
                              streamUuid,
                              behaviors,
                              count(),
                              _notes,
                              startTime,
                              stopTime );
-    CompletableFuture< Long > fXls =
-        Recordings.saveXls( new File( fullFileName + ".xls" ),
-                            streamUuid,
-                            behaviors,
-                            count(),
-                            _notes,
-                            startTime,
-                            stopTime );
-
-    CompletableFuture.allOf( fCsv, fXls ).handleAsync( ( v, t ) -> {
+    CompletableFuture< Long > fSummary =
+        Recordings.saveSummary( new File( fullFileName + "." + exportFormat.extension ),
+                                priority,
+                                compiledSchema,
+                                streamUuid,
+                                behaviors,
+                                count(),
+                                _notes,
+                                startTime,
+                                stopTime );
+
+    CompletableFuture.allOf( fCsv, fSummary ).handleAsync( ( v, t ) -> {
       boolean saveSuccessful = t == null;
       Platform.runLater( () -> saveSuccessfulProperty.set( saveSuccessful ) );
       if (t != null) {
@@ -156,26 +326,246 @@ public class RecordingManager
     return String.format( "%s%s%s", directory, File.separator, filename );
   }
 
+  /**
+   * @return the compiled snapshot of the schema this recording was started with
+   */
+  public CompiledSchema compiledSchema()
+  {
+    return compiledSchema;
+  }
+
+  /**
+   * Call after editing the recording's schema (e.g. adding keys), before touching any events, so that saves pick up the
+   * new behaviors
+   */
+  public void recompileSchema()
+  {
+    compiledSchema = CompiledSchema.of( schema );
+  }
+
   public void togglePlayingProperty()
   {
     playingProperty.set( !playingProperty.get() );
   }
 
   /**
-   * @return the current count of the timer, in milliseconds
+   * @return the current time of the session clock, in milliseconds
    */
   public int count()
   {
-    return counter.get();
+    return clock.millis();
   }
 
+  /**
+   * Logs a discrete behavior and bumps its counter
+   */
   public void log( DiscreteBehavior db )
   {
     discrete.add( db );
+    incrementDiscreteCount( db.key, 1 );
+    history.push( new DiscreteEntry( db ) );
+  }
+
+  /**
+   * Starts a continuous behavior. 'cb' should not have a duration yet; it gets one in
+   * {@link RecordingManager#stopContinuous(MappableChar)}.
+   */
+  public void startContinuous( ContinuousBehavior cb )
+  {
+    OpenContinuousEntry entry = new OpenContinuousEntry( cb );
+    midContinuous.put( cb.key, cb );
+    openEntries.put( cb.key, entry );
+    continuousCounts.get( cb.key ).start( cb.startTime );
+    history.push( entry );
   }
 
-  public void log( ContinuousBehavior cb )
+  /**
+   * Ends the running continuous behavior for 'key' at the current time and logs it
+   */
+  public void stopContinuous( MappableChar key )
   {
+    ContinuousBehavior open = midContinuous.remove( key );
+    if (open == null) {
+      return;
+    }
+
+    int now = count();
+    ContinuousBehavior cb = new ContinuousBehavior( open.uuid, open.key, open.name, open.startTime, now - open.startTime );
+
+    OpenContinuousEntry openEntry = openEntries.remove( key );
+    if (openEntry != null) {
+      openEntry.closed = true;
+    }
+
     continuous.add( cb );
+    continuousCounts.get( key ).stop( now );
+    history.push( new ClosedContinuousEntry( cb ) );
+  }
+
+  /**
+   * Reverts the latest logged behavior. A burst of undos only causes one save.
+   * 
+   * @return the key of the behavior that was reverted, or null if there was nothing to undo
+   */
+  public MappableChar undo()
+  {
+    return applyHistory( history::undo );
+  }
+
+  /**
+   * Re-applies the most recently undone behavior. A burst of redos only causes one save.
+   * 
+   * @return the key of the behavior that was re-applied, or null if there was nothing to redo
+   */
+  public MappableChar redo()
+  {
+    return applyHistory( history::redo );
+  }
+
+  /**
+   * Applies the result of the add-keys dialog. Events for 'resolvedKeys' are relabelled with their new schema mappings,
+   * and events for any other unknown key are discarded. The event lists are rebuilt in a single pass and replaced with
+   * one change each, followed by a single save.
+   * 
+   * Call this after the new mappings have been saved to the schema.
+   */
+  public void resolveUnknowns( Set< MappableChar > resolvedKeys )
+  {
+    recompileSchema();
+
+    Set< MappableChar > discardedKeys = EnumSet.noneOf( MappableChar.class );
+    for (MappableChar mc : unknowns.keySet()) {
+      if (!resolvedKeys.contains( mc )) {
+        discardedKeys.add( mc );
+      }
+    }
+
+    // The undo history holds on to the old events, so keep track of what replaced them
+    IdentityHashMap< BehaviorEvent, BehaviorEvent > replacements = new IdentityHashMap<>();
+
+    List< DiscreteBehavior > newDiscrete = new ArrayList< DiscreteBehavior >( discrete.size() );
+    for (DiscreteBehavior db : discrete) {
+      if (discardedKeys.contains( db.key )) {
+        continue;
+      }
+
+      if (resolvedKeys.contains( db.key )) {
+        KeyBehaviorMapping kbm = compiledSchema.mapping( db.key );
+        DiscreteBehavior replacement = new DiscreteBehavior( kbm.uuid, db.key, kbm.description, db.startTime );
+        replacements.put( db, replacement );
+        newDiscrete.add( replacement );
+      } else {
+        newDiscrete.add( db );
+      }
+    }
+
+    List< ContinuousBehavior > newContinuous = new ArrayList< ContinuousBehavior >( continuous.size() );
+    for (ContinuousBehavior cb : continuous) {
+      if (discardedKeys.contains( cb.key )) {
+        continue;
+      }
+
+      if (resolvedKeys.contains( cb.key )) {
+        KeyBehaviorMapping kbm = compiledSchema.mapping( cb.key );
+        ContinuousBehavior replacement =
+            new ContinuousBehavior( kbm.uuid, cb.key, kbm.description, cb.startTime, cb.getDuration() );
+        replacements.put( cb, replacement );
+        newContinuous.add( replacement );
+      } else {
+        newContinuous.add( cb );
+      }
+    }
+
+    // Both lists are already close to sorted, which TimSort handles in about linear time
+    Collections.sort( newDiscrete, BehaviorEvent.comparator );
+    Collections.sort( newContinuous, BehaviorEvent.comparator );
+
+    batching = true;
+    try {
+      discrete.setAll( newDiscrete );
+      continuous.setAll( newContinuous );
+    } finally {
+      batching = false;
+    }
+
+    remapHistory( replacements, discardedKeys );
+    persist( Priority.FINAL );
+  }
+
+  /**
+   * Points the history at new events after they were swapped out of the event lists. Events for any of the
+   * 'discardedKeys' are dropped from the history and can no longer be undone.
+   */
+  private void remapHistory( IdentityHashMap< BehaviorEvent, BehaviorEvent > replacements,
+                             Set< MappableChar > discardedKeys )
+  {
+    for (Entry entry : history.entries()) {
+      if (entry instanceof EventEntry) {
+        remap( (EventEntry< ? >) entry, replacements, discardedKeys );
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked") private static < T extends BehaviorEvent > void
+    remap( EventEntry< T > entry,
+           IdentityHashMap< BehaviorEvent, BehaviorEvent > replacements,
+           Set< MappableChar > discardedKeys )
+  {
+    if (entry.event == null) {
+      return;
+    }
+
+    if (discardedKeys.contains( entry.event.key )) {
+      entry.event = null;
+    } else if (replacements.containsKey( entry.event )) {
+      entry.event = (T) replacements.get( entry.event );
+    }
+  }
+
+  private MappableChar applyHistory( Supplier< Entry > action )
+  {
+    Entry entry;
+    batching = true;
+    try {
+      entry = action.get();
+    } finally {
+      batching = false;
+    }
+
+    if (entry == null) {
+      return null;
+    }
+
+    persistSoon();
+    return entry.key();
+  }
+
+  /**
+   * Saves once things have been quiet for {@link #UNDO_PERSIST_DELAY}
+   */
+  void persistSoon()
+  {
+    coalescedPersist.playFromStart();
+  }
+
+  private void incrementDiscreteCount( MappableChar key, int delta )
+  {
+    SimpleIntegerProperty count = discreteCounts.get( key );
+    if (count != null) {
+      count.set( count.get() + delta );
+    }
+  }
+
+  /**
+   * Removes 'event' from 'list'. Undo always targets the most recent events, so start searching from the end.
+   */
+  private static < T > void removeFromTail( List< T > list, T event )
+  {
+    for (int i = list.size() - 1; i >= 0; i--) {
+      if (list.get( i ) == event) {
+        list.remove( i );
+        return;
+      }
+    }
   }
 }
@@ -0,0 +1,118 @@
+package com.threebird.recorder.models.sessions;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The clock for replaying a saved session. Like the {@link SessionClock} it's measured with {@link System#nanoTime()},
+ * but it can run faster than real time and jump to any point, and it stops at the end of the session.
+ */
+public class ReplayClock
+{
+  private final long durationNanos;
+  private final LongSupplier nanoTime;
+
+  private long positionNanos = 0; // session time as of 'resumedAt'
+  private long resumedAt = 0;
+  private int speed = 1;
+  private boolean running = false;
+
+  public ReplayClock( long durationMillis )
+  {
+    this( durationMillis, System::nanoTime );
+  }
+
+  ReplayClock( long durationMillis, LongSupplier nanoTime )
+  {
+    this.durationNanos = Math.max( 0, durationMillis ) * 1000000L;
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Starts the clock. If it's already at the end of the session, it starts over from the beginning.
+   */
+  public void play()
+  {
+    if (running) {
+      return;
+    }
+
+    if (isFinished()) {
+      positionNanos = 0;
+    }
+    resumedAt = nanoTime.getAsLong();
+    running = true;
+  }
+
+  public void pause()
+  {
+    if (!running) {
+      return;
+    }
+
+    positionNanos = positionNanos();
+    running = false;
+  }
+
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  /**
+   * @return true once the clock has reached the end of the session
+   */
+  public boolean isFinished()
+  {
+    return positionNanos() >= durationNanos;
+  }
+
+  public int getSpeed()
+  {
+    return speed;
+  }
+
+  /**
+   * Changes how many milliseconds of the session pass per real millisecond, from now on
+   */
+  public void setSpeed( int speed )
+  {
+    if (speed < 1) {
+      throw new IllegalArgumentException( "speed must be positive: " + speed );
+    }
+
+    rebase( positionNanos() );
+    this.speed = speed;
+  }
+
+  /**
+   * Jumps to 'millis' into the session, clamped to the session's length. The clock keeps running if it was.
+   */
+  public void seek( int millis )
+  {
+    rebase( Math.min( Math.max( 0, millis ) * 1000000L, durationNanos ) );
+  }
+
+  /**
+   * @return the current time in the session, in milliseconds
+   */
+  public int millis()
+  {
+    return (int) (positionNanos() / 1000000L);
+  }
+
+  private void rebase( long position )
+  {
+    positionNanos = position;
+    resumedAt = nanoTime.getAsLong();
+  }
+
+  private long positionNanos()
+  {
+    if (!running) {
+      return positionNanos;
+    }
+
+    long elapsed = (nanoTime.getAsLong() - resumedAt) * speed;
+    return Math.min( positionNanos + elapsed, durationNanos );
+  }
+}
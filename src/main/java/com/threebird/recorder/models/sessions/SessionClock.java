@@ -0,0 +1,101 @@
+package com.threebird.recorder.models.sessions;
+
+/**
+ * The monotonic clock for a recording session. Time only advances while the clock is running, and it is measured with
+ * {@link System#nanoTime()} so that it doesn't depend on how often the UI gets a pulse.
+ */
+public class SessionClock
+{
+  private long accumulatedNanos = 0;
+  private long resumedAt = 0;
+  private long accumulatedWallMillis = 0;
+  private long wallResumedAt = 0;
+  private boolean running = false;
+  private long stopAtNanos = Long.MAX_VALUE;
+
+  /**
+   * Makes the clock stand still at 'millis' once it gets there, until it's paused and started again. That way a session
+   * that pauses itself at its configured duration is saved with exactly that duration, however late the pause happens.
+   */
+  public void stopAt( int millis )
+  {
+    stopAtNanos = millis * 1000000L;
+  }
+
+  public void start()
+  {
+    if (running) {
+      return;
+    }
+
+    // Continuing after the stop point picks up from it, and runs past it
+    if (accumulatedNanos >= stopAtNanos) {
+      accumulatedWallMillis -= (accumulatedNanos - stopAtNanos) / 1000000L;
+      accumulatedNanos = stopAtNanos;
+      stopAtNanos = Long.MAX_VALUE;
+    }
+
+    resumedAt = System.nanoTime();
+    wallResumedAt = System.currentTimeMillis();
+    running = true;
+  }
+
+  public void pause()
+  {
+    if (!running) {
+      return;
+    }
+
+    accumulatedNanos += System.nanoTime() - resumedAt;
+    accumulatedWallMillis += System.currentTimeMillis() - wallResumedAt;
+    running = false;
+  }
+
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  /**
+   * @return true if the clock has ever been started
+   */
+  public boolean hasStarted()
+  {
+    return running || accumulatedNanos > 0;
+  }
+
+  /**
+   * @return the total time the clock has been running, in milliseconds
+   */
+  public int millis()
+  {
+    return (int) (Math.min( runNanos(), stopAtNanos ) / 1000000L);
+  }
+
+  /**
+   * @return how far the wall clock has moved away from this clock while it was running, in milliseconds. Positive if
+   *         the wall clock ran ahead, e.g. because the system time was adjusted mid-session.
+   */
+  public long driftMillis()
+  {
+    long wall = accumulatedWallMillis;
+    if (running) {
+      wall += System.currentTimeMillis() - wallResumedAt;
+    }
+
+    return wall - runNanos() / 1000000L;
+  }
+
+  /**
+   * @return how long the clock has been running, ignoring the stop point
+   */
+  private long runNanos()
+  {
+    long nanos = accumulatedNanos;
+    if (running) {
+      nanos += System.nanoTime() - resumedAt;
+    }
+
+    return nanos;
+  }
+}
@@ -40,6 +40,14 @@ public class SessionManager
     }
   } );
 
+  /**
+   * Reads the saved session details from disk if that hasn't happened yet. Safe to call from a background thread.
+   */
+  public static void load()
+  {
+    defaultModel.get();
+  }
+
   private static void persist()
   {
     GsonBean model = new GsonBean();
@@ -0,0 +1,93 @@
+package com.threebird.recorder.models.sessions;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.utils.ioa.ProcessIoa;
+import com.threebird.recorder.utils.ioa.SessionIndex;
+
+/**
+ * A saved session, ready to be played back. What the count-boxes should show at any moment comes straight from the
+ * {@link SessionIndex}, so seeking to any point costs a few binary searches no matter how long the session is.
+ */
+public class SessionReplay
+{
+  /**
+   * The playback speeds offered, as multiples of real time
+   */
+  public static final int[] SPEEDS = { 1, 2, 4, 8, 16, 32 };
+
+  public final SchemaVersion schema;
+  public final long startTime;
+  public final int durationMillis;
+  public final ReplayClock clock;
+  private final SessionIndex index;
+
+  public SessionReplay( SessionBean1_1 bean )
+  {
+    this( bean, new ReplayClock( bean.duration ) );
+  }
+
+  SessionReplay( SessionBean1_1 bean, ReplayClock clock )
+  {
+    this.schema = bean.schema;
+    this.startTime = bean.startTime;
+    this.durationMillis = (int) bean.duration;
+    this.clock = clock;
+    this.index = SessionIndex.of( bean );
+  }
+
+  /**
+   * @param f
+   *          a session file, or a reference into a session archive
+   */
+  public static SessionReplay load( File f ) throws Exception
+  {
+    return new SessionReplay( ProcessIoa.load( f ) );
+  }
+
+  /**
+   * @return the behaviors to show: everything that isn't archived, plus archived behaviors that were recorded anyway
+   */
+  public List< KeyBehaviorMapping > behaviors()
+  {
+    return schema.behaviors.stream()
+                           .filter( kbm -> !kbm.archived || hasEvents( kbm.key ) )
+                           .collect( Collectors.toList() );
+  }
+
+  /**
+   * @return how many times the discrete behavior on 'key' happened at or before 'millis'
+   */
+  public int count( MappableChar key, int millis )
+  {
+    return index.count( key.toString(), 0, millis + 1 );
+  }
+
+  /**
+   * @return how long the continuous behavior on 'key' had run for by 'millis', in milliseconds
+   */
+  public int occupancy( MappableChar key, int millis )
+  {
+    return (int) index.occupancy( key.toString(), 0, millis );
+  }
+
+  /**
+   * @return true if the continuous behavior on 'key' was running at 'millis'
+   */
+  public boolean isRunning( MappableChar key, int millis )
+  {
+    return index.isRunning( key.toString(), millis );
+  }
+
+  private boolean hasEvents( MappableChar key )
+  {
+    String k = key.toString();
+    return index.discreteKeys().contains( k ) || index.continuousKeys().contains( k );
+  }
+}
@@ -0,0 +1,46 @@
+package com.threebird.recorder.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Opens CSV exports. Rows go straight through a buffered writer to the file as they're printed, so nothing but the
+ * current row is held in memory.
+ */
+public class CsvOutput
+{
+  public static final CSVFormat FORMAT = CSVFormat.EXCEL;
+
+  /**
+   * Opens 'f' for writing. When appending to a file that already has rows, a blank row is printed first, the way the
+   * xls writers start a new sheet.
+   */
+  public static CSVPrinter open( File f, boolean appendToFile ) throws IOException
+  {
+    File parent = f.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+
+    boolean separate = appendToFile && f.length() > 0;
+    StandardOpenOption mode = appendToFile ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+    Writer writer = Files.newBufferedWriter( f.toPath(),
+                                             StandardCharsets.UTF_8,
+                                             StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE,
+                                             mode );
+
+    CSVPrinter printer = new CSVPrinter( writer, FORMAT );
+    if (separate) {
+      printer.println();
+    }
+    return printer;
+  }
+}
@@ -0,0 +1,311 @@
+package com.threebird.recorder.persistence;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an in-memory set of the file names in each watched directory, updated by a {@link WatchService}, so checking
+ * whether a file exists doesn't touch the disk. That matters when the session directory is on a slow network share.
+ * The listing can lag a moment behind the disk, so check the disk itself before acting on the answer.
+ *
+ * Listeners are told about changed files once a directory has been quiet for {@link #QUIET_MILLIS}, so a file that's
+ * being saved over and over is only reported once per burst. If the OS drops events, listeners get the directory's
+ * own path instead, meaning "anything in here may have changed".
+ */
+public class DirectoryMonitor
+{
+  public static final DirectoryMonitor shared = new DirectoryMonitor();
+
+  public static final long QUIET_MILLIS = 500;
+
+  /**
+   * Changes are reported at least this often, even if the directory never goes quiet
+   */
+  private static final long MAX_DELAY_MILLIS = 5000;
+
+  /**
+   * Whether each file store ignores case in names, once it's been worked out, see {@link #ignoresCase(Path)}
+   */
+  private static final Map< FileStore, Boolean > ignoreCase = new ConcurrentHashMap< FileStore, Boolean >();
+
+  /**
+   * The names in one watched directory
+   */
+  private static class Listing
+  {
+    final Set< String > names = ConcurrentHashMap.newKeySet();
+    final boolean ignoreCase;
+
+    /**
+     * False until the directory has been listed, and while it's listed again
+     */
+    volatile boolean ready = false;
+
+    Listing( boolean ignoreCase )
+    {
+      this.ignoreCase = ignoreCase;
+    }
+
+    String key( String name )
+    {
+      return ignoreCase ? name.toLowerCase( Locale.ROOT ) : name;
+    }
+  }
+
+  private final Map< Path, Listing > listings = new ConcurrentHashMap< Path, Listing >();
+  private final Set< Path > starting = ConcurrentHashMap.newKeySet(); // being watched in the background by exists()
+  private final Map< WatchKey, Path > directories = new ConcurrentHashMap< WatchKey, Path >();
+  private final List< Consumer< Path > > listeners = new CopyOnWriteArrayList< Consumer< Path > >();
+  private WatchService watcher;
+
+  /**
+   * Starts watching 'dir', if it isn't already being watched. The first call for a directory lists it once.
+   *
+   * @return false if the directory can't be watched, e.g. because it doesn't exist
+   */
+  public synchronized boolean watch( File dir )
+  {
+    Path path = normalize( dir );
+    if (listings.containsKey( path )) {
+      return true;
+    }
+    if (!Files.isDirectory( path )) {
+      return false;
+    }
+
+    try {
+      if (watcher == null) {
+        watcher = FileSystems.getDefault().newWatchService();
+        Thread t = new Thread( this::run, "directory-monitor" );
+        t.setDaemon( true );
+        t.start();
+      }
+
+      // Register before listing, so a file created in between isn't missed
+      directories.put( path.register( watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY ), path );
+      Listing l = new Listing( ignoresCase( path ) );
+      listings.put( path, l );
+      list( path, l );
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * @return true if 'f' exists. Once its directory has been listed, this is answered from memory. Until then it checks
+   *         the disk, and starts watching the directory in the background, so this never waits on a listing.
+   */
+  public boolean exists( File f )
+  {
+    File parent = f.getAbsoluteFile().getParentFile();
+    if (parent == null) {
+      return f.exists();
+    }
+
+    Path path = normalize( parent );
+    Listing l = listings.get( path );
+    if (l != null && l.ready) {
+      return l.names.contains( l.key( f.getName() ) );
+    }
+
+    if (l == null && starting.add( path )) {
+      CompletableFuture.runAsync( ( ) -> {
+        try {
+          watch( parent );
+        } finally {
+          starting.remove( path );
+        }
+      } );
+    }
+    return f.exists();
+  }
+
+  /**
+   * Adds a listener that's given the path of each created, modified, or deleted file in any watched directory. It's
+   * called on the monitor's thread.
+   */
+  public void addListener( Consumer< Path > listener )
+  {
+    listeners.add( listener );
+  }
+
+  public synchronized void close()
+  {
+    if (watcher == null) {
+      return;
+    }
+
+    try {
+      watcher.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    watcher = null;
+    listings.clear();
+    directories.clear();
+  }
+
+  static Path normalize( File dir )
+  {
+    return dir.getAbsoluteFile().toPath().normalize();
+  }
+
+  private static void list( Path dir, Listing l ) throws IOException
+  {
+    l.ready = false;
+    l.names.clear();
+    try (DirectoryStream< Path > stream = Files.newDirectoryStream( dir )) {
+      for (Path p : stream) {
+        l.names.add( l.key( p.getFileName().toString() ) );
+      }
+    }
+    l.ready = true;
+  }
+
+  /**
+   * Whether names in 'dir' ignore case. That's up to the file system, not the OS: a Mac volume can be formatted either
+   * way, and a network share follows the server. There's no API to ask, so this looks up 'dir', or the closest parent
+   * on the same store with a letter in its name, under its name with the case swapped. If no such name is found, case
+   * is assumed to matter.
+   */
+  static boolean ignoresCase( Path dir )
+  {
+    FileStore store;
+    try {
+      store = Files.getFileStore( dir );
+    } catch (IOException e) {
+      return false;
+    }
+
+    Boolean known = ignoreCase.get( store );
+    if (known != null) {
+      return known;
+    }
+
+    for (Path p = dir; p != null && p.getFileName() != null; p = p.getParent()) {
+      try {
+        if (!Files.getFileStore( p ).equals( store )) {
+          break;
+        }
+
+        String name = p.getFileName().toString();
+        String swapped = swapCase( name );
+        if (!swapped.equals( name )) {
+          Path other = p.resolveSibling( swapped );
+          boolean result = Files.exists( other ) && Files.isSameFile( p, other );
+          ignoreCase.put( store, result );
+          return result;
+        }
+      } catch (IOException e) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  private static String swapCase( String s )
+  {
+    StringBuilder sb = new StringBuilder( s.length() );
+    for (char c : s.toCharArray()) {
+      sb.append( Character.isUpperCase( c ) ? Character.toLowerCase( c ) : Character.toUpperCase( c ) );
+    }
+    return sb.toString();
+  }
+
+  private void run()
+  {
+    WatchService service = watcher;
+    Set< Path > changed = new LinkedHashSet< Path >();
+    long firstChange = 0;
+
+    while (true) {
+      WatchKey key;
+      try {
+        long wait = changed.isEmpty() ? Long.MAX_VALUE : QUIET_MILLIS;
+        key = service.poll( wait, TimeUnit.MILLISECONDS );
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      if (key != null) {
+        if (changed.isEmpty()) {
+          firstChange = System.currentTimeMillis();
+        }
+        handle( key, changed );
+      }
+
+      boolean quiet = key == null;
+      boolean overdue = System.currentTimeMillis() - firstChange > MAX_DELAY_MILLIS;
+      if (!changed.isEmpty() && (quiet || overdue)) {
+        for (Path p : changed) {
+          listeners.forEach( l -> l.accept( p ) );
+        }
+        changed.clear();
+      }
+    }
+  }
+
+  private void handle( WatchKey key, Set< Path > changed )
+  {
+    Path dir = directories.get( key );
+    Listing l = dir == null ? null : listings.get( dir );
+
+    for (WatchEvent< ? > event : key.pollEvents()) {
+      if (l == null) {
+        continue;
+      }
+
+      if (event.kind() == OVERFLOW) {
+        try {
+          list( dir, l );
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        changed.add( dir );
+        continue;
+      }
+
+      Path name = (Path) event.context();
+      if (event.kind() == ENTRY_DELETE) {
+        l.names.remove( l.key( name.toString() ) );
+      } else {
+        l.names.add( l.key( name.toString() ) );
+      }
+      changed.add( dir.resolve( name ) );
+    }
+
+    if (!key.reset()) {
+      // The directory went away
+      directories.remove( key );
+      if (dir != null) {
+        listings.remove( dir );
+      }
+    }
+  }
+}
@@ -1,18 +1,23 @@
 package com.threebird.recorder.persistence;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.joda.time.DateTime;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -23,9 +28,22 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.persistence.SaveScheduler.Priority;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 
 public class GsonUtils
 {
+  private static final Histogram writes = Metrics.histogram( "gson.write" );
+  private static final Histogram reads = Metrics.histogram( "gson.read" );
+
+  /**
+   * Files with this suffix are gzipped on write
+   */
+  public static final String GZIP_SUFFIX = ".gz";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private static class DateTimeSerializer implements JsonSerializer< DateTime >
   {
     public JsonElement serialize( DateTime src, Type typeOfSrc, JsonSerializationContext context )
@@ -50,29 +68,42 @@ public class GsonUtils
                        .registerTypeAdapter( MappableChar.class, MappableChar.gsonSerializer )
                        .create();
 
-  public static ExecutorService es = Executors.newSingleThreadExecutor();
-
   /**
-   * Save the model to a JSON file, creating the file if it doesn't already exist.
+   * Save the model to a JSON file, creating the file if it doesn't already exist. The write goes through
+   * {@link SaveScheduler#shared}, and this blocks until it's done.
    * 
    * @throws Exception
    */
   public static void save( File file, Object model ) throws Exception
   {
-    es.submit( () -> {
-      if (!file.exists()) {
-        file.getParentFile().mkdirs();
-        file.createNewFile();
-      }
+    SaveScheduler.shared.schedule( file, Priority.CHECKPOINT, ( ) -> write( file, model ) ).get();
+  }
 
-      String json = gson.toJson( model );
+  /**
+   * Writes the model to a JSON file on the calling thread, gzipped if the file name ends in {@link #GZIP_SUFFIX}. Use
+   * this from code that's already running on the {@link SaveScheduler}; everything else should call
+   * {@link GsonUtils#save(File, Object)}.
+   * 
+   * @return the size of the file after writing
+   * @throws IOException
+   */
+  public static long write( File file, Object model ) throws IOException
+  {
+    long start = System.nanoTime();
+    if (!file.exists()) {
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
 
-      BufferedWriter writer = Files.newWriter( file, StandardCharsets.UTF_8 );
-      writer.write( json );
-      writer.flush();
-      writer.close();
-      return null;
-    } ).get();
+    OutputStream out = new FileOutputStream( file );
+    if (file.getName().endsWith( GZIP_SUFFIX )) {
+      out = new GZIPOutputStream( out, BUFFER_SIZE );
+    }
+    try (BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) )) {
+      gson.toJson( model, writer );
+    }
+    writes.recordSince( start );
+    return file.length();
   }
 
   @SuppressWarnings("unchecked") public static < T > T get( File file, T bean ) throws IOException
@@ -81,10 +112,44 @@ public class GsonUtils
       return bean;
     }
 
-    BufferedReader reader = Files.newReader( file, Charsets.UTF_8 );
-    T t = (T) gson.fromJson( reader, bean.getClass() );
-    reader.close();
+    long start = System.nanoTime();
+    T t;
+    try (Reader reader = newReader( file )) {
+      t = (T) gson.fromJson( reader, bean.getClass() );
+    }
+    reads.recordSince( start );
 
     return t;
   }
+
+  /**
+   * Opens a JSON file for reading. Gzipped files are recognized by their magic number rather than their name, and are
+   * decompressed as they're read.
+   */
+  public static Reader newReader( File file ) throws IOException
+  {
+    return new InputStreamReader( newInputStream( file ), StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * @return a buffered stream of 'file's contents, decompressed if it's gzipped
+   */
+  public static InputStream newInputStream( File file ) throws IOException
+  {
+    InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+    try {
+      in.mark( 2 );
+      int b1 = in.read();
+      int b2 = in.read();
+      in.reset();
+
+      if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+        return new GZIPInputStream( in, BUFFER_SIZE );
+      }
+      return in;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
 }
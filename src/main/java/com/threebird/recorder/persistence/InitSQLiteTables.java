@@ -1,28 +1,102 @@
 package com.threebird.recorder.persistence;
 
 import java.io.File;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.persistence.recordings.TrendReport;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 import com.threebird.recorder.utils.persistence.SqliteDao;
+import com.threebird.recorder.utils.persistence.SqliteDao.SqlTask;
 import com.threebird.recorder.utils.resources.ResourceUtils;
 
 /**
  * A class that provides {@link InitSQLiteTables#init()}, which will migrate the user's local SQLite database to the
- * most up-to-date schema. Each "evolution" is called in {@link InitSQLiteTables#run()}. If you add any more, they must
- * written in an idempotent manner. This means that you must not modify the evolutions after they have been deployed.
+ * most up-to-date schema. Each "evolution" is listed in {@link InitSQLiteTables#EVOLUTIONS} with the version it brings
+ * the database to. The version is stored in the database's PRAGMA user_version, so a database that's already current
+ * costs a single read at startup. Pending evolutions run in one transaction.
+ * 
+ * Databases created before user_version was tracked start at version 0 and run every evolution once, so they must
+ * still be written in an idempotent manner. This means that you must not modify the evolutions after they have been
+ * deployed.
  */
 public class InitSQLiteTables
 {
+  private static class Evolution
+  {
+    final int version;
+    final String name;
+    final SqlTask apply;
+
+    Evolution( int version, String name, SqlTask apply )
+    {
+      this.version = version;
+      this.name = name;
+      this.apply = apply;
+    }
+  }
+
+  private static final Histogram initTime = Metrics.histogram( "sqlite.init" );
+
+  private static final List< Evolution > EVOLUTIONS = Lists.newArrayList(
+      new Evolution( 1, "evo0_create_tables", InitSQLiteTables::evo0_create_tables ),
+      new Evolution( 2, "evo1_0_add_uuid", InitSQLiteTables::evo1_0_add_uuid ),
+      new Evolution( 3, "evo1_1_add_versioning", InitSQLiteTables::evo1_1_add_versioning ),
+      new Evolution( 4, "evo1_1_add_session_catalog", InitSQLiteTables::evo1_1_add_session_catalog ),
+      new Evolution( 5, "evo1_1_add_trend_cache", InitSQLiteTables::evo1_1_add_trend_cache ),
+      new Evolution( 6, "evo1_1_add_behavior_changes", InitSQLiteTables::evo1_1_add_behavior_changes ) );
+
   public static void init() throws Exception
   {
     File dbFile = ResourceUtils.getDb();
     dbFile.createNewFile();
 
-    evo0_create_tables();
-    evo1_0_add_uuid();
-    evo1_1_add_versioning();
+    long start = System.nanoTime();
+    int current = userVersion();
+
+    List< Evolution > pending = Lists.newArrayList();
+    for (Evolution evo : EVOLUTIONS) {
+      if (evo.version > current) {
+        pending.add( evo );
+      }
+    }
+
+    if (!pending.isEmpty()) {
+      int latest = pending.get( pending.size() - 1 ).version;
+      SqliteDao.transaction( ( ) -> {
+        for (Evolution evo : pending) {
+          long evoStart = System.nanoTime();
+          evo.apply.run();
+          Metrics.histogram( "sqlite.evolution." + evo.name ).recordSince( evoStart );
+        }
+        SqliteDao.update( "PRAGMA user_version = " + latest );
+      } );
+      current = latest;
+    }
+
+    Metrics.gauge( "sqlite.user_version" ).set( current );
+    initTime.recordSince( start );
+  }
+
+  private static int userVersion() throws Exception
+  {
+    AtomicInteger version = new AtomicInteger( 0 );
+    SqliteDao.query( "PRAGMA user_version", Lists.newArrayList(), rs -> {
+      if (rs.next()) {
+        version.set( rs.getInt( 1 ) );
+      }
+    } );
+    return version.get();
   }
 
   /**
@@ -102,42 +176,43 @@ public class InitSQLiteTables
     SqliteDao.update( createNewSchemas );
     SqliteDao.update( createNewBehaviors );
 
-    String insertSchemaFmt = "INSERT INTO schemas_v1_0 VALUES ('%s','%s','%s','%s',%d,%d,%d,%d);";
-    String getBehaviorsFmt = "SELECT * FROM key_behaviors WHERE schema_id = %d;";
-    String insertBehaviorFmt = "INSERT INTO key_behaviors_v1_0 VALUES ('%s','%s','%s',%d);";
+    String insertSchema = "INSERT INTO schemas_v1_0 VALUES (?,?,?,?,?,?,?,?);";
+    String insertBehavior = "INSERT INTO key_behaviors_v1_0 VALUES (?,?,?,?);";
 
+    Map< Integer, String > uuidsById = Maps.newHashMap();
+    List< List< Object > > schemaRows = Lists.newArrayList();
     SqliteDao.query( "SELECT * FROM schemas", Lists.newArrayList(), rs -> {
       while (rs.next()) {
         String uuid = UUID.randomUUID().toString();
-        String insertSchema = String.format( insertSchemaFmt,
-                                             uuid,
-                                             rs.getString( "client" ),
-                                             rs.getString( "project" ),
-                                             rs.getString( "session_directory" ),
-                                             rs.getInt( "duration" ),
-                                             rs.getInt( "pause_on_end" ),
-                                             rs.getInt( "color_on_end" ),
-                                             rs.getInt( "sound_on_end" ) );
-        SqliteDao.update( insertSchema );
-
-        int originalId = rs.getInt( 1 );
-        String getBehaviors = String.format( getBehaviorsFmt, originalId );
-
-        SqliteDao.query( getBehaviors, Lists.newArrayList(), rs2 -> {
-          while (rs2.next()) {
-            String name = rs2.getString( "behavior" );
-            String insertBehavior =
-                String.format( insertBehaviorFmt,
-                               uuid,
-                               rs2.getString( "key" ),
-                               name,
-                               rs2.getInt( "is_continuous" ) );
-            SqliteDao.update( insertBehavior );
-          }
-        } );
+        uuidsById.put( rs.getInt( 1 ), uuid );
+        schemaRows.add( Lists.newArrayList( uuid,
+                                            rs.getString( "client" ),
+                                            rs.getString( "project" ),
+                                            rs.getString( "session_directory" ),
+                                            rs.getInt( "duration" ),
+                                            rs.getInt( "pause_on_end" ),
+                                            rs.getInt( "color_on_end" ),
+                                            rs.getInt( "sound_on_end" ) ) );
       }
     } );
 
+    List< List< Object > > behaviorRows = Lists.newArrayList();
+    SqliteDao.query( "SELECT * FROM key_behaviors", Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        String uuid = uuidsById.get( rs.getInt( "schema_id" ) );
+        if (uuid == null) {
+          continue;
+        }
+        behaviorRows.add( Lists.newArrayList( uuid,
+                                              rs.getString( "key" ),
+                                              rs.getString( "behavior" ),
+                                              rs.getInt( "is_continuous" ) ) );
+      }
+    } );
+
+    SqliteDao.batch( insertSchema, schemaRows );
+    SqliteDao.batch( insertBehavior, behaviorRows );
+
     // Keep the old tables in case the user goes back to old version
   }
 
@@ -205,57 +280,208 @@ public class InitSQLiteTables
     SqliteDao.update( createNewBehaviors );
     SqliteDao.update( createBehaviorVersions );
 
-    String insertSchemaFmt = "INSERT INTO schema_versions_v1_1 VALUES ('%s','%s',%d,'%s','%s',%d,%d,%d,%d,%d);";
-    String insertSessionDirFmt = "INSERT INTO session_dirs_v1_1 VALUES ('%s', '%s')";
-    String getBehaviorsFmt = "SELECT * FROM key_behaviors_v1_0 WHERE schema_uuid = '%s';";
-    String insertBehaviorFmt = "INSERT INTO behaviors_v1_1 VALUES ('%s','%s',%d);";
-    String insertBehaviorVersionFmt = "INSERT INTO behavior_versions_v1_1 VALUES ('%s','%s','%s','%s',%d);";
+    String insertSchema = "INSERT INTO schema_versions_v1_1 VALUES (?,?,?,?,?,?,?,?,?,?);";
+    String insertSessionDir = "INSERT INTO session_dirs_v1_1 VALUES (?,?)";
+    String insertBehavior = "INSERT INTO behaviors_v1_1 VALUES (?,?,?);";
+    String insertBehaviorVersion = "INSERT INTO behavior_versions_v1_1 VALUES (?,?,?,?,?);";
 
+    Map< String, String > versionUuidsBySchema = Maps.newHashMap();
+    List< List< Object > > schemaRows = Lists.newArrayList();
+    List< List< Object > > sessionDirRows = Lists.newArrayList();
     SqliteDao.query( "SELECT * FROM schemas_v1_0", Lists.newArrayList(), rs -> {
       while (rs.next()) {
         String schemaUuid = rs.getString( "uuid" );
         String schemaVersionUuid = UUID.randomUUID().toString();
-        String insertSchema = String.format( insertSchemaFmt,
-                                             schemaUuid,
-                                             schemaVersionUuid,
-                                             1,
-                                             rs.getString( "client" ),
-                                             rs.getString( "project" ),
-                                             rs.getInt( "duration" ) * 1000,
-                                             rs.getInt( "pause_on_end" ),
-                                             rs.getInt( "color_on_end" ),
-                                             rs.getInt( "sound_on_end" ),
-                                             0 );
-        String insertSessionDir = String.format( insertSessionDirFmt, schemaUuid, rs.getString( "session_directory" ) );
-
-        SqliteDao.update( insertSchema );
-        SqliteDao.update( insertSessionDir );
-
-        String getBehaviors = String.format( getBehaviorsFmt, schemaUuid );
-
-        SqliteDao.query( getBehaviors, Lists.newArrayList(), rs2 -> {
-          while (rs2.next()) {
-            String behaviorUuid = UUID.randomUUID().toString();
-            String insertBehavior =
-                String.format( insertBehaviorFmt,
-                               behaviorUuid,
-                               schemaUuid,
-                               rs2.getInt( "is_continuous" ) );
-            
-            String insertSchemaBehavior =
-                String.format( insertBehaviorVersionFmt,
-                               behaviorUuid,
-                               schemaVersionUuid,
-                               rs2.getString( "key" ),
-                               rs2.getString( "name" ),
-                               0 );
-            SqliteDao.update( insertBehavior );
-            SqliteDao.update( insertSchemaBehavior );
-          }
-        } );
+        versionUuidsBySchema.put( schemaUuid, schemaVersionUuid );
+        schemaRows.add( Lists.newArrayList( schemaUuid,
+                                            schemaVersionUuid,
+                                            1,
+                                            rs.getString( "client" ),
+                                            rs.getString( "project" ),
+                                            rs.getInt( "duration" ) * 1000,
+                                            rs.getInt( "pause_on_end" ),
+                                            rs.getInt( "color_on_end" ),
+                                            rs.getInt( "sound_on_end" ),
+                                            0 ) );
+        sessionDirRows.add( Lists.newArrayList( schemaUuid, rs.getString( "session_directory" ) ) );
+      }
+    } );
+
+    List< List< Object > > behaviorRows = Lists.newArrayList();
+    List< List< Object > > behaviorVersionRows = Lists.newArrayList();
+    SqliteDao.query( "SELECT * FROM key_behaviors_v1_0", Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        String schemaUuid = rs.getString( "schema_uuid" );
+        String schemaVersionUuid = versionUuidsBySchema.get( schemaUuid );
+        if (schemaVersionUuid == null) {
+          continue;
+        }
+
+        String behaviorUuid = UUID.randomUUID().toString();
+        behaviorRows.add( Lists.newArrayList( behaviorUuid, schemaUuid, rs.getInt( "is_continuous" ) ) );
+        behaviorVersionRows.add( Lists.newArrayList( behaviorUuid,
+                                                     schemaVersionUuid,
+                                                     rs.getString( "key" ),
+                                                     rs.getString( "name" ),
+                                                     0 ) );
       }
     } );
 
+    SqliteDao.batch( insertSchema, schemaRows );
+    SqliteDao.batch( insertSessionDir, sessionDirRows );
+    SqliteDao.batch( insertBehavior, behaviorRows );
+    SqliteDao.batch( insertBehaviorVersion, behaviorVersionRows );
+
     // Keep the old tables in case the user goes back to old version
   }
+
+  /**
+   * Adds the table behind {@link SessionCatalog}. It only holds what can be read back out of the .raw files, so it's
+   * safe to drop and rebuild.
+   */
+  private static void evo1_1_add_session_catalog() throws Exception
+  {
+    String createCatalog =
+        "CREATE TABLE IF NOT EXISTS session_catalog_v1_1 ("
+            + "path TEXT NOT NULL PRIMARY KEY,"
+            + "session_uuid TEXT,"
+            + "schema_uuid TEXT,"
+            + "schema_version_uuid TEXT,"
+            + "schema_version_number INTEGER,"
+            + "client TEXT,"
+            + "project TEXT,"
+            + "observer TEXT,"
+            + "therapist TEXT,"
+            + "condition TEXT,"
+            + "location TEXT,"
+            + "session_number INTEGER,"
+            + "start_time INTEGER,"
+            + "duration INTEGER,"
+            + "file_size INTEGER NOT NULL,"
+            + "file_mtime INTEGER NOT NULL )";
+
+    SqliteDao.update( createCatalog );
+    SqliteDao.update( "CREATE INDEX IF NOT EXISTS session_catalog_client_time "
+        + "ON session_catalog_v1_1 (client, start_time)" );
+    SqliteDao.update( "CREATE INDEX IF NOT EXISTS session_catalog_schema_time "
+        + "ON session_catalog_v1_1 (schema_uuid, start_time)" );
+    SqliteDao.update( "CREATE INDEX IF NOT EXISTS session_catalog_time "
+        + "ON session_catalog_v1_1 (start_time)" );
+  }
+
+  /**
+   * Adds the per-file cache behind {@link TrendReport}. Like the catalog, it can be dropped and rebuilt from the .raw
+   * files.
+   */
+  private static void evo1_1_add_trend_cache() throws Exception
+  {
+    String createCache =
+        "CREATE TABLE IF NOT EXISTS trend_cache_v1_1 ("
+            + "path TEXT NOT NULL PRIMARY KEY,"
+            + "file_size INTEGER NOT NULL,"
+            + "file_mtime INTEGER NOT NULL,"
+            + "metrics TEXT NOT NULL )";
+
+    SqliteDao.update( createCache );
+  }
+
+  /**
+   * Replaces behavior_versions_v1_1, which copies every behavior into every schema version, with
+   * behavior_changes_v1_1, which only has the behaviors that changed in each version, and behavior_heads_v1_1, which
+   * has the latest version of each. See {@link KeyBehaviors}.
+   */
+  private static void evo1_1_add_behavior_changes() throws Exception
+  {
+    // figure out if this evolution has been executed yet
+    String pragmaChanges = "SELECT name FROM sqlite_master WHERE type='table' AND name='behavior_changes_v1_1'";
+    AtomicBoolean tableExists = new AtomicBoolean( false );
+
+    SqliteDao.query( pragmaChanges, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        tableExists.set( true );
+        return;
+      }
+    } );
+
+    if (tableExists.get()) {
+      return;
+    }
+
+    String createChanges =
+        "CREATE TABLE behavior_changes_v1_1 ("
+            + "behavior_uuid TEXT NOT NULL,"
+            + "schema_uuid TEXT NOT NULL,"
+            + "version_number INTEGER NOT NULL,"
+            + "k CHAR(1) NOT NULL,"
+            + "description TEXT NOT NULL,"
+            + "archived INTEGER NOT NULL,"
+            + "removed INTEGER NOT NULL,"
+            + "UNIQUE(behavior_uuid, version_number),"
+            + "FOREIGN KEY (behavior_uuid) REFERENCES behaviors_v1_1(uuid) )";
+
+    String createHeads =
+        "CREATE TABLE behavior_heads_v1_1 ("
+            + "behavior_uuid TEXT NOT NULL PRIMARY KEY,"
+            + "schema_uuid TEXT NOT NULL,"
+            + "k CHAR(1) NOT NULL,"
+            + "description TEXT NOT NULL,"
+            + "archived INTEGER NOT NULL,"
+            + "FOREIGN KEY (behavior_uuid) REFERENCES behaviors_v1_1(uuid) )";
+
+    SqliteDao.update( createChanges );
+    SqliteDao.update( createHeads );
+    SqliteDao.update( "CREATE INDEX behavior_changes_schema_version "
+        + "ON behavior_changes_v1_1 (schema_uuid, version_number)" );
+    SqliteDao.update( "CREATE INDEX behavior_heads_schema ON behavior_heads_v1_1 (schema_uuid)" );
+
+    // Every version of every schema, so versions without behaviors still count as removing the ones before them
+    ListMultimap< String, String > versionsBySchema = ArrayListMultimap.create();
+    Map< String, Integer > versionNumbers = Maps.newHashMap();
+    String selectVersions = "SELECT uuid, version_uuid, version_number FROM schema_versions_v1_1 "
+        + "ORDER BY uuid, version_number";
+    SqliteDao.query( selectVersions, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        versionsBySchema.put( rs.getString( "uuid" ), rs.getString( "version_uuid" ) );
+        versionNumbers.put( rs.getString( "version_uuid" ), rs.getInt( "version_number" ) );
+      }
+    } );
+
+    ListMultimap< String, KeyBehaviorMapping > behaviorsByVersion = ArrayListMultimap.create();
+    String selectBehaviors = "SELECT bv.*, b.is_continuous FROM behavior_versions_v1_1 AS bv "
+        + "JOIN behaviors_v1_1 AS b ON b.uuid = bv.behavior_uuid";
+    SqliteDao.query( selectBehaviors, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        MappableChar ch = MappableChar.getForChar( rs.getString( "k" ).charAt( 0 ) ).get();
+        behaviorsByVersion.put( rs.getString( "schema_version_uuid" ),
+                                new KeyBehaviorMapping( rs.getString( "behavior_uuid" ),
+                                                        ch,
+                                                        rs.getString( "description" ),
+                                                        rs.getBoolean( "is_continuous" ),
+                                                        rs.getBoolean( "archived" ) ) );
+      }
+    } );
+
+    List< List< Object > > changeRows = Lists.newArrayList();
+    List< List< Object > > headRows = Lists.newArrayList();
+    for (String schemaUuid : versionsBySchema.keySet()) {
+      List< KeyBehaviorMapping > previous = Lists.newArrayList();
+      for (String versionUuid : versionsBySchema.get( schemaUuid )) {
+        List< KeyBehaviorMapping > current = behaviorsByVersion.get( versionUuid );
+        int versionNumber = versionNumbers.get( versionUuid );
+        for (KeyBehaviors.Change c : KeyBehaviors.diff( versionNumber, previous, current )) {
+          changeRows.add( c.row( schemaUuid ) );
+        }
+        previous = current;
+      }
+      for (KeyBehaviorMapping m : previous) {
+        headRows.add( KeyBehaviors.headRow( schemaUuid, m ) );
+      }
+    }
+
+    SqliteDao.batch( KeyBehaviors.insertChange(), changeRows );
+    SqliteDao.batch( "INSERT INTO behavior_heads_v1_1 VALUES (?,?,?,?,?)", headRows );
+
+    // behavior_versions_v1_1 is left as it was at this point and no longer written to. Its rows are only deleted
+    // along with their schema.
+  }
 }
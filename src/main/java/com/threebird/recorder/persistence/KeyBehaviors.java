@@ -1,11 +1,16 @@
 package com.threebird.recorder.persistence;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 import com.threebird.recorder.models.MappableChar;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
 import com.threebird.recorder.models.schemas.SchemaVersion;
@@ -13,75 +18,311 @@ import com.threebird.recorder.utils.persistence.SqlCallback;
 import com.threebird.recorder.utils.persistence.SqliteDao;
 
 /**
- * A set of static functions that interact with they key_behaviors table
+ * A set of static functions that interact with the behavior tables. A schema version only stores the behaviors that
+ * changed since the version before it (in behavior_changes_v1_1), and the latest version of every behavior is kept
+ * alongside in behavior_heads_v1_1. Older versions are rebuilt by replaying their changes.
  */
 public class KeyBehaviors
 {
   private static final String BEHAVIORS_TBL = "behaviors_v1_1";
   private static final String BEHAVIOR_VERSIONS_TBL = "behavior_versions_v1_1";
+  private static final String CHANGES_TBL = "behavior_changes_v1_1";
+  private static final String HEADS_TBL = "behavior_heads_v1_1";
 
   /**
-   * For a given Schema, return all
-   * 
+   * One row of behavior_changes_v1_1: 'mapping' as of 'versionNumber', or its removal from the schema
+   */
+  static class Change
+  {
+    final int versionNumber;
+    final KeyBehaviorMapping mapping;
+    final boolean removed;
+
+    Change( int versionNumber, KeyBehaviorMapping mapping, boolean removed )
+    {
+      this.versionNumber = versionNumber;
+      this.mapping = mapping;
+      this.removed = removed;
+    }
+
+    List< Object > row( String schemaUuid )
+    {
+      return Lists.newArrayList( mapping.uuid,
+                                 schemaUuid,
+                                 versionNumber,
+                                 mapping.key.c + "",
+                                 mapping.description,
+                                 mapping.archived,
+                                 removed );
+    }
+  }
+
+  /**
+   * Rebuilds one schema's versions in ascending order. Only the changes are held in memory, so a whole version-set can
+   * be walked without every version's behaviors being loaded at once.
+   */
+  public static class Replay
+  {
+    private final List< Change > changes;
+    private final Map< String, KeyBehaviorMapping > state = Maps.newLinkedHashMap();
+    private int next = 0;
+
+    Replay( List< Change > changes )
+    {
+      this.changes = changes;
+    }
+
+    /**
+     * @return the behaviors as of 'versionNumber', which can't be lower than the last one asked for
+     */
+    public List< KeyBehaviorMapping > upTo( int versionNumber )
+    {
+      while (next < changes.size() && changes.get( next ).versionNumber <= versionNumber) {
+        apply( state, changes.get( next ) );
+        next++;
+      }
+      return copy( state.values() );
+    }
+  }
+
+  /**
+   * @return a {@link Replay} of the given schema's changes, read with a single query
+   * @throws Exception
+   */
+  public static Replay replay( String schemaUuid ) throws Exception
+  {
+    String sql =
+        "SELECT c.*, b.is_continuous "
+            + "FROM " + CHANGES_TBL + " AS c"
+            + "  JOIN " + BEHAVIORS_TBL + " AS b"
+            + "  ON b.uuid = c.behavior_uuid "
+            + "WHERE c.schema_uuid = ? "
+            + "ORDER BY c.version_number";
+
+    List< Change > changes = Lists.newArrayList();
+    SqliteDao.query( sql, Lists.newArrayList( schemaUuid ), rs -> {
+      while (rs.next()) {
+        changes.add( change( rs ) );
+      }
+    } );
+
+    return new Replay( changes );
+  }
+
+  /**
+   * @return the behaviors of each schema's latest version, by schema uuid, from a single query
    * @throws Exception
    */
-  public static Set< KeyBehaviorMapping > getAllForSchema( String schemaVersionId ) throws Exception
+  public static ListMultimap< String, KeyBehaviorMapping > allLatest() throws Exception
   {
     String sql =
-        "SELECT bv.behavior_uuid, bv.k, bv.description, b.is_continuous, bv.archived "
-            + "FROM " + BEHAVIORS_TBL + " AS b"
-            + "  JOIN " + BEHAVIOR_VERSIONS_TBL + " AS bv"
-            + "  ON b.uuid = bv.behavior_uuid "
-            + "WHERE bv.schema_version_uuid = ?";
+        "SELECT h.*, b.is_continuous "
+            + "FROM " + HEADS_TBL + " AS h"
+            + "  JOIN " + BEHAVIORS_TBL + " AS b"
+            + "  ON b.uuid = h.behavior_uuid";
 
-    Set< KeyBehaviorMapping > mappings = Sets.newHashSet();
+    ListMultimap< String, KeyBehaviorMapping > result = ArrayListMultimap.create();
+    SqliteDao.query( sql, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        result.put( rs.getString( "schema_uuid" ), mapping( rs ) );
+      }
+    } );
+    return result;
+  }
 
-    SqlCallback callback = rs -> {
+  /**
+   * @return the behaviors of the schema's latest version
+   * @throws Exception
+   */
+  public static List< KeyBehaviorMapping > getLatest( String schemaUuid ) throws Exception
+  {
+    String sql =
+        "SELECT h.*, b.is_continuous "
+            + "FROM " + HEADS_TBL + " AS h"
+            + "  JOIN " + BEHAVIORS_TBL + " AS b"
+            + "  ON b.uuid = h.behavior_uuid "
+            + "WHERE h.schema_uuid = ?";
+
+    List< KeyBehaviorMapping > result = Lists.newArrayList();
+    SqliteDao.query( sql, Lists.newArrayList( schemaUuid ), rs -> {
       while (rs.next()) {
-        String behaviorUuid = rs.getString( "behavior_uuid" );
-        String k = rs.getString( "k" );
-        String description = rs.getString( "description" );
-        boolean isContinuous = rs.getBoolean( "is_continuous" );
-        boolean archived = rs.getBoolean( "archived" );
-
-        MappableChar ch = MappableChar.getForChar( k.charAt( 0 ) ).get();
-        mappings.add( new KeyBehaviorMapping( behaviorUuid, ch, description, isContinuous, archived ) );
+        result.add( mapping( rs ) );
+      }
+    } );
+    return result;
+  }
+
+  /**
+   * The behavior rows for a run of new versions of one schema. Each version is diffed against the one before as it's
+   * added, so {@link #write()} only has to insert rows and can be kept short when the versions come from a big import.
+   */
+  static class Pending
+  {
+    private final String schemaUuid;
+    private List< KeyBehaviorMapping > latest;
+    private final List< List< Object > > behaviorRows = Lists.newArrayList();
+    private final List< List< Object > > changeRows = Lists.newArrayList();
+
+    /**
+     * @param latest
+     *          the behaviors of the version before the first one to be added
+     */
+    Pending( String schemaUuid, List< KeyBehaviorMapping > latest )
+    {
+      this.schemaUuid = schemaUuid;
+      this.latest = latest;
+    }
+
+    /**
+     * Diffs the next version's behaviors, giving any that have no uuid a new one
+     */
+    void add( SchemaVersion schema )
+    {
+      for (KeyBehaviorMapping mapping : schema.behaviors) {
+        // Validate UUID
+        if (mapping.uuid == null) {
+          mapping.uuid = UUID.randomUUID().toString();
+        } else {
+          UUID.fromString( mapping.uuid );
+        }
+      }
+
+      for (Change c : diff( schema.versionNumber, latest, schema.behaviors )) {
+        changeRows.add( c.row( schemaUuid ) );
+        if (!c.removed) {
+          behaviorRows.add( Lists.newArrayList( c.mapping.uuid, schemaUuid, c.mapping.isContinuous ) );
+        }
+      }
+      latest = schema.behaviors;
+    }
+
+    /**
+     * Writes the versions added since the last write. Call within a transaction, after their schema_versions_v1_1
+     * rows are in.
+     *
+     * @throws Exception
+     */
+    void write() throws Exception
+    {
+      // Create in behaviors if it doesn't exist
+      SqliteDao.batch( "INSERT OR IGNORE INTO " + BEHAVIORS_TBL + " (uuid, schema_uuid, is_continuous) VALUES (?,?,?)",
+                       behaviorRows );
+      SqliteDao.batch( insertChange(), changeRows );
+
+      List< List< Object > > headRows = Lists.newArrayList();
+      for (KeyBehaviorMapping m : latest) {
+        headRows.add( headRow( schemaUuid, m ) );
       }
-    };
+      SqliteDao.update( "DELETE FROM " + HEADS_TBL + " WHERE schema_uuid = ?",
+                        Lists.newArrayList( schemaUuid ),
+                        SqlCallback.NOOP );
+      SqliteDao.batch( "INSERT INTO " + HEADS_TBL + " VALUES (?,?,?,?,?)", headRows );
+
+      behaviorRows.clear();
+      changeRows.clear();
+    }
+  }
+
+  /**
+   * Records the behaviors of a new schema version: only those that were added, edited or removed since the schema's
+   * current latest version. Call within a transaction, after the schema_versions_v1_1 row is in.
+   *
+   * @throws Exception
+   */
+  public static void save( SchemaVersion schema ) throws Exception
+  {
+    Pending pending = new Pending( schema.uuid, getLatest( schema.uuid ) );
+    pending.add( schema );
+    pending.write();
+  }
+
+  /**
+   * Deletes every behavior of the given schema, in every version
+   *
+   * @throws Exception
+   */
+  public static void deleteForSchema( String schemaUuid ) throws Exception
+  {
+    List< Object > params = Lists.newArrayList( schemaUuid );
+    SqliteDao.update( "DELETE FROM " + CHANGES_TBL + " WHERE schema_uuid = ?", params, SqlCallback.NOOP );
+    SqliteDao.update( "DELETE FROM " + HEADS_TBL + " WHERE schema_uuid = ?", params, SqlCallback.NOOP );
+
+    // Rows from before versions were stored as changes
+    String deleteVersions = "DELETE FROM " + BEHAVIOR_VERSIONS_TBL + " WHERE behavior_uuid IN "
+        + "(SELECT uuid FROM " + BEHAVIORS_TBL + " WHERE schema_uuid = ?)";
+    SqliteDao.update( deleteVersions, params, SqlCallback.NOOP );
 
-    SqliteDao.query( sql, Lists.newArrayList( schemaVersionId ), callback );
+    SqliteDao.update( "DELETE FROM " + BEHAVIORS_TBL + " WHERE schema_uuid = ?", params, SqlCallback.NOOP );
+  }
+
+  static String insertChange()
+  {
+    return "INSERT INTO " + CHANGES_TBL
+        + " (behavior_uuid, schema_uuid, version_number, k, description, archived, removed) VALUES (?,?,?,?,?,?,?)";
+  }
 
-    return mappings;
+  static List< Object > headRow( String schemaUuid, KeyBehaviorMapping mapping )
+  {
+    return Lists.newArrayList( mapping.uuid, schemaUuid, mapping.key.c + "", mapping.description, mapping.archived );
   }
 
-  public static void save( SchemaVersion schema, KeyBehaviorMapping mapping ) throws Exception
+  /**
+   * @return what changed between two consecutive versions' behaviors, as of 'versionNumber'
+   */
+  static List< Change > diff( int versionNumber,
+                              Collection< KeyBehaviorMapping > before,
+                              Collection< KeyBehaviorMapping > after )
   {
-    // Validate UUID
-    if (mapping.uuid == null) {
-      mapping.uuid = UUID.randomUUID().toString();
+    Map< String, KeyBehaviorMapping > previous = Maps.newLinkedHashMap();
+    for (KeyBehaviorMapping m : before) {
+      previous.put( m.uuid, m );
+    }
+
+    List< Change > changes = Lists.newArrayList();
+    for (KeyBehaviorMapping m : after) {
+      KeyBehaviorMapping p = previous.remove( m.uuid );
+      if (!m.equals( p )) {
+        changes.add( new Change( versionNumber, m, false ) );
+      }
+    }
+    for (KeyBehaviorMapping p : previous.values()) {
+      changes.add( new Change( versionNumber, p, true ) );
+    }
+    return changes;
+  }
+
+  private static void apply( Map< String, KeyBehaviorMapping > state, Change c )
+  {
+    if (c.removed) {
+      state.remove( c.mapping.uuid );
     } else {
-      UUID.fromString( mapping.uuid );
+      state.put( c.mapping.uuid, c.mapping );
     }
+  }
 
-    // Create in behaviors if it doesn't exist
-    String insertBehavior =
-        "INSERT OR IGNORE INTO " + BEHAVIORS_TBL + " (uuid, schema_uuid, is_continuous) VALUES (?,?,?)";
-    List< Object > params1 =
-        Lists.newArrayList( mapping.uuid, schema.uuid, mapping.isContinuous );
-    SqliteDao.update( insertBehavior, params1, SqlCallback.NOOP );
+  private static List< KeyBehaviorMapping > copy( Collection< KeyBehaviorMapping > mappings )
+  {
+    List< KeyBehaviorMapping > result = Lists.newArrayListWithCapacity( mappings.size() );
+    for (KeyBehaviorMapping m : mappings) {
+      result.add( new KeyBehaviorMapping( m.uuid, m.key, m.description, m.isContinuous, m.archived ) );
+    }
+    return result;
+  }
 
-    // Insert new entry in behavior_versions
-    String sql =
-        "INSERT INTO " + BEHAVIOR_VERSIONS_TBL
-            + " (behavior_uuid, schema_version_uuid, k, description, archived) VALUES (?,?,?,?,?)";
+  private static Change change( ResultSet rs ) throws SQLException
+  {
+    return new Change( rs.getInt( "version_number" ), mapping( rs ), rs.getBoolean( "removed" ) );
+  }
 
-    List< Object > params =
-        Lists.newArrayList( mapping.uuid,
-                            schema.versionUuid,
-                            mapping.key.c + "",
-                            mapping.description,
-                            mapping.archived );
+  private static KeyBehaviorMapping mapping( ResultSet rs ) throws SQLException
+  {
+    String behaviorUuid = rs.getString( "behavior_uuid" );
+    String k = rs.getString( "k" );
+    String description = rs.getString( "description" );
+    boolean isContinuous = rs.getBoolean( "is_continuous" );
+    boolean archived = rs.getBoolean( "archived" );
 
-    SqliteDao.update( sql, params, SqlCallback.NOOP );
+    MappableChar ch = MappableChar.getForChar( k.charAt( 0 ) ).get();
+    return new KeyBehaviorMapping( behaviorUuid, ch, description, isContinuous, archived );
   }
 }
@@ -0,0 +1,253 @@
+package com.threebird.recorder.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.utils.metrics.Counter;
+import com.threebird.recorder.utils.metrics.Gauge;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+
+/**
+ * Session data files are JSON, saved as .raw, or gzipped as .raw.gz. They're mostly the same behavior uuids over and
+ * over, so they compress to a fraction of their size. {@link GsonUtils#get(File, Object)} reads either kind, so
+ * nothing downstream needs to know which one it has.
+ *
+ * {@link #compact(Collection, int)} gzips sessions that haven't been touched in a while. Each file is checked by
+ * decompressing it and comparing it to the original before the original is deleted.
+ */
+public class RawArchive
+{
+  public static final String EXTENSION = ".raw";
+  public static final String COMPRESSED_EXTENSION = EXTENSION + GsonUtils.GZIP_SUFFIX;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Counter compacted = Metrics.counter( "archive.files_compacted" );
+  private static final Counter bytesSaved = Metrics.counter( "archive.bytes_saved" );
+  private static final Counter failed = Metrics.counter( "archive.compact_failures" );
+  private static final Histogram compactions = Metrics.histogram( "archive.compact" );
+
+  /**
+   * How fast the last compaction read its files back, in KB of JSON per second. A gauge holds a whole number, so MB/s
+   * would round away most of it.
+   */
+  private static final Gauge decodeRate = Metrics.gauge( "archive.decode_kb_per_s" );
+
+  /**
+   * What a run of {@link RawArchive#compact(Collection, int)} did
+   */
+  public static class Report
+  {
+    public int files;
+    public int failures;
+    public long bytesBefore;
+    public long bytesAfter;
+    public long decodedBytes;
+    public long decodeNanos;
+
+    public long bytesSaved()
+    {
+      return bytesBefore - bytesAfter;
+    }
+
+    /**
+     * @return how fast the compressed files were read back, in MB of JSON per second
+     */
+    public double decodeMegabytesPerSecond()
+    {
+      return decodeNanos == 0 ? 0 : (decodedBytes / (1024.0 * 1024.0)) / (decodeNanos / 1e9);
+    }
+  }
+
+  /**
+   * @return true if 'name' is a session data file, compressed or not
+   */
+  public static boolean isRaw( String name )
+  {
+    return name.endsWith( EXTENSION ) || name.endsWith( COMPRESSED_EXTENSION );
+  }
+
+  /**
+   * @return the extension new sessions are saved with
+   */
+  public static String extension()
+  {
+    return PreferencesManager.getCompressRaw() ? COMPRESSED_EXTENSION : EXTENSION;
+  }
+
+  /**
+   * In the background, compacts the session directories using the "compress after" preference. Does nothing if that's
+   * turned off.
+   */
+  public static CompletableFuture< Report > compactAsync()
+  {
+    int days = PreferencesManager.getCompactAfterDays();
+    if (days <= 0) {
+      return CompletableFuture.completedFuture( new Report() );
+    }
+
+    return CompletableFuture.supplyAsync( ( ) -> {
+      try {
+        return compact( SessionCatalog.directories(), days );
+      } catch (Exception e) {
+        throw new RuntimeException( e );
+      }
+    } );
+  }
+
+  /**
+   * Gzips every .raw file in 'dirs' that was last modified more than 'olderThanDays' days ago. A session that's still
+   * being recorded is saved every few seconds, so it's never that old.
+   */
+  public static Report compact( Collection< File > dirs, int olderThanDays )
+  {
+    long start = System.nanoTime();
+    long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis( olderThanDays );
+    Report report = new Report();
+
+    for (File dir : dirs) {
+      File[] raws = dir.listFiles( ( d, name ) -> name.endsWith( EXTENSION ) );
+      if (raws == null) {
+        continue;
+      }
+
+      for (File raw : raws) {
+        if (raw.lastModified() >= cutoff) {
+          continue;
+        }
+
+        try {
+          if (compress( raw, report )) {
+            report.files++;
+          }
+        } catch (IOException e) {
+          report.failures++;
+          e.printStackTrace();
+        }
+      }
+    }
+
+    compacted.add( report.files );
+    bytesSaved.add( report.bytesSaved() );
+    failed.add( report.failures );
+    if (report.decodeNanos > 0) {
+      decodeRate.set( Math.round( report.decodeMegabytesPerSecond() * 1024 ) );
+    }
+    compactions.recordSince( start );
+    return report;
+  }
+
+  /**
+   * Replaces 'raw' with a gzipped copy next to it, keeping its modification time
+   *
+   * @return false if it was skipped because a compressed copy already exists or the file changed meanwhile
+   */
+  static boolean compress( File raw, Report report ) throws IOException
+  {
+    File gz = new File( raw.getPath() + GsonUtils.GZIP_SUFFIX );
+    if (gz.exists()) {
+      return false;
+    }
+
+    long size = raw.length();
+    long mtime = raw.lastModified();
+    File tmp = new File( gz.getPath() + ".tmp" );
+
+    try {
+      try (InputStream in = new FileInputStream( raw );
+           OutputStream out = new GZIPOutputStream( new FileOutputStream( tmp ), BUFFER_SIZE )) {
+        copy( in, out );
+      }
+
+      long start = System.nanoTime();
+      boolean same = sameContents( raw, tmp );
+      long elapsed = System.nanoTime() - start;
+
+      if (!same) {
+        throw new IOException( "the compressed copy doesn't match the original" );
+      }
+      if (raw.length() != size || raw.lastModified() != mtime) {
+        return false;
+      }
+
+      tmp.setLastModified( mtime );
+      Files.move( tmp.toPath(), gz.toPath(), StandardCopyOption.ATOMIC_MOVE );
+      Files.delete( raw.toPath() );
+
+      report.bytesBefore += size;
+      report.bytesAfter += gz.length();
+      report.decodedBytes += size;
+      report.decodeNanos += elapsed;
+      return true;
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Streams both files, decompressing 'compressed', and compares them buffer by buffer
+   */
+  private static boolean sameContents( File raw, File compressed ) throws IOException
+  {
+    byte[] expected = new byte[BUFFER_SIZE];
+    byte[] actual = new byte[BUFFER_SIZE];
+
+    try (InputStream a = new FileInputStream( raw );
+         InputStream b = GsonUtils.newInputStream( compressed )) {
+      while (true) {
+        int n = readFully( a, expected );
+        int m = readFully( b, actual );
+        if (n != m) {
+          return false;
+        }
+        if (n == 0) {
+          return true;
+        }
+        if (!Arrays.equals( expected, actual )) {
+          return false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Fills 'buf' unless the stream ends first, in which case the rest of it is zeroed
+   *
+   * @return the number of bytes read
+   */
+  private static int readFully( InputStream in, byte[] buf ) throws IOException
+  {
+    int total = 0;
+    while (total < buf.length) {
+      int n = in.read( buf, total, buf.length - total );
+      if (n < 0) {
+        break;
+      }
+      total += n;
+    }
+    Arrays.fill( buf, total, buf.length, (byte) 0 );
+    return total;
+  }
+
+  private static void copy( InputStream in, OutputStream out ) throws IOException
+  {
+    byte[] buf = new byte[BUFFER_SIZE];
+    int n;
+    while ((n = in.read( buf )) > 0) {
+      out.write( buf, 0, n );
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package com.threebird.recorder.persistence;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+
+/**
+ * Runs every file write in the application on a small pool of daemon threads. Writes are keyed by their output file:
+ * if a write is requested while an older one for the same file is still waiting, only the newest runs and the older
+ * callers are completed with its result. Waiting writes run in {@link Priority} order, so a final save is never stuck
+ * behind a backlog of checkpoints.
+ *
+ * Every future returned by {@link SaveScheduler#schedule(File, Priority, Callable)} is eventually completed, either
+ * normally, exceptionally, or by cancellation if the scheduler is shut down before it can run.
+ */
+public class SaveScheduler
+{
+  public enum Priority
+  {
+    /**
+     * The session was stopped or paused. The user is likely to close the app, so write these first.
+     */
+    FINAL,
+
+    /**
+     * A save that happens while the session is running, or for a preferences file
+     */
+    CHECKPOINT
+  }
+
+  private static class Job
+  {
+    final File file;
+    final Callable< Long > write;
+    final long enqueuedNanos;
+    final List< CompletableFuture< Long > > waiters = Lists.newArrayList();
+    Priority priority;
+
+    Job( File file, Priority priority, Callable< Long > write )
+    {
+      this.file = file;
+      this.priority = priority;
+      this.write = write;
+      this.enqueuedNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * The scheduler used throughout the app
+   */
+  public static final SaveScheduler shared = new SaveScheduler( 2 );
+
+  static {
+    Metrics.gauge( "saves.queue_depth", shared::queueDepth );
+    Metrics.gauge( "saves.max_queue_depth", shared::maxQueueDepth );
+    Metrics.gauge( "saves.coalesced", shared::coalescedCount );
+    Metrics.gauge( "saves.failed", shared::failureCount );
+    Metrics.histogram( "saves.latency", shared.latency );
+  }
+
+  private final Object lock = new Object();
+  private final Map< File, Job > pending = new LinkedHashMap< File, Job >();
+  private final Set< File > inFlight = new HashSet< File >();
+  private final List< Thread > workers = Lists.newArrayList();
+  private boolean shutdown = false;
+
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final Histogram latency = new Histogram();
+  private volatile int maxQueueDepth = 0;
+
+  public SaveScheduler( int threads )
+  {
+    for (int i = 0; i < threads; i++) {
+      Thread t = new Thread( this::work, "save-scheduler-" + i );
+      t.setDaemon( true );
+      t.start();
+      workers.add( t );
+    }
+  }
+
+  /**
+   * Queues 'write' for 'file', replacing any write for the same file that hasn't started yet.
+   *
+   * @param write
+   *          - performs the write and returns the number of bytes written
+   * @return a future that completes when this write, or a newer one for the same file, finishes
+   */
+  public CompletableFuture< Long > schedule( File file, Priority priority, Callable< Long > write )
+  {
+    CompletableFuture< Long > result = new CompletableFuture< Long >();
+    Job job = new Job( file, priority, write );
+    job.waiters.add( result );
+
+    synchronized (lock) {
+      if (shutdown) {
+        result.cancel( false );
+        return result;
+      }
+
+      Job replaced = pending.remove( file );
+      if (replaced != null) {
+        job.waiters.addAll( replaced.waiters );
+        if (replaced.priority.compareTo( job.priority ) < 0) {
+          job.priority = replaced.priority;
+        }
+        coalesced.incrementAndGet();
+      }
+
+      pending.put( file, job );
+      maxQueueDepth = Math.max( maxQueueDepth, pending.size() );
+      lock.notifyAll();
+    }
+
+    return result;
+  }
+
+  /**
+   * Stops accepting writes, and waits up to 'timeoutMillis' for the queued ones to finish. Anything still queued after
+   * that is cancelled.
+   */
+  public void shutdown( long timeoutMillis )
+  {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (Thread t : workers) {
+      try {
+        t.join( Math.max( 1, deadline - System.currentTimeMillis() ) );
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    synchronized (lock) {
+      for (Job job : pending.values()) {
+        for (CompletableFuture< Long > waiter : job.waiters) {
+          waiter.cancel( false );
+        }
+      }
+      pending.clear();
+    }
+  }
+
+  /**
+   * @return the number of writes waiting to start
+   */
+  public int queueDepth()
+  {
+    synchronized (lock) {
+      return pending.size();
+    }
+  }
+
+  /**
+   * @return the most writes that have ever been waiting at once
+   */
+  public int maxQueueDepth()
+  {
+    return maxQueueDepth;
+  }
+
+  /**
+   * @return the number of writes that have finished
+   */
+  public long saveCount()
+  {
+    return latency.count();
+  }
+
+  /**
+   * @return the number of writes that threw
+   */
+  public long failureCount()
+  {
+    return failures.get();
+  }
+
+  /**
+   * @return the number of writes that were replaced by a newer one before they started
+   */
+  public long coalescedCount()
+  {
+    return coalesced.get();
+  }
+
+  /**
+   * @return the average time from schedule() to the write finishing, in milliseconds
+   */
+  public double averageLatencyMillis()
+  {
+    return latency.mean() / 1e6;
+  }
+
+  /**
+   * @return the longest time from schedule() to the write finishing, in milliseconds
+   */
+  public double maxLatencyMillis()
+  {
+    return latency.max() / 1e6;
+  }
+
+  private void work()
+  {
+    Job job;
+    while ((job = next()) != null) {
+      try {
+        Long bytes = job.write.call();
+        for (CompletableFuture< Long > waiter : job.waiters) {
+          waiter.complete( bytes );
+        }
+      } catch (Throwable t) {
+        failures.incrementAndGet();
+        for (CompletableFuture< Long > waiter : job.waiters) {
+          waiter.completeExceptionally( t );
+        }
+      } finally {
+        latency.recordSince( job.enqueuedNanos );
+        synchronized (lock) {
+          inFlight.remove( job.file );
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Blocks until there's a job to run, and returns the most urgent one whose file isn't already being written.
+   *
+   * @return the next job, or null once the scheduler is shut down and there's nothing left to run
+   */
+  private Job next()
+  {
+    synchronized (lock) {
+      while (true) {
+        Job best = null;
+        for (Job job : pending.values()) {
+          if (inFlight.contains( job.file )) {
+            continue;
+          }
+          if (best == null || job.priority.compareTo( best.priority ) < 0) {
+            best = job;
+          }
+        }
+
+        if (best != null) {
+          pending.remove( best.file );
+          inFlight.add( best.file );
+          return best;
+        }
+
+        if (shutdown && pending.isEmpty()) {
+          return null;
+        }
+
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          return null;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,549 @@
+package com.threebird.recorder.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+import com.threebird.recorder.utils.persistence.SqliteDao;
+
+/**
+ * Imports and exports schema files: a JSON array of a schema's {@link SchemaVersion}s, oldest first. A single file is
+ * streamed one version at a time, so a long version-set is never held in memory, only the rows to be written. Many
+ * files at once (e.g. when setting up a new machine) are parsed in parallel and saved in one transaction, see
+ * {@link #readAll(List)}.
+ * {@link #main(String[])} does both without the UI.
+ */
+public class SchemaTransfer
+{
+  public static final String EXTENSION = ".schema";
+  public static final String ZIP_EXTENSION = ".zip";
+
+  private static final int BATCH_SIZE = 50;
+
+  private static final Histogram imports = Metrics.histogram( "schemas.import" );
+  private static final Histogram exports = Metrics.histogram( "schemas.export" );
+  private static final Histogram bulkImports = Metrics.histogram( "schemas.bulk_import" );
+
+  /**
+   * Called as versions are read or written. It may be called from a background thread.
+   */
+  @FunctionalInterface
+  public interface Progress
+  {
+    public Progress NONE = ( done, total ) -> {};
+
+    void update( int done, int total );
+  }
+
+  /**
+   * What a schema file holds, from a first pass that validates it without touching the database
+   */
+  public static class Plan
+  {
+    public final File file;
+    public final String schemaUuid;
+    public final SchemaVersion latest;
+    final List< String > versionUuids;
+
+    Plan( File file, String schemaUuid, SchemaVersion latest, List< String > versionUuids )
+    {
+      this.file = file;
+      this.schemaUuid = schemaUuid;
+      this.latest = latest;
+      this.versionUuids = versionUuids;
+    }
+
+    public int versions()
+    {
+      return versionUuids.size();
+    }
+  }
+
+  /**
+   * Every version-set read by {@link SchemaTransfer#readAll(List)}, validated but not yet saved
+   */
+  public static class Bulk
+  {
+    final List< List< SchemaVersion > > versionsets;
+
+    Bulk( List< List< SchemaVersion > > versionsets )
+    {
+      this.versionsets = versionsets;
+    }
+
+    public int schemas()
+    {
+      return versionsets.size();
+    }
+
+    public int versions()
+    {
+      return versionsets.stream().mapToInt( List::size ).sum();
+    }
+
+    /**
+     * @return the uuid of each schema read
+     */
+    public List< String > schemaUuids()
+    {
+      return Lists.transform( versionsets, vs -> vs.get( 0 ).uuid );
+    }
+  }
+
+  @FunctionalInterface
+  private interface Opener
+  {
+    Reader open() throws IOException;
+  }
+
+  /**
+   * Reads through 'file', checking that every version belongs to the same schema, that they're numbered 1, 2, 3... in
+   * order, and that their behaviors can be saved
+   *
+   * @throws IOException
+   *           if the file can't be read
+   * @throws IllegalArgumentException
+   *           if the version-set isn't valid
+   */
+  public static Plan inspect( File file ) throws IOException
+  {
+    String schemaUuid = null;
+    SchemaVersion latest = null;
+    List< String > versionUuids = Lists.newArrayList();
+
+    try (JsonReader reader = new JsonReader( GsonUtils.newReader( file ) )) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        SchemaVersion sv = GsonUtils.gson.fromJson( reader, SchemaVersion.class );
+        if (schemaUuid == null) {
+          schemaUuid = sv.uuid;
+        }
+        validate( sv, schemaUuid, versionUuids.size() + 1 );
+
+        versionUuids.add( sv.versionUuid );
+        latest = sv;
+      }
+      reader.endArray();
+    } catch (IllegalArgumentException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      // e.g. a behavior mapped to a key that can't be used
+      throw new IllegalArgumentException( file.getName() + ": " + e.getMessage(), e );
+    }
+
+    return new Plan( file, schemaUuid, latest, versionUuids );
+  }
+
+  /**
+   * Writes the version-set in 'plan' to the database. Saved versions never change, so if the database already has the
+   * start of this version-set, only the versions after it are written, a batch per transaction; if a batch fails, the
+   * schema keeps the versions written before it, which is a valid version-set in itself. Otherwise the old version-set
+   * is replaced in a single transaction, so it's either replaced completely or not at all. Either way, each version is
+   * checked and diffed before its transaction starts.
+   *
+   * @return the latest version, as saved
+   * @throws Exception
+   */
+  public static SchemaVersion importFile( Plan plan, Progress progress ) throws Exception
+  {
+    long start = System.nanoTime();
+    int total = plan.versions();
+    if (total == 0) {
+      return null;
+    }
+
+    List< String > existing = Schemas.versionUuids( plan.schemaUuid );
+    boolean extendsExisting = extendsExisting( plan.versionUuids, existing );
+    int skip = extendsExisting ? existing.size() : 0;
+    progress.update( skip, total );
+
+    Schemas.Pending pending = new Schemas.Pending( plan.schemaUuid, existing, !extendsExisting );
+    SchemaVersion latest = null;
+    try (JsonReader reader = new JsonReader( GsonUtils.newReader( plan.file ) )) {
+      reader.beginArray();
+      for (int i = 0; i < skip; i++) {
+        reader.skipValue();
+      }
+
+      int done = skip;
+      int unwritten = 0;
+      while (reader.hasNext()) {
+        latest = GsonUtils.gson.fromJson( reader, SchemaVersion.class );
+        pending.add( latest );
+        done++;
+        unwritten++;
+
+        if (extendsExisting && (unwritten == BATCH_SIZE || !reader.hasNext())) {
+          SqliteDao.transaction( pending::write );
+          unwritten = 0;
+        }
+        progress.update( done, total );
+      }
+    }
+
+    if (!extendsExisting) {
+      SqliteDao.transaction( pending::write );
+    }
+    Schemas.ensureSessionDirectory( plan.schemaUuid );
+    imports.recordSince( start );
+
+    if (latest == null) {
+      // Nothing was new. Behaviors without a uuid in the file were given one when they were first saved.
+      plan.latest.behaviors = KeyBehaviors.getLatest( plan.schemaUuid );
+      return plan.latest;
+    }
+    // Behaviors without a uuid in the file were given one when they were diffed
+    return latest;
+  }
+
+  /**
+   * Reads every schema file in 'sources' in parallel, without touching the database. A source can be a schema file, a
+   * directory of them, or a zip of them.
+   *
+   * @throws IllegalArgumentException
+   *           if any file isn't a valid version-set, or if two files hold the same schema
+   * @throws IOException
+   *           if any file can't be read
+   */
+  public static Bulk readAll( List< File > sources ) throws Exception
+  {
+    List< ZipFile > zips = Lists.newArrayList();
+    try {
+      Map< String, Opener > files = Maps.newLinkedHashMap();
+      for (File source : sources) {
+        if (source.isDirectory()) {
+          File[] inDir = source.listFiles( ( d, name ) -> name.endsWith( EXTENSION ) );
+          if (inDir == null) {
+            throw new IOException( "Couldn't list " + source.getPath() );
+          }
+          for (File f : inDir) {
+            files.put( f.getPath(), ( ) -> GsonUtils.newReader( f ) );
+          }
+        } else if (source.getName().endsWith( ZIP_EXTENSION )) {
+          ZipFile zip = new ZipFile( source );
+          zips.add( zip );
+          for (ZipEntry entry : Collections.list( zip.entries() )) {
+            if (!entry.isDirectory() && entry.getName().endsWith( EXTENSION )) {
+              files.put( source.getPath() + "!" + entry.getName(),
+                         ( ) -> new InputStreamReader( zip.getInputStream( entry ), StandardCharsets.UTF_8 ) );
+            }
+          }
+        } else {
+          files.put( source.getPath(), ( ) -> GsonUtils.newReader( source ) );
+        }
+      }
+
+      List< CompletableFuture< List< SchemaVersion > > > parsing = Lists.newArrayList();
+      files.forEach( ( name, opener ) -> parsing.add( CompletableFuture.supplyAsync( ( ) -> {
+        try {
+          return read( name, opener );
+        } catch (IOException e) {
+          throw new UncheckedIOException( e );
+        }
+      } ) ) );
+
+      List< List< SchemaVersion > > versionsets = Lists.newArrayList();
+      Set< String > schemaUuids = Sets.newHashSet();
+      for (CompletableFuture< List< SchemaVersion > > f : parsing) {
+        List< SchemaVersion > versionset = join( f );
+        if (versionset.isEmpty()) {
+          continue;
+        }
+        String schemaUuid = versionset.get( 0 ).uuid;
+        if (!schemaUuids.add( schemaUuid )) {
+          throw new IllegalArgumentException( "Schema " + schemaUuid + " is in more than one file" );
+        }
+        versionsets.add( versionset );
+      }
+      return new Bulk( versionsets );
+    } finally {
+      for (ZipFile zip : zips) {
+        zip.close();
+      }
+    }
+  }
+
+  /**
+   * Saves everything in 'bulk' in a single transaction, so either every schema is imported or none are. As with
+   * {@link #importFile(Plan, Progress)}, versions the database already has are skipped. The versions are checked and
+   * their behaviors diffed before the transaction starts, so the database is only locked while the rows are inserted.
+   *
+   * @return the latest version of each schema, as saved
+   * @throws Exception
+   */
+  public static List< SchemaVersion > importAll( Bulk bulk, Progress progress ) throws Exception
+  {
+    long start = System.nanoTime();
+
+    // Each version is counted twice: once when it's checked, and again when it's written
+    int total = bulk.versions() * 2;
+    AtomicInteger done = new AtomicInteger( 0 );
+    progress.update( 0, total );
+
+    List< Schemas.Pending > pending = Lists.newArrayList();
+    Set< String > unchanged = Sets.newHashSet();
+    for (List< SchemaVersion > versionset : bulk.versionsets) {
+      String schemaUuid = versionset.get( 0 ).uuid;
+      List< String > versionUuids = Lists.transform( versionset, sv -> sv.versionUuid );
+      List< String > existing = Schemas.versionUuids( schemaUuid );
+
+      boolean extendsExisting = extendsExisting( versionUuids, existing );
+      if (extendsExisting && existing.size() == versionset.size()) {
+        unchanged.add( schemaUuid );
+      }
+      Schemas.Pending p = new Schemas.Pending( schemaUuid, existing, !extendsExisting );
+      for (SchemaVersion sv : versionset.subList( extendsExisting ? existing.size() : 0, versionset.size() )) {
+        p.add( sv );
+      }
+      pending.add( p );
+      progress.update( done.addAndGet( versionset.size() ), total );
+    }
+
+    SqliteDao.transaction( ( ) -> {
+      for (int i = 0; i < pending.size(); i++) {
+        pending.get( i ).write();
+        Schemas.ensureSessionDirectory( pending.get( i ).schemaUuid );
+        progress.update( done.addAndGet( bulk.versionsets.get( i ).size() ), total );
+      }
+    } );
+
+    List< SchemaVersion > result = Lists.newArrayList();
+    for (List< SchemaVersion > versionset : bulk.versionsets) {
+      SchemaVersion latest = versionset.get( versionset.size() - 1 );
+      if (unchanged.contains( latest.uuid )) {
+        // Nothing was written. Behaviors without a uuid in the file were given one when they were first saved.
+        latest.behaviors = KeyBehaviors.getLatest( latest.uuid );
+      }
+      // Otherwise, behaviors without a uuid in the file were given one when they were diffed
+      result.add( latest );
+    }
+
+    bulkImports.recordSince( start );
+    return result;
+  }
+
+  /**
+   * Writes every version of the schema to 'out', replacing it only once the whole file has been written
+   *
+   * @return the number of versions written
+   * @throws Exception
+   */
+  public static int export( String schemaUuid, File out, Progress progress ) throws Exception
+  {
+    long start = System.nanoTime();
+    int total = Schemas.countVersions( schemaUuid );
+    AtomicInteger done = new AtomicInteger( 0 );
+    progress.update( 0, total );
+
+    File tmp = new File( out.getPath() + ".tmp" );
+    try (JsonWriter writer = new JsonWriter( Files.newBufferedWriter( tmp.toPath(), StandardCharsets.UTF_8 ) )) {
+      writer.beginArray();
+      Schemas.forEachVersion( schemaUuid, sv -> {
+        GsonUtils.gson.toJson( sv, SchemaVersion.class, writer );
+        progress.update( done.incrementAndGet(), total );
+      } );
+      writer.endArray();
+    } catch (Exception e) {
+      tmp.delete();
+      throw e;
+    }
+    Files.move( tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+    exports.recordSince( start );
+    return done.get();
+  }
+
+  /**
+   * Saved versions never change, so a version-set that starts with everything the database has for the schema only
+   * needs the rest written
+   */
+  private static boolean extendsExisting( List< String > versionUuids, List< String > existing )
+  {
+    return existing.size() <= versionUuids.size() && existing.equals( versionUuids.subList( 0, existing.size() ) );
+  }
+
+  /**
+   * Checks a version read from a schema file the way {@link Schemas#save(SchemaVersion)} would when saving the
+   * version-set in order, so nothing is written from a file that can't be saved completely
+   */
+  private static void validate( SchemaVersion sv, String schemaUuid, int expected )
+  {
+    if (sv.uuid == null || !sv.uuid.equals( schemaUuid )) {
+      String msg = String.format( "Received Schema version where UUID=%s, but first version had UUID=%s",
+                                  sv.uuid,
+                                  schemaUuid );
+      throw new IllegalArgumentException( msg );
+    }
+    UUID.fromString( sv.uuid );
+    UUID.fromString( sv.versionUuid );
+
+    if (sv.versionNumber == null || sv.versionNumber != expected) {
+      String msg = String.format( "Schema %s has versionNumber=%s where %d was expected",
+                                  schemaUuid,
+                                  sv.versionNumber,
+                                  expected );
+      throw new IllegalArgumentException( msg );
+    }
+
+    if (sv.behaviors == null) {
+      String msg = String.format( "Schema %s version %d has no behaviors", schemaUuid, expected );
+      throw new IllegalArgumentException( msg );
+    }
+
+    // A behavior without a uuid is given one when it's saved
+    Set< String > behaviorUuids = Sets.newHashSet();
+    Set< MappableChar > keys = Sets.newHashSet();
+    for (KeyBehaviorMapping kbm : sv.behaviors) {
+      if (kbm.key == null) {
+        String msg = String.format( "Schema %s version %d has a behavior without a key", schemaUuid, expected );
+        throw new IllegalArgumentException( msg );
+      }
+      if (kbm.uuid != null) {
+        UUID.fromString( kbm.uuid );
+        if (!behaviorUuids.add( kbm.uuid )) {
+          String msg = String.format( "Schema %s version %d has behavior %s more than once",
+                                      schemaUuid,
+                                      expected,
+                                      kbm.uuid );
+          throw new IllegalArgumentException( msg );
+        }
+      }
+      if (!kbm.archived && !keys.add( kbm.key )) {
+        String msg = String.format( "Schema %s version %d has more than one behavior on key '%s'",
+                                    schemaUuid,
+                                    expected,
+                                    kbm.key.c );
+        throw new IllegalArgumentException( msg );
+      }
+    }
+  }
+
+  /**
+   * Reads and validates a whole version-set. Errors name the file they came from.
+   */
+  private static List< SchemaVersion > read( String name, Opener opener ) throws IOException
+  {
+    List< SchemaVersion > versions = Lists.newArrayList();
+    try (JsonReader reader = new JsonReader( opener.open() )) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        SchemaVersion sv = GsonUtils.gson.fromJson( reader, SchemaVersion.class );
+        validate( sv, versions.isEmpty() ? sv.uuid : versions.get( 0 ).uuid, versions.size() + 1 );
+        versions.add( sv );
+      }
+      reader.endArray();
+    } catch (IOException e) {
+      throw new IOException( name + ": " + e.getMessage(), e );
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException( name + ": " + e.getMessage(), e );
+    }
+    return versions;
+  }
+
+  private static < T > T join( CompletableFuture< T > future ) throws Exception
+  {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * Imports or exports schemas without starting the UI:
+   *
+   * <pre>
+   * export &lt;directory&gt; [schema-uuid...]   writes &lt;schema-uuid&gt;.schema for each schema, or for all of them
+   * import &lt;file, directory or zip&gt;...      imports every .schema file given, in a single transaction
+   * </pre>
+   */
+  public static void main( String[] args ) throws Exception
+  {
+    if (args.length < 2 || !(args[0].equals( "export" ) || args[0].equals( "import" ))) {
+      System.err.println( "Usage: SchemaTransfer export <directory> [schema-uuid...]" );
+      System.err.println( "       SchemaTransfer import <file, directory or zip>..." );
+      System.exit( 2 );
+    }
+
+    InitSQLiteTables.init();
+
+    int failures = 0;
+    if (args[0].equals( "export" )) {
+      File dir = new File( args[1] );
+      dir.mkdirs();
+      List< String > uuids = args.length > 2
+          ? Lists.newArrayList( args ).subList( 2, args.length )
+          : Schemas.allUuids();
+
+      for (String uuid : uuids) {
+        File out = new File( dir, uuid + EXTENSION );
+        try {
+          int n = export( uuid, out, printer( "Exporting " + out.getName() ) );
+          System.out.println( String.format( "Exported %d versions to %s", n, out.getPath() ) );
+        } catch (Exception e) {
+          failures++;
+          System.err.println( String.format( "Failed to export %s: %s", uuid, e ) );
+        }
+      }
+    } else {
+      List< File > sources = Lists.newArrayList();
+      for (int i = 1; i < args.length; i++) {
+        sources.add( new File( args[i] ) );
+      }
+
+      try {
+        Bulk bulk = readAll( sources );
+        importAll( bulk, printer( "Importing" ) );
+        System.out.println( String.format( "Imported %d schemas, %d versions", bulk.schemas(), bulk.versions() ) );
+      } catch (Exception e) {
+        failures++;
+        System.err.println( String.format( "Failed to import, nothing was saved: %s", e ) );
+      }
+    }
+
+    System.exit( failures == 0 ? 0 : 1 );
+  }
+
+  /**
+   * @return a {@link Progress} that prints each whole percent as it's reached
+   */
+  private static Progress printer( String label )
+  {
+    AtomicInteger shown = new AtomicInteger( -1 );
+    return ( done, total ) -> {
+      int percent = total == 0 ? 100 : done * 100 / total;
+      if (shown.getAndSet( percent ) != percent) {
+        System.out.print( String.format( "\r%s: %d%%", label, percent ) );
+        if (done == total) {
+          System.out.println();
+        }
+      }
+    };
+  }
+}
@@ -1,12 +1,14 @@
 package com.threebird.recorder.persistence;
 
 import java.io.File;
-import java.util.Collections;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.threebird.recorder.models.preferences.PreferencesManager;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
@@ -20,26 +22,132 @@ import com.threebird.recorder.utils.persistence.SqliteDao;
 public class Schemas
 {
   private static final String TBL_NAME = "schema_versions_v1_1";
+  private static final String INSERT =
+      "INSERT INTO " + TBL_NAME
+          + " (uuid, version_uuid, version_number, client, project, duration, pause_on_end, color_on_end, sound_on_end, archived) "
+          + " VALUES (?,?,?,?,?,?,?,?,?,?)";
 
   /**
-   * Saves the given schema in the 'schema_versions' table. Also adds all related behaviors to the key_behaviors table
+   * Receives a version-set one version at a time, see {@link Schemas#forEachVersion(String, VersionCallback)}
+   */
+  @FunctionalInterface
+  public interface VersionCallback
+  {
+    void accept( SchemaVersion version ) throws Exception;
+  }
+
+  /**
+   * New versions of one schema, checked and diffed before the transaction that writes them, so a big import only locks
+   * the database for the inserts. Versions are added in order, following on from the ones the database had when this
+   * was made. {@link #write()} can be called more than once, to save a long version-set a batch at a time.
+   */
+  static class Pending
+  {
+    final String schemaUuid;
+    private final List< String > saved;
+    private boolean replace;
+    private final KeyBehaviors.Pending behaviors;
+    private final List< String > versionUuids = Lists.newArrayList();
+    private final List< List< Object > > rows = Lists.newArrayList();
+
+    /**
+     * @param existing
+     *          the schema's version uuids, as the database has them now
+     * @param replace
+     *          if true, the versions added replace the existing ones, otherwise they follow them
+     * @throws Exception
+     */
+    Pending( String schemaUuid, List< String > existing, boolean replace ) throws Exception
+    {
+      this.schemaUuid = schemaUuid;
+      this.saved = Lists.newArrayList( existing );
+      this.replace = replace;
+      List< KeyBehaviorMapping > latest =
+          replace || existing.isEmpty() ? Lists.newArrayList() : KeyBehaviors.getLatest( schemaUuid );
+      this.behaviors = new KeyBehaviors.Pending( schemaUuid, latest );
+    }
+
+    void add( SchemaVersion schema )
+    {
+      // Validate UUIDs
+      UUID.fromString( schema.uuid );
+      UUID.fromString( schema.versionUuid );
+      if (!schema.uuid.equals( schemaUuid )) {
+        String msg = String.format( "Received Schema version where UUID=%s, but expected UUID=%s",
+                                    schema.uuid,
+                                    schemaUuid );
+        throw new IllegalArgumentException( msg );
+      }
+
+      // Validate version number
+      int expected = (replace ? 0 : saved.size()) + versionUuids.size() + 1;
+      if (schema.versionNumber == null || schema.versionNumber != expected) {
+        String msg = String.format( "Failed to save schema %s: versionNumber=%s but expected %d",
+                                    schema.uuid,
+                                    schema.versionNumber,
+                                    expected );
+        throw new IllegalArgumentException( msg );
+      }
+
+      rows.add( row( schema ) );
+      versionUuids.add( schema.versionUuid );
+      behaviors.add( schema );
+    }
+
+    /**
+     * Writes the versions added since the last write. Call within a transaction.
+     *
+     * @throws IllegalStateException
+     *           if the schema was saved by something else in the meantime
+     * @throws Exception
+     */
+    void write() throws Exception
+    {
+      if (!versionUuids( schemaUuid ).equals( saved )) {
+        throw new IllegalStateException( "Schema " + schemaUuid + " was changed while it was being imported" );
+      }
+      if (replace) {
+        delete( schemaUuid );
+        saved.clear();
+        replace = false;
+      }
+
+      SqliteDao.batch( INSERT, rows );
+      behaviors.write();
+      saved.addAll( versionUuids );
+      versionUuids.clear();
+      rows.clear();
+    }
+  }
+
+  /**
+   * Saves the given schema in the 'schema_versions' table. Also records its behaviors, see {@link KeyBehaviors#save}
    * 
    * @throws Exception
    */
   public static void save( SchemaVersion schema ) throws Exception
+  {
+    SqliteDao.transaction( ( ) -> insert( schema ) );
+  }
+
+  /**
+   * Same as {@link #save(SchemaVersion)}, for callers that manage their own transaction
+   */
+  static void insert( SchemaVersion schema ) throws Exception
   {
     // Validate UUIDs
     UUID.fromString( schema.uuid );
     UUID.fromString( schema.versionUuid );
 
     // Validate version number
-    List< SchemaVersion > versionset = getVersionSet( schema.uuid );
-    int expected;
-    if (versionset.isEmpty()) {
-      expected = 1;
-    } else {
-      expected = versionset.get( versionset.size() - 1 ).versionNumber + 1;
-    }
+    AtomicInteger latest = new AtomicInteger( 0 );
+    String maxSql = "SELECT MAX(version_number) FROM " + TBL_NAME + " WHERE uuid = ?";
+    SqliteDao.query( maxSql, Lists.newArrayList( schema.uuid ), rs -> {
+      if (rs.next()) {
+        latest.set( rs.getInt( 1 ) );
+      }
+    } );
+    int expected = latest.get() + 1;
     if (schema.versionNumber != expected) {
       String msg = String.format( "Failed to save schema %s: versionNumber=%d but expected %d",
                                   schema.uuid,
@@ -48,25 +156,8 @@ public class Schemas
       throw new IllegalArgumentException( msg );
     }
 
-    String sql =
-        "INSERT INTO " + TBL_NAME
-            + " (uuid, version_uuid, version_number, client, project, duration, pause_on_end, color_on_end, sound_on_end, archived) "
-            + " VALUES (?,?,?,?,?,?,?,?,?,?)";
-    List< Object > params = Lists.newArrayList( schema.uuid,
-                                                schema.versionUuid,
-                                                schema.versionNumber,
-                                                schema.client,
-                                                schema.project,
-                                                schema.duration,
-                                                schema.pause,
-                                                schema.color,
-                                                schema.sound,
-                                                schema.archived );
-
-    SqliteDao.update( sql, params, SqlCallback.NOOP );
-    for (KeyBehaviorMapping mapping : schema.behaviors) {
-      KeyBehaviors.save( schema, mapping );
-    }
+    SqliteDao.update( INSERT, row( schema ), SqlCallback.NOOP );
+    KeyBehaviors.save( schema );
   }
 
   /**
@@ -81,24 +172,12 @@ public class Schemas
         + "WHERE"
         + "  version_number = (SELECT MAX(version_number) FROM " + TBL_NAME + " WHERE uuid = outer.uuid)";
     List< SchemaVersion > result = Lists.newArrayList();
+    ListMultimap< String, KeyBehaviorMapping > behaviors = KeyBehaviors.allLatest();
 
     SqlCallback callback = rs -> {
       while (rs.next()) {
-        SchemaVersion s = new SchemaVersion();
-        s.uuid = rs.getString( "uuid" );
-        s.versionUuid = rs.getString( "version_uuid" );
-        s.versionNumber = rs.getInt( "version_number" );
-        s.client = rs.getString( "client" );
-        s.project = rs.getString( "project" );
-        s.duration = rs.getInt( "duration" );
-        s.color = rs.getBoolean( "color_on_end" );
-        s.pause = rs.getBoolean( "pause_on_end" );
-        s.sound = rs.getBoolean( "sound_on_end" );
-        s.archived = rs.getBoolean( "archived" );
-
-        Iterable< KeyBehaviorMapping > mappings = KeyBehaviors.getAllForSchema( s.versionUuid );
-        s.behaviors = Lists.newArrayList( mappings );
-
+        SchemaVersion s = fromRow( rs );
+        s.behaviors = Lists.newArrayList( behaviors.get( s.uuid ) );
         result.add( s );
       }
     };
@@ -108,86 +187,120 @@ public class Schemas
     return result;
   }
 
-  public static List< SchemaVersion > getVersionSet( String schemaId ) throws Exception
+  /**
+   * Hands each version of the schema to 'callback' in order, with its behaviors rebuilt as it goes, so the whole
+   * version-set never has to be in memory at once
+   * 
+   * @throws Exception
+   */
+  public static void forEachVersion( String schemaId, VersionCallback callback ) throws Exception
   {
-    String sql = "SELECT * FROM schema_versions_v1_1 WHERE uuid = ? ORDER BY version_number ASC";
-    List< SchemaVersion > result = Lists.newArrayList();
+    KeyBehaviors.Replay replay = KeyBehaviors.replay( schemaId );
+    String sql = "SELECT * FROM " + TBL_NAME + " WHERE uuid = ? ORDER BY version_number ASC";
 
-    SqlCallback callback = rs -> {
+    SqliteDao.query( sql, Lists.newArrayList( schemaId ), rs -> {
       while (rs.next()) {
-        SchemaVersion s = new SchemaVersion();
-        s.uuid = rs.getString( "uuid" );
-        s.versionUuid = rs.getString( "version_uuid" );
-        s.versionNumber = rs.getInt( "version_number" );
-        s.client = rs.getString( "client" );
-        s.project = rs.getString( "project" );
-        s.duration = rs.getInt( "duration" );
-        s.color = rs.getBoolean( "color_on_end" );
-        s.pause = rs.getBoolean( "pause_on_end" );
-        s.sound = rs.getBoolean( "sound_on_end" );
-        s.archived = rs.getBoolean( "archived" );
-
-        Iterable< KeyBehaviorMapping > mappings = KeyBehaviors.getAllForSchema( s.versionUuid );
-        s.behaviors = Lists.newArrayList( mappings );
-
-        result.add( s );
+        SchemaVersion s = fromRow( rs );
+        s.behaviors = replay.upTo( s.versionNumber );
+        callback.accept( s );
       }
-    };
+    } );
+  }
 
-    SqliteDao.query( sql, Lists.newArrayList( schemaId ), callback );
+  /**
+   * @return the number of versions the schema has
+   * @throws Exception
+   */
+  public static int countVersions( String schemaId ) throws Exception
+  {
+    AtomicInteger count = new AtomicInteger( 0 );
+    SqliteDao.query( "SELECT COUNT(*) FROM " + TBL_NAME + " WHERE uuid = ?", Lists.newArrayList( schemaId ), rs -> {
+      if (rs.next()) {
+        count.set( rs.getInt( 1 ) );
+      }
+    } );
+    return count.get();
+  }
 
+  /**
+   * @return the version uuids of the schema, ordered by version number
+   * @throws Exception
+   */
+  public static List< String > versionUuids( String schemaId ) throws Exception
+  {
+    String sql = "SELECT version_uuid FROM " + TBL_NAME + " WHERE uuid = ? ORDER BY version_number ASC";
+    List< String > result = Lists.newArrayList();
+    SqliteDao.query( sql, Lists.newArrayList( schemaId ), rs -> {
+      while (rs.next()) {
+        result.add( rs.getString( 1 ) );
+      }
+    } );
     return result;
   }
 
-  public static void saveVersionset( List< SchemaVersion > versionset ) throws Exception
+  /**
+   * @return the uuid of every schema
+   * @throws Exception
+   */
+  public static List< String > allUuids() throws Exception
   {
-    if (versionset.size() == 0) {
-      return;
-    }
-
-    String schemaId = versionset.get( 0 ).uuid;
-
-    // Validate that these are all the same schema
-    for (SchemaVersion sv : versionset) {
-      if (!sv.uuid.equals( schemaId )) {
-        String msg =
-            String.format( "Received Schema version where UUID=%s, but first version had UUID=%s", sv.uuid, schemaId );
-        throw new IllegalArgumentException( msg );
+    List< String > result = Lists.newArrayList();
+    SqliteDao.query( "SELECT DISTINCT uuid FROM " + TBL_NAME, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        result.add( rs.getString( 1 ) );
       }
-    }
-
-    // Validate schemaId (throws IllegalArgumentException if invalid)
-    UUID.fromString( schemaId );
-
-    // Get the current version-set IDs
-    List< SchemaVersion > currentVersionset = getVersionSet( schemaId );
-
-    List< Object > currentIds =
-        currentVersionset.stream().map( sv -> sv.versionUuid ).collect( Collectors.toList() );
-
-    // Delete old behavior_versions
-    String placeholders = currentIds.stream().map( s -> "?" ).collect( Collectors.joining( "," ) );
-    String deleteSql = "DELETE FROM behavior_versions_v1_1 WHERE schema_version_uuid IN (" + placeholders + ")";
-    SqliteDao.update( deleteSql, currentIds, SqlCallback.NOOP );
-
-    // Delete old behaviors
-    deleteSql = "DELETE FROM behaviors_v1_1 WHERE schema_uuid=?";
-    SqliteDao.update( deleteSql, Lists.newArrayList( schemaId ), SqlCallback.NOOP );
+    } );
+    return result;
+  }
 
-    // Delete old SchemaVersions
-    deleteSql = "DELETE FROM schema_versions_v1_1 WHERE uuid=?";
+  /**
+   * Deletes every version of the schema. Call within a transaction.
+   */
+  static void delete( String schemaId ) throws Exception
+  {
+    KeyBehaviors.deleteForSchema( schemaId );
+    String deleteSql = "DELETE FROM " + TBL_NAME + " WHERE uuid=?";
     SqliteDao.update( deleteSql, Lists.newArrayList( schemaId ), SqlCallback.NOOP );
+  }
 
-    // Incrementally add new version-sets
-    Collections.sort( versionset, ( sv1, sv2 ) -> sv1.versionNumber - sv2.versionNumber );
-    for (SchemaVersion sv : versionset) {
-      save( sv );
-    }
-
-    // Check if there's a session-directory set for this schema
+  /**
+   * Gives an imported schema the default session-directory, if it doesn't have one yet
+   */
+  static void ensureSessionDirectory( String schemaId ) throws Exception
+  {
     Optional< File > forSchemaId = SessionDirectories.getForSchemaId( schemaId );
     if (!forSchemaId.isPresent()) {
       SessionDirectories.create( schemaId, new File( PreferencesManager.getSessionDirectory() ) );
     }
   }
+
+  private static List< Object > row( SchemaVersion schema )
+  {
+    return Lists.newArrayList( schema.uuid,
+                               schema.versionUuid,
+                               schema.versionNumber,
+                               schema.client,
+                               schema.project,
+                               schema.duration,
+                               schema.pause,
+                               schema.color,
+                               schema.sound,
+                               schema.archived );
+  }
+
+  private static SchemaVersion fromRow( ResultSet rs ) throws SQLException
+  {
+    SchemaVersion s = new SchemaVersion();
+    s.uuid = rs.getString( "uuid" );
+    s.versionUuid = rs.getString( "version_uuid" );
+    s.versionNumber = rs.getInt( "version_number" );
+    s.client = rs.getString( "client" );
+    s.project = rs.getString( "project" );
+    s.duration = rs.getInt( "duration" );
+    s.color = rs.getBoolean( "color_on_end" );
+    s.pause = rs.getBoolean( "pause_on_end" );
+    s.sound = rs.getBoolean( "sound_on_end" );
+    s.archived = rs.getBoolean( "archived" );
+    return s;
+  }
 }
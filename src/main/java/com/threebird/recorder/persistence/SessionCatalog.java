@@ -0,0 +1,348 @@
+package com.threebird.recorder.persistence;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.threebird.recorder.models.preferences.PreferencesManager;
+import com.threebird.recorder.utils.metrics.Counter;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+import com.threebird.recorder.utils.persistence.SqlCallback;
+import com.threebird.recorder.utils.persistence.SqliteDao;
+
+/**
+ * An index of every .raw (or .raw.gz) file in the session directories, kept in the session_catalog_v1_1 table so past
+ * sessions can be found without opening any files. {@link SessionCatalog#scan()} brings it up to date: only files
+ * whose size or modification time changed since the last scan are read, and those are read in parallel. While the app
+ * is running, {@link DirectoryMonitor} events keep it current file by file.
+ */
+public class SessionCatalog
+{
+  private static final String TBL_NAME = "session_catalog_v1_1";
+
+  private static final String COLUMNS =
+      "path, session_uuid, schema_uuid, schema_version_uuid, schema_version_number, client, project, observer, "
+          + "therapist, condition, location, session_number, start_time, duration, file_size, file_mtime";
+
+  private static final String UPSERT =
+      "INSERT OR REPLACE INTO " + TBL_NAME + " (" + COLUMNS + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+  private static final Histogram scans = Metrics.histogram( "catalog.scan" );
+  private static final Counter filesRead = Metrics.counter( "catalog.files_read" );
+  private static final Counter filesDropped = Metrics.counter( "catalog.files_dropped" );
+  private static final Counter unreadable = Metrics.counter( "catalog.unreadable" );
+
+  /**
+   * One cataloged session. Any of the fields read from the file may be null if the file couldn't be parsed.
+   */
+  public static class Entry
+  {
+    public File file;
+    public String sessionUuid;
+    public String schemaUuid;
+    public String schemaVersionUuid;
+    public Integer schemaVersionNumber;
+    public String client;
+    public String project;
+    public String observer;
+    public String therapist;
+    public String condition;
+    public String location;
+    public Integer sessionNumber;
+    public Long startTime; // in millis since epoch
+    public Long duration; // in millis
+    public long size;
+    public long mtime;
+
+    List< Object > toRow()
+    {
+      return Lists.newArrayList( file.getPath(),
+                                 sessionUuid,
+                                 schemaUuid,
+                                 schemaVersionUuid,
+                                 schemaVersionNumber,
+                                 client,
+                                 project,
+                                 observer,
+                                 therapist,
+                                 condition,
+                                 location,
+                                 sessionNumber,
+                                 startTime,
+                                 duration,
+                                 size,
+                                 mtime );
+    }
+  }
+
+  /**
+   * In the background, starts watching the session directories with {@link DirectoryMonitor#shared} so the catalog
+   * follows changes as they happen, then runs {@link SessionCatalog#scan()} to catch up on anything that changed while
+   * the app wasn't running
+   */
+  public static CompletableFuture< Integer > startAsync()
+  {
+    return CompletableFuture.supplyAsync( ( ) -> {
+      try {
+        DirectoryMonitor.shared.addListener( SessionCatalog::refresh );
+        for (File dir : directories()) {
+          DirectoryMonitor.shared.watch( dir );
+        }
+        return scan();
+      } catch (Exception e) {
+        throw new RuntimeException( e );
+      }
+    } );
+  }
+
+  /**
+   * Brings the catalog up to date with the session directories: new or changed .raw files are read and stored, and
+   * files that were deleted are dropped.
+   *
+   * @return the number of files that were read
+   * @throws Exception
+   */
+  public static int scan() throws Exception
+  {
+    long start = System.nanoTime();
+
+    Map< String, long[] > known = Maps.newHashMap();
+    SqliteDao.query( "SELECT path, file_size, file_mtime FROM " + TBL_NAME, Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        known.put( rs.getString( 1 ), new long[] { rs.getLong( 2 ), rs.getLong( 3 ) } );
+      }
+    } );
+
+    Set< String > seen = Sets.newHashSet();
+    List< File > changed = Lists.newArrayList();
+    for (File dir : directories()) {
+      File[] raws = dir.listFiles( ( d, name ) -> RawArchive.isRaw( name ) );
+      if (raws == null) {
+        continue;
+      }
+
+      for (File f : raws) {
+        seen.add( f.getPath() );
+        long[] sizeAndTime = known.get( f.getPath() );
+        if (sizeAndTime == null || sizeAndTime[0] != f.length() || sizeAndTime[1] != f.lastModified()) {
+          changed.add( f );
+        }
+      }
+    }
+
+    List< List< Object > > rows =
+        changed.parallelStream().map( SessionCatalog::read ).map( Entry::toRow ).collect( Collectors.toList() );
+
+    // Only forget a file if its directory is still there, so an unplugged drive doesn't empty the catalog
+    List< List< Object > > removed = Lists.newArrayList();
+    for (String path : known.keySet()) {
+      File f = new File( path );
+      if (!seen.contains( path ) && !f.exists() && f.getParentFile().exists()) {
+        removed.add( Lists.newArrayList( path ) );
+      }
+    }
+
+    SqliteDao.transaction( ( ) -> {
+      SqliteDao.batch( UPSERT, rows );
+      SqliteDao.batch( "DELETE FROM " + TBL_NAME + " WHERE path = ?", removed );
+    } );
+
+    scans.recordSince( start );
+    filesRead.add( changed.size() );
+    filesDropped.add( removed.size() );
+    return changed.size();
+  }
+
+  /**
+   * Adds, updates, or removes the entry for a single file. Given a directory, rescans everything instead.
+   */
+  public static void refresh( Path path )
+  {
+    File f = path.toFile();
+    try {
+      if (f.isDirectory()) {
+        scan();
+      } else if (RawArchive.isRaw( f.getName() )) {
+        if (f.exists()) {
+          SqliteDao.update( UPSERT, read( f ).toRow(), SqlCallback.NOOP );
+        } else {
+          SqliteDao.update( "DELETE FROM " + TBL_NAME + " WHERE path = ?",
+                            Lists.newArrayList( f.getPath() ),
+                            SqlCallback.NOOP );
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * @param client
+   *          - only return this client's sessions, or every client's if null
+   * @return every cataloged session that started in [fromMillis, toMillis), oldest first
+   * @throws Exception
+   */
+  public static List< Entry > find( String client, long fromMillis, long toMillis ) throws Exception
+  {
+    String sql = "SELECT " + COLUMNS + " FROM " + TBL_NAME + " WHERE start_time >= ? AND start_time < ?";
+    List< Object > params = Lists.newArrayList( fromMillis, toMillis );
+    if (client != null) {
+      sql += " AND client = ?";
+      params.add( client );
+    }
+    sql += " ORDER BY start_time";
+
+    return query( sql, params );
+  }
+
+  /**
+   * @return every cataloged session recorded with any version of the given schema, oldest first
+   * @throws Exception
+   */
+  public static List< Entry > forSchema( String schemaUuid ) throws Exception
+  {
+    String sql = "SELECT " + COLUMNS + " FROM " + TBL_NAME + " WHERE schema_uuid = ? ORDER BY start_time";
+    return query( sql, Lists.newArrayList( schemaUuid ) );
+  }
+
+  private static List< Entry > query( String sql, List< Object > params ) throws Exception
+  {
+    List< Entry > result = Lists.newArrayList();
+    SqliteDao.query( sql, params, rs -> {
+      while (rs.next()) {
+        Entry e = new Entry();
+        e.file = new File( rs.getString( "path" ) );
+        e.sessionUuid = rs.getString( "session_uuid" );
+        e.schemaUuid = rs.getString( "schema_uuid" );
+        e.schemaVersionUuid = rs.getString( "schema_version_uuid" );
+        e.schemaVersionNumber = toInteger( rs.getObject( "schema_version_number" ) );
+        e.client = rs.getString( "client" );
+        e.project = rs.getString( "project" );
+        e.observer = rs.getString( "observer" );
+        e.therapist = rs.getString( "therapist" );
+        e.condition = rs.getString( "condition" );
+        e.location = rs.getString( "location" );
+        e.sessionNumber = toInteger( rs.getObject( "session_number" ) );
+        e.startTime = toLong( rs.getObject( "start_time" ) );
+        e.duration = toLong( rs.getObject( "duration" ) );
+        e.size = rs.getLong( "file_size" );
+        e.mtime = rs.getLong( "file_mtime" );
+        result.add( e );
+      }
+    } );
+    return result;
+  }
+
+  /**
+   * @return every directory sessions may have been saved to, as absolute paths so they match what
+   *         {@link DirectoryMonitor} reports
+   */
+  static Set< File > directories() throws Exception
+  {
+    Set< File > dirs = Sets.newLinkedHashSet();
+    dirs.add( DirectoryMonitor.normalize( new File( PreferencesManager.getSessionDirectory() ) ).toFile() );
+    SqliteDao.query( "SELECT DISTINCT session_directory FROM session_dirs_v1_1", Lists.newArrayList(), rs -> {
+      while (rs.next()) {
+        dirs.add( DirectoryMonitor.normalize( new File( rs.getString( 1 ) ) ).toFile() );
+      }
+    } );
+    return dirs;
+  }
+
+  /**
+   * Reads the catalog fields out of a .raw file of either version. A file that can't be parsed still gets an entry,
+   * with only its path, size and mtime, so it isn't read again until it changes.
+   */
+  static Entry read( File f )
+  {
+    Entry e = new Entry();
+    e.file = f;
+    e.size = f.length();
+    e.mtime = f.lastModified();
+
+    try (Reader reader = GsonUtils.newReader( f )) {
+      JsonObject root = new JsonParser().parse( reader ).getAsJsonObject();
+      JsonObject schema = object( root, "schema" );
+
+      e.sessionUuid = string( root, "uuid" );
+      e.sessionNumber = integer( root, "sessionNumber" );
+      e.schemaUuid = string( schema, "uuid" );
+      e.client = string( schema, "client" );
+      e.project = string( schema, "project" );
+
+      if ("1.0".equals( string( root, "version" ) )) {
+        e.observer = string( root, "observer" );
+        e.therapist = string( root, "therapist" );
+        e.condition = string( root, "condition" );
+        e.location = string( root, "location" );
+        Integer millis = integer( root, "totalTimeMillis" );
+        e.duration = millis == null ? null : millis.longValue();
+        String startTime = string( root, "startTime" );
+        e.startTime = startTime == null ? null : new DateTime( startTime ).getMillis();
+      } else {
+        JsonObject attributes = object( root, "attributes" );
+        e.schemaVersionUuid = string( root, "versionUuid" );
+        e.schemaVersionNumber = integer( schema, "versionNumber" );
+        e.observer = string( attributes, "observer" );
+        e.therapist = string( attributes, "therapist" );
+        e.condition = string( attributes, "condition" );
+        e.location = string( attributes, "location" );
+        e.duration = toLong( number( root, "duration" ) );
+        e.startTime = toLong( number( root, "startTime" ) );
+      }
+    } catch (Exception ex) {
+      unreadable.increment();
+      ex.printStackTrace();
+    }
+
+    return e;
+  }
+
+  private static JsonObject object( JsonObject obj, String name )
+  {
+    JsonElement el = obj == null ? null : obj.get( name );
+    return el != null && el.isJsonObject() ? el.getAsJsonObject() : null;
+  }
+
+  private static String string( JsonObject obj, String name )
+  {
+    JsonElement el = obj == null ? null : obj.get( name );
+    return el != null && el.isJsonPrimitive() ? el.getAsString() : null;
+  }
+
+  private static Number number( JsonObject obj, String name )
+  {
+    JsonElement el = obj == null ? null : obj.get( name );
+    return el != null && el.isJsonPrimitive() && el.getAsJsonPrimitive().isNumber() ? el.getAsNumber() : null;
+  }
+
+  private static Integer integer( JsonObject obj, String name )
+  {
+    Number n = number( obj, name );
+    return n == null ? null : n.intValue();
+  }
+
+  private static Integer toInteger( Object o )
+  {
+    return o == null ? null : ((Number) o).intValue();
+  }
+
+  private static Long toLong( Object o )
+  {
+    return o == null ? null : ((Number) o).longValue();
+  }
+}
@@ -0,0 +1,86 @@
+package com.threebird.recorder.persistence;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces bursts of save requests so that at most one write happens per interval. Only the latest model handed to
+ * {@link ThrottledWriter#request(Object)} is ever written; anything older is dropped. Writes happen on a background
+ * thread, so it is safe to call request() from property listeners on the FX thread.
+ */
+public class ThrottledWriter< T >
+{
+  private final long intervalMillis;
+  private final Consumer< T > writer;
+  private final AtomicReference< T > latest = new AtomicReference< T >();
+  private final AtomicBoolean scheduled = new AtomicBoolean( false );
+  private final Object lock = new Object();
+  private final ScheduledExecutorService es = Executors.newSingleThreadScheduledExecutor( r -> {
+    Thread t = new Thread( r, "throttled-writer" );
+    t.setDaemon( true );
+    return t;
+  } );
+
+  private volatile long lastWrite = 0;
+
+  /**
+   * @param intervalMillis
+   *          - the minimum time between two writes
+   * @param writer
+   *          - performs the actual write. Always called with the most recently requested model
+   */
+  public ThrottledWriter( long intervalMillis, Consumer< T > writer )
+  {
+    this.intervalMillis = intervalMillis;
+    this.writer = writer;
+  }
+
+  /**
+   * Replaces the pending model with 'model' and schedules a write if one isn't already pending
+   */
+  public void request( T model )
+  {
+    latest.set( model );
+
+    if (scheduled.compareAndSet( false, true )) {
+      long sinceLast = System.currentTimeMillis() - lastWrite;
+      long delay = Math.max( 0, intervalMillis - sinceLast );
+      es.schedule( ( ) -> {
+        scheduled.set( false );
+        drain();
+      }, delay, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Synchronously writes the pending model, if there is one. Call this when the window closes so the final state isn't
+   * lost.
+   */
+  public void flush()
+  {
+    drain();
+  }
+
+  public void shutdown()
+  {
+    flush();
+    es.shutdown();
+  }
+
+  private void drain()
+  {
+    synchronized (lock) {
+      T model = latest.getAndSet( null );
+      if (model == null) {
+        return;
+      }
+
+      lastWrite = System.currentTimeMillis();
+      writer.accept( model );
+    }
+  }
+}
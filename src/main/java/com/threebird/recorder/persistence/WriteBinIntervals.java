@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.util.Map.Entry;
 
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -12,6 +13,7 @@ import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import com.google.common.collect.Multiset;
 import com.google.common.io.Files;
+import com.threebird.recorder.models.preferences.ExportFormat;
 import com.threebird.recorder.utils.ioa.KeyToInterval;
 
 public class WriteBinIntervals
@@ -21,6 +23,11 @@ public class WriteBinIntervals
                             File f )
       throws Exception
   {
+    if (ExportFormat.of( f ) == ExportFormat.CSV) {
+      writeCsv( keyToInterval, appendToFile, f );
+      return;
+    }
+
     if (!f.exists()) {
       f.createNewFile();
     }
@@ -76,4 +83,32 @@ public class WriteBinIntervals
     wb.close();
     out.close();
   }
+
+  /**
+   * Same table as the xls, printed a row at a time
+   */
+  private static void writeCsv( KeyToInterval keyToInterval,
+                                boolean appendToFile,
+                                File f )
+      throws Exception
+  {
+    try (CSVPrinter out = CsvOutput.open( f, appendToFile )) {
+      out.print( "Interval" );
+      out.print( "Time Range (s)" );
+      for (String key : keyToInterval.keyToIntervals.keySet()) {
+        out.print( key );
+      }
+      out.println();
+
+      for (int r = 0; r < keyToInterval.totalIntervals; r++) {
+        out.print( r );
+        out.print( (r * keyToInterval.blockSizeSeconds) + " - "
+            + (((r + 1) * keyToInterval.blockSizeSeconds) - 1) );
+        for (Multiset< Integer > intervals : keyToInterval.keyToIntervals.values()) {
+          out.print( intervals.count( r ) );
+        }
+        out.println();
+      }
+    }
+  }
 }
@@ -6,6 +6,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -13,6 +14,7 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import com.google.common.io.Files;
+import com.threebird.recorder.models.preferences.ExportFormat;
 import com.threebird.recorder.utils.ioa.IntervalCalculations;
 
 public class WriteIoaIntervals
@@ -21,6 +23,11 @@ public class WriteIoaIntervals
                             boolean appendToFile,
                             File f ) throws Exception
   {
+    if (ExportFormat.of( f ) == ExportFormat.CSV) {
+      writeCsv( intervals, appendToFile, f );
+      return;
+    }
+
     if (!f.exists()) {
       f.createNewFile();
     }
@@ -90,4 +97,46 @@ public class WriteIoaIntervals
     wb.close();
     out.close();
   }
+
+  /**
+   * Same layout as the xls, printed a row at a time
+   */
+  private static void writeCsv( Map< String, IntervalCalculations > intervals,
+                                boolean appendToFile,
+                                File f ) throws Exception
+  {
+    try (CSVPrinter out = CsvOutput.open( f, appendToFile )) {
+      // __Summary__
+      for (Entry< String, IntervalCalculations > entry : intervals.entrySet()) {
+        out.printRecord( entry.getKey(), entry.getValue().avg );
+      }
+
+      // __Interval Breakdown__
+      out.println(); // Skip a row
+
+      out.print( "" );
+      for (String ch : intervals.keySet()) {
+        out.print( ch );
+      }
+      out.println();
+
+      int max =
+          intervals.values().stream()
+                   .mapToInt( calc -> calc.result.length )
+                   .max()
+                   .orElse( 0 );
+
+      for (int i = 0; i < max; i++) {
+        out.print( i );
+        for (IntervalCalculations calcs : intervals.values()) {
+          if (i < calcs.result.length) {
+            out.print( calcs.result[i] );
+          } else {
+            out.print( "" );
+          }
+        }
+        out.println();
+      }
+    }
+  }
 }
@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -12,6 +13,7 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import com.google.common.io.Files;
+import com.threebird.recorder.models.preferences.ExportFormat;
 import com.threebird.recorder.utils.ioa.TimeWindowCalculations;
 
 public class WriteIoaTimeWindows
@@ -24,6 +26,11 @@ public class WriteIoaTimeWindows
                             File f )
       throws Exception
   {
+    if (ExportFormat.of( f ) == ExportFormat.CSV) {
+      writeCsv( ioaDiscrete, ioaContinuous, file1, file2, appendToFile, f );
+      return;
+    }
+
     if (!f.exists()) {
       f.createNewFile();
     }
@@ -85,4 +92,33 @@ public class WriteIoaTimeWindows
     wb.close();
     out.close();
   }
+
+  /**
+   * Same layout as the xls, printed a row at a time
+   */
+  private static void writeCsv( Map< String, TimeWindowCalculations > ioaDiscrete,
+                                Map< String, Double > ioaContinuous,
+                                String file1,
+                                String file2,
+                                boolean appendToFile,
+                                File f )
+      throws Exception
+  {
+    try (CSVPrinter out = CsvOutput.open( f, appendToFile )) {
+      // __Discrete Key Summary__
+      out.printRecord( "Discrete IOA Calculations" );
+      out.printRecord( "Key", file1, file2 );
+      for (Entry< String, TimeWindowCalculations > e : ioaDiscrete.entrySet()) {
+        out.printRecord( e.getKey(), e.getValue().result1, e.getValue().result2 );
+      }
+
+      // __Continuous Key Summary__
+      out.println(); // Skip a row
+      out.printRecord( "Continuous IOA Calculations" );
+      out.printRecord( "Key", "IOA Coefficient" );
+      for (Entry< String, Double > e : ioaContinuous.entrySet()) {
+        out.printRecord( e.getKey(), e.getValue() );
+      }
+    }
+  }
 }
@@ -116,7 +116,7 @@ public class RecordingRawJson1_0
       }
     }
 
-    GsonUtils.save( details.f, bean );
+    GsonUtils.write( details.f, bean );
   }
 
   private static void copySchema( SchemaVersion from, SchemaBean1_0 to )
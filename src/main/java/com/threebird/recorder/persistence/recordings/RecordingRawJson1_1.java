@@ -5,14 +5,12 @@ import java.util.Map;
 import java.util.UUID;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.threebird.recorder.BehaviorLoggerApp;
-import com.threebird.recorder.models.MappableChar;
 import com.threebird.recorder.models.behaviors.BehaviorEvent;
 import com.threebird.recorder.models.behaviors.ContinuousBehavior;
-import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.persistence.GsonUtils;
 import com.threebird.recorder.persistence.recordings.Recordings.SaveDetails;
@@ -168,12 +166,12 @@ public class RecordingRawJson1_1
     bean.attributes.put( "condition", Strings.emptyToNull( details.condition ) );
     bean.attributes.put( "location", Strings.emptyToNull( details.location ) );
 
-    ImmutableMap< MappableChar, KeyBehaviorMapping > behaviorsMap = bean.schema.behaviorsMap();
+    CompiledSchema schema = details.compiledSchema;
     for (BehaviorEvent b : details.behaviors) {
-      if (!behaviorsMap.containsKey( b.key )) {
+      if (!schema.isMapped( b.key )) {
         continue;
       }
-      String behaviorUuid = behaviorsMap.get( b.key ).uuid;
+      String behaviorUuid = schema.behaviorUuid( b.key );
       if (b.isContinuous()) {
         ContinuousEvent ce =
             new ContinuousEvent( behaviorUuid, b.startTime, b.startTime + (((ContinuousBehavior) b).getDuration()) );
@@ -184,6 +182,6 @@ public class RecordingRawJson1_1
       }
     }
 
-    GsonUtils.save( details.f, bean );
+    GsonUtils.write( details.f, bean );
   }
 }
@@ -1,29 +1,32 @@
 package com.threebird.recorder.persistence.recordings;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.Consumer;
 
 import com.google.common.base.Preconditions;
 import com.threebird.recorder.models.behaviors.BehaviorEvent;
+import com.threebird.recorder.models.preferences.ExportFormat;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.models.schemas.SchemaVersion;
-import com.threebird.recorder.models.schemas.SchemasManager;
 import com.threebird.recorder.models.sessions.SessionManager;
+import com.threebird.recorder.persistence.SaveScheduler;
+import com.threebird.recorder.persistence.SaveScheduler.Priority;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 
 public class Recordings
 {
+  private static final Histogram jsonWrites = Metrics.histogram( "recordings.write_json" );
+  private static final Histogram xlsWrites = Metrics.histogram( "recordings.write_xls" );
+  private static final Histogram csvWrites = Metrics.histogram( "recordings.write_csv" );
+
   static class SaveDetails
   {
     public File f;
-    public CompletableFuture< Long > fResult;
     public List< BehaviorEvent > behaviors;
     public SchemaVersion schema;
+    public CompiledSchema compiledSchema;
     public String observer;
     public String therapist;
     public String condition;
@@ -36,56 +39,8 @@ public class Recordings
     public long stopTime;
   }
 
-  public static enum Writer
-  {
-    JSON(Recordings::writeJson),
-    XLS(Recordings::writeXls);
-
-    private final BlockingQueue< SaveDetails > q = new ArrayBlockingQueue< SaveDetails >( 1 );
-    private final ExecutorService es = Executors.newSingleThreadExecutor();
-    private final Thread taskManager;
-
-    private Writer( Consumer< SaveDetails > c )
-    {
-      this.taskManager = new Thread( ( ) -> {
-        while (true) {
-          try {
-            SaveDetails sd = q.take();
-            es.submit( ( ) -> c.accept( sd ) ).get();
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
-        }
-      } );
-
-      this.taskManager.setDaemon( true );
-    }
-
-    public void schedule( SaveDetails details )
-    {
-      Preconditions.checkState( !es.isShutdown() );
-
-      if (!this.taskManager.isAlive()) {
-        this.taskManager.start();
-      }
-
-      q.clear();
-
-      try {
-        q.put( details );
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-        details.fResult.completeExceptionally( e );
-      }
-    }
-
-    public void shutdown()
-    {
-      es.shutdown();
-    }
-  }
-
   private static SaveDetails createSaveDetails( File f,
+                                                CompiledSchema schema,
                                                 String uuid,
                                                 List< BehaviorEvent > behaviors,
                                                 int totalTime,
@@ -99,10 +54,10 @@ public class Recordings
     SaveDetails sd = new SaveDetails();
 
     sd.f = f;
-    sd.fResult = new CompletableFuture< Long >();
     sd.sessionUuid = uuid;
     sd.behaviors = behaviors;
-    sd.schema = SchemasManager.getSelected();
+    sd.schema = schema.source;
+    sd.compiledSchema = schema;
     sd.observer = SessionManager.getObserver();
     sd.therapist = SessionManager.getTherapist();
     sd.condition = SessionManager.getCondition();
@@ -116,7 +71,12 @@ public class Recordings
     return sd;
   }
 
+  /**
+   * Schedules a write of the raw JSON file. If an earlier write to 'f' hasn't started yet, it's replaced by this one.
+   */
   public static CompletableFuture< Long > saveJson( File f,
+                                                    Priority priority,
+                                                    CompiledSchema schema,
                                                     String uuid,
                                                     List< BehaviorEvent > behaviors,
                                                     int count,
@@ -124,41 +84,41 @@ public class Recordings
                                                     long startTime,
                                                     long stopTime )
   {
-    SaveDetails saveDetails = createSaveDetails( f, uuid, behaviors, count, notes, startTime, stopTime );
-    Writer.JSON.schedule( saveDetails );
-    return saveDetails.fResult;
-  }
-
-  public static CompletableFuture< Long > saveXls( File f,
-                                                   String uuid,
-                                                   List< BehaviorEvent > behaviors,
-                                                   int count,
-                                                   String notes,
-                                                   long startTime,
-                                                   long stopTime )
-  {
-    SaveDetails saveDetails = createSaveDetails( f, uuid, behaviors, count, notes, startTime, stopTime );
-    Writer.XLS.schedule( saveDetails );
-    return saveDetails.fResult;
+    SaveDetails saveDetails = createSaveDetails( f, schema, uuid, behaviors, count, notes, startTime, stopTime );
+    return SaveScheduler.shared.schedule( f, priority, ( ) -> {
+      long start = System.nanoTime();
+      RecordingRawJson1_1.write( saveDetails );
+      jsonWrites.recordSince( start );
+      return f.length();
+    } );
   }
 
-  private static void writeJson( SaveDetails details )
+  /**
+   * Schedules a write of the summary file, as csv if 'f' ends in .csv and as xls otherwise. If an earlier write to 'f'
+   * hasn't started yet, it's replaced by this one.
+   */
+  public static CompletableFuture< Long > saveSummary( File f,
+                                                       Priority priority,
+                                                       CompiledSchema schema,
+                                                       String uuid,
+                                                       List< BehaviorEvent > behaviors,
+                                                       int count,
+                                                       String notes,
+                                                       long startTime,
+                                                       long stopTime )
   {
-    try {
-      RecordingRawJson1_1.write( details );
-      details.fResult.complete( details.f.length() );
-    } catch (Exception e) {
-      details.fResult.completeExceptionally( e );
-    }
-  }
-
-  private static void writeXls( SaveDetails details )
-  {
-    try {
-      WriteRecordingXls.write( details );
-      details.fResult.complete( details.f.length() );
-    } catch (IOException e) {
-      details.fResult.completeExceptionally( e );
-    }
+    SaveDetails saveDetails = createSaveDetails( f, schema, uuid, behaviors, count, notes, startTime, stopTime );
+    boolean csv = ExportFormat.of( f ) == ExportFormat.CSV;
+    return SaveScheduler.shared.schedule( f, priority, ( ) -> {
+      long start = System.nanoTime();
+      if (csv) {
+        WriteRecordingCsv.write( saveDetails );
+        csvWrites.recordSince( start );
+      } else {
+        WriteRecordingXls.write( saveDetails );
+        xlsWrites.recordSince( start );
+      }
+      return f.length();
+    } );
   }
 }
@@ -0,0 +1,565 @@
+package com.threebird.recorder.persistence.recordings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.threebird.recorder.persistence.GsonUtils;
+import com.threebird.recorder.persistence.SessionCatalog;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.utils.metrics.Counter;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+
+/**
+ * Packs many sessions into one file, so analysis over a schema's history doesn't open and parse a file per session.
+ *
+ * The file is a header, then each session's JSON back to back, then an index footer and a fixed-size trailer pointing
+ * at it. The index has each session's uuid, offset, length, time range, and a bitmap of the behaviors that occur in
+ * it. Appending writes the new sessions and a new footer after the old one, so nothing already written is changed. The
+ * last complete trailer is the one that counts, so an append that's interrupted loses only what it was adding.
+ *
+ * {@link Reader} memory-maps the footer to load the index, then maps just the bytes of whichever session is asked for.
+ * A single session in an archive can be referred to as a {@link File} named "archive.blsa#session-uuid" (see
+ * {@link #reference(File, String)}), which is how the IOA and bin calculators are pointed at one.
+ */
+public class SessionArchive
+{
+  public static final String EXTENSION = ".blsa";
+
+  private static final String REFERENCE_SEPARATOR = "#";
+  private static final int MAGIC = 0x424c5341; // "BLSA"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int TRAILER_SIZE = 16;
+  private static final int SCAN_SIZE = 64 * 1024;
+
+  private static final Histogram builds = Metrics.histogram( "archive.build" );
+  private static final Counter sessionsAdded = Metrics.counter( "archive.sessions_added" );
+  private static final Counter recovered = Metrics.counter( "archive.recovered" );
+
+  /**
+   * Where one session is in the archive, and what's in it
+   */
+  public static class IndexEntry
+  {
+    public final String sessionUuid;
+    public final Integer sessionNumber;
+    public final long startTime; // in millis since epoch
+    public final long endTime;
+    final long offset;
+    final int length;
+    final BitSet behaviors;
+
+    IndexEntry( String sessionUuid,
+                Integer sessionNumber,
+                long startTime,
+                long endTime,
+                long offset,
+                int length,
+                BitSet behaviors )
+    {
+      this.sessionUuid = sessionUuid;
+      this.sessionNumber = sessionNumber;
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.offset = offset;
+      this.length = length;
+      this.behaviors = behaviors;
+    }
+  }
+
+  /**
+   * An open archive. The index is loaded on open; sessions are mapped and parsed only when read.
+   */
+  public static class Reader implements Closeable
+  {
+    private final FileChannel channel;
+    private final List< String > behaviorUuids;
+    private final Map< String, Integer > behaviorIndex = Maps.newHashMap();
+    private final Map< String, IndexEntry > entries;
+
+    private Reader( FileChannel channel, List< String > behaviorUuids, Map< String, IndexEntry > entries )
+    {
+      this.channel = channel;
+      this.behaviorUuids = behaviorUuids;
+      this.entries = entries;
+      for (int i = 0; i < behaviorUuids.size(); i++) {
+        behaviorIndex.put( behaviorUuids.get( i ), i );
+      }
+    }
+
+    public static Reader open( File f ) throws IOException
+    {
+      FileChannel channel = FileChannel.open( f.toPath(), StandardOpenOption.READ );
+      try {
+        List< String > behaviorUuids = Lists.newArrayList();
+        Map< String, IndexEntry > entries = new LinkedHashMap< String, IndexEntry >();
+        readIndex( channel, behaviorUuids, entries );
+        return new Reader( channel, behaviorUuids, entries );
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return every session in the archive, in the order they were added
+     */
+    public List< IndexEntry > entries()
+    {
+      return Lists.newArrayList( entries.values() );
+    }
+
+    public IndexEntry entry( String sessionUuid )
+    {
+      return entries.get( sessionUuid );
+    }
+
+    public boolean hasBehavior( IndexEntry e, String behaviorUuid )
+    {
+      Integer i = behaviorIndex.get( behaviorUuid );
+      return i != null && e.behaviors.get( i );
+    }
+
+    /**
+     * @return the sessions where the behavior occurred at least once, found from the index alone
+     */
+    public List< IndexEntry > withBehavior( String behaviorUuid )
+    {
+      return entries.values().stream().filter( e -> hasBehavior( e, behaviorUuid ) ).collect( Collectors.toList() );
+    }
+
+    public SessionBean1_1 read( IndexEntry e ) throws IOException
+    {
+      MappedByteBuffer buf = channel.map( MapMode.READ_ONLY, e.offset, e.length );
+      String json = StandardCharsets.UTF_8.decode( buf ).toString();
+      return GsonUtils.gson.fromJson( json, SessionBean1_1.class );
+    }
+
+    /**
+     * @return the session, or null if it isn't in the archive
+     */
+    public SessionBean1_1 read( String sessionUuid ) throws IOException
+    {
+      IndexEntry e = entries.get( sessionUuid );
+      return e == null ? null : read( e );
+    }
+
+    @Override public void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * Adds every 1.1 session recorded with any version of the schema to 'archive', skipping ones it already has
+   *
+   * @return the number of sessions added
+   * @throws Exception
+   */
+  public static int build( String schemaUuid, File archive ) throws Exception
+  {
+    long start = System.nanoTime();
+
+    SessionCatalog.scan();
+    List< SessionCatalog.Entry > entries = SessionCatalog.forSchema( schemaUuid ).stream()
+                                                         .filter( e -> e.schemaVersionUuid != null )
+                                                         .filter( e -> e.sessionUuid != null )
+                                                         .collect( Collectors.toList() );
+
+    Set< String > existing = Sets.newHashSet();
+    if (archive.length() > 0) {
+      try (Reader reader = Reader.open( archive )) {
+        reader.entries().forEach( e -> existing.add( e.sessionUuid ) );
+      }
+    }
+
+    List< SessionBean1_1 > sessions = entries.stream()
+                                             .filter( e -> !existing.contains( e.sessionUuid ) )
+                                             .collect( Collectors.toList() )
+                                             .parallelStream()
+                                             .map( e -> load( e.file ) )
+                                             .filter( Objects::nonNull )
+                                             .sorted( Comparator.comparingLong( s -> s.startTime ) )
+                                             .collect( Collectors.toList() );
+    int added = append( archive, sessions );
+
+    sessionsAdded.add( added );
+    builds.recordSince( start );
+    return added;
+  }
+
+  /**
+   * Appends the sessions to 'archive', creating it if needed. Sessions it already has are skipped.
+   *
+   * @return the number of sessions added
+   */
+  public static int append( File archive, Collection< SessionBean1_1 > sessions ) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open( archive.toPath(),
+                                                 StandardOpenOption.CREATE,
+                                                 StandardOpenOption.READ,
+                                                 StandardOpenOption.WRITE )) {
+      List< String > behaviorUuids = Lists.newArrayList();
+      Map< String, IndexEntry > entries = new LinkedHashMap< String, IndexEntry >();
+
+      long pos = channel.size();
+      if (pos == 0) {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putInt( MAGIC ).putInt( VERSION ).flip();
+        pos += write( channel, header, pos );
+      } else {
+        pos = readIndex( channel, behaviorUuids, entries );
+        if (pos < channel.size()) {
+          // Drop what an interrupted append left behind, so this append's trailer is the one that counts
+          channel.truncate( pos );
+          recovered.increment();
+        }
+      }
+
+      Map< String, Integer > behaviorIndex = Maps.newHashMap();
+      for (int i = 0; i < behaviorUuids.size(); i++) {
+        behaviorIndex.put( behaviorUuids.get( i ), i );
+      }
+
+      int added = 0;
+      for (SessionBean1_1 session : sessions) {
+        if (session.uuid == null || entries.containsKey( session.uuid )) {
+          continue;
+        }
+
+        BitSet behaviors = new BitSet();
+        if (session.discreteEvents != null) {
+          for (DiscreteEvent de : session.discreteEvents) {
+            behaviors.set( indexOf( de.behaviorUuid, behaviorUuids, behaviorIndex ) );
+          }
+        }
+        if (session.continuousEvents != null) {
+          for (ContinuousEvent ce : session.continuousEvents) {
+            behaviors.set( indexOf( ce.behaviorUuid, behaviorUuids, behaviorIndex ) );
+          }
+        }
+
+        byte[] json = GsonUtils.gson.toJson( session ).getBytes( StandardCharsets.UTF_8 );
+        entries.put( session.uuid, new IndexEntry( session.uuid,
+                                                   session.sessionNumber,
+                                                   session.startTime,
+                                                   session.startTime + session.duration,
+                                                   pos,
+                                                   json.length,
+                                                   behaviors ) );
+        pos += write( channel, ByteBuffer.wrap( json ), pos );
+        added++;
+      }
+
+      if (added == 0) {
+        return 0;
+      }
+
+      byte[] footer = writeFooter( behaviorUuids, entries.values() );
+      long footerOffset = pos;
+      pos += write( channel, ByteBuffer.wrap( footer ), pos );
+
+      ByteBuffer trailer = ByteBuffer.allocate( TRAILER_SIZE );
+      trailer.putLong( footerOffset ).putInt( footer.length ).putInt( MAGIC ).flip();
+      write( channel, trailer, pos );
+
+      channel.force( true );
+      return added;
+    }
+  }
+
+  /**
+   * @return a File that stands for one session in 'archive'
+   */
+  public static File reference( File archive, String sessionUuid )
+  {
+    return new File( archive.getPath() + REFERENCE_SEPARATOR + sessionUuid );
+  }
+
+  public static boolean isReference( File f )
+  {
+    return f.getName().contains( EXTENSION + REFERENCE_SEPARATOR );
+  }
+
+  /**
+   * @return the archive a reference points into, or 'f' itself if it isn't a reference
+   */
+  public static File archiveOf( File f )
+  {
+    if (!isReference( f )) {
+      return f;
+    }
+    String path = f.getPath();
+    return new File( path.substring( 0, path.lastIndexOf( REFERENCE_SEPARATOR ) ) );
+  }
+
+  /**
+   * @return true if 'f' is a file that exists, or a reference to a session that's in its archive
+   */
+  public static boolean exists( File f )
+  {
+    if (!isReference( f )) {
+      return f.exists();
+    }
+    if (!archiveOf( f ).exists()) {
+      return false;
+    }
+    try (Reader reader = Reader.open( archiveOf( f ) )) {
+      return reader.entry( sessionUuidOf( f ) ) != null;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the session a reference points to
+   *
+   * @throws IOException
+   *           if the archive can't be read or doesn't have the session
+   */
+  public static SessionBean1_1 read( File reference ) throws IOException
+  {
+    try (Reader reader = Reader.open( archiveOf( reference ) )) {
+      SessionBean1_1 session = reader.read( sessionUuidOf( reference ) );
+      if (session == null) {
+        throw new IOException( "The archive doesn't have session " + sessionUuidOf( reference ) );
+      }
+      return session;
+    }
+  }
+
+  private static String sessionUuidOf( File reference )
+  {
+    String path = reference.getPath();
+    return path.substring( path.lastIndexOf( REFERENCE_SEPARATOR ) + 1 );
+  }
+
+  private static SessionBean1_1 load( File f )
+  {
+    try {
+      return GsonUtils.get( f, new SessionBean1_1() );
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static int indexOf( String behaviorUuid, List< String > behaviorUuids, Map< String, Integer > behaviorIndex )
+  {
+    return behaviorIndex.computeIfAbsent( behaviorUuid, uuid -> {
+      behaviorUuids.add( uuid );
+      return behaviorUuids.size() - 1;
+    } );
+  }
+
+  private static int write( FileChannel channel, ByteBuffer buf, long pos ) throws IOException
+  {
+    int total = 0;
+    while (buf.hasRemaining()) {
+      total += channel.write( buf, pos + total );
+    }
+    return total;
+  }
+
+  /**
+   * Fills 'buf' from 'pos' on. The index is read this way rather than mapped, because {@link #append} truncates the
+   * file afterwards, and Windows won't truncate a file while any of it is mapped.
+   *
+   * @return 'buf', flipped for reading
+   */
+  private static ByteBuffer read( FileChannel channel, ByteBuffer buf, long pos ) throws IOException
+  {
+    int total = 0;
+    while (buf.hasRemaining()) {
+      int n = channel.read( buf, pos + total );
+      if (n < 0) {
+        throw new EOFException( "Unexpected end of session archive" );
+      }
+      total += n;
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static byte[] writeFooter( List< String > behaviorUuids, Collection< IndexEntry > entries ) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+
+    out.writeInt( behaviorUuids.size() );
+    for (String uuid : behaviorUuids) {
+      out.writeUTF( uuid );
+    }
+
+    out.writeInt( entries.size() );
+    for (IndexEntry e : entries) {
+      out.writeUTF( e.sessionUuid );
+      out.writeInt( e.sessionNumber == null ? -1 : e.sessionNumber );
+      out.writeLong( e.startTime );
+      out.writeLong( e.endTime );
+      out.writeLong( e.offset );
+      out.writeInt( e.length );
+
+      long[] words = e.behaviors.toLongArray();
+      out.writeInt( words.length );
+      for (long w : words) {
+        out.writeLong( w );
+      }
+    }
+
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Finds the last good trailer, and reads the index in the footer it points to into 'behaviorUuids' and 'entries'.
+   * Normally that's the trailer at the very end. An append that was interrupted leaves some of its sessions, or part of
+   * its footer, after the last trailer that was written in full, so if the end of the file isn't a good trailer, this
+   * searches back for one.
+   *
+   * @return where the last good trailer ends. Anything after it is left over from an interrupted append.
+   */
+  private static long readIndex( FileChannel channel,
+                                 List< String > behaviorUuids,
+                                 Map< String, IndexEntry > entries )
+      throws IOException
+  {
+    long size = channel.size();
+    if (size < HEADER_SIZE + TRAILER_SIZE) {
+      throw new IOException( "Not a session archive" );
+    }
+
+    ByteBuffer header = read( channel, ByteBuffer.allocate( HEADER_SIZE ), 0 );
+    if (header.getInt() != MAGIC) {
+      throw new IOException( "Not a session archive" );
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException( "Unsupported session archive version: " + version );
+    }
+
+    for (long end = size; end > 0; end = endOfMagic( channel, end - 1 )) {
+      if (readFooter( channel, end, behaviorUuids, entries )) {
+        return end;
+      }
+      behaviorUuids.clear();
+      entries.clear();
+    }
+    throw new IOException( "The session archive's index is damaged" );
+  }
+
+  /**
+   * Reads the footer that the trailer ending at 'end' points to
+   *
+   * @return false if there's no good trailer there, or the footer it points to can't be read
+   */
+  private static boolean readFooter( FileChannel channel,
+                                     long end,
+                                     List< String > behaviorUuids,
+                                     Map< String, IndexEntry > entries )
+      throws IOException
+  {
+    ByteBuffer trailer = read( channel, ByteBuffer.allocate( TRAILER_SIZE ), end - TRAILER_SIZE );
+    long footerOffset = trailer.getLong();
+    int footerLength = trailer.getInt();
+    if (trailer.getInt() != MAGIC
+        || footerOffset < HEADER_SIZE
+        || footerLength < 0
+        || footerOffset + footerLength != end - TRAILER_SIZE) {
+      return false;
+    }
+
+    byte[] footer = new byte[footerLength];
+    read( channel, ByteBuffer.wrap( footer ), footerOffset );
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( footer ) );
+
+    try {
+      int behaviorCount = in.readInt();
+      for (int i = 0; i < behaviorCount; i++) {
+        behaviorUuids.add( in.readUTF() );
+      }
+
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        String sessionUuid = in.readUTF();
+        int sessionNumber = in.readInt();
+        long startTime = in.readLong();
+        long endTime = in.readLong();
+        long offset = in.readLong();
+        int length = in.readInt();
+
+        int wordCount = in.readInt();
+        if (wordCount < 0 || wordCount > in.available() / 8) {
+          return false;
+        }
+        long[] words = new long[wordCount];
+        for (int w = 0; w < words.length; w++) {
+          words[w] = in.readLong();
+        }
+
+        if (offset < HEADER_SIZE || length < 0 || offset + length > footerOffset) {
+          return false;
+        }
+        entries.put( sessionUuid, new IndexEntry( sessionUuid,
+                                                  sessionNumber < 0 ? null : sessionNumber,
+                                                  startTime,
+                                                  endTime,
+                                                  offset,
+                                                  length,
+                                                  BitSet.valueOf( words ) ) );
+      }
+    } catch (IOException e) {
+      // The bytes that looked like a trailer weren't one
+      return false;
+    }
+    return in.available() == 0;
+  }
+
+  /**
+   * @return the end of the last MAGIC before 'before' that could be the end of a trailer, or -1 if there isn't one
+   */
+  private static long endOfMagic( FileChannel channel, long before ) throws IOException
+  {
+    long min = HEADER_SIZE + TRAILER_SIZE - 4;
+    long hi = before;
+    while (hi - min >= 4) {
+      long lo = Math.max( min, hi - SCAN_SIZE );
+      ByteBuffer buf = read( channel, ByteBuffer.allocate( (int) (hi - lo) ), lo );
+      for (int i = (int) (hi - lo) - 4; i >= 0; i--) {
+        if (buf.getInt( i ) == MAGIC) {
+          return lo + i + 4;
+        }
+      }
+      // Overlap by 3 bytes, in case MAGIC straddles the two
+      hi = lo + 3;
+    }
+    return -1;
+  }
+}
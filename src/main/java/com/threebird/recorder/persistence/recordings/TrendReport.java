@@ -0,0 +1,245 @@
+package com.threebird.recorder.persistence.recordings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.persistence.GsonUtils;
+import com.threebird.recorder.persistence.SessionCatalog;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.utils.metrics.Counter;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
+import com.threebird.recorder.utils.persistence.SqliteDao;
+
+/**
+ * Builds one workbook with a row per session for every session recorded with a schema, across all of its versions.
+ * Each row has the same figures as a session's own xls summary ("Count", "Responses / Min", "Total Time" and
+ * "% Session Time"), with behaviors matched up by uuid so renaming or re-keying a behavior doesn't split its column.
+ *
+ * Sessions are found through the {@link SessionCatalog}. Each file's figures are cached in trend_cache_v1_1 by path,
+ * size and mtime, so after the first run only new or changed files are read, and those are read in parallel. Files
+ * recorded by 1.0 have no behavior uuids and are left out.
+ */
+public class TrendReport
+{
+  private static final String TBL_NAME = "trend_cache_v1_1";
+
+  private static final Histogram reports = Metrics.histogram( "trends.report" );
+  private static final Counter sessionsRead = Metrics.counter( "trends.sessions_read" );
+
+  static class BehaviorTotals
+  {
+    int count;
+    long millis;
+  }
+
+  /**
+   * The figures for one session file. This is what's cached, as JSON.
+   */
+  static class SessionMetrics
+  {
+    long startTime;
+    long duration;
+    Integer sessionNumber;
+    Map< String, String > attributes;
+    List< KeyBehaviorMapping > behaviors;
+    Map< String, BehaviorTotals > totals;
+  }
+
+  /**
+   * Writes the report for 'schemaUuid' to 'out'
+   *
+   * @return the number of sessions in the report
+   * @throws Exception
+   */
+  public static int write( String schemaUuid, File out ) throws Exception
+  {
+    long start = System.nanoTime();
+
+    // Make sure sessions recorded since the last scan are included
+    SessionCatalog.scan();
+    List< SessionCatalog.Entry > entries = SessionCatalog.forSchema( schemaUuid ).stream()
+                                                         .filter( e -> e.schemaVersionUuid != null )
+                                                         .collect( Collectors.toList() );
+
+    Map< String, SessionMetrics > cached = Maps.newConcurrentMap();
+    SqliteDao.query( "SELECT c.path, c.metrics FROM " + TBL_NAME + " c "
+        + "JOIN session_catalog_v1_1 s ON s.path = c.path "
+        + "WHERE s.schema_uuid = ? AND c.file_size = s.file_size AND c.file_mtime = s.file_mtime",
+                     Lists.newArrayList( schemaUuid ),
+                     rs -> {
+                       while (rs.next()) {
+                         cached.put( rs.getString( 1 ),
+                                     GsonUtils.gson.fromJson( rs.getString( 2 ), SessionMetrics.class ) );
+                       }
+                     } );
+
+    List< SessionCatalog.Entry > stale =
+        entries.stream().filter( e -> !cached.containsKey( e.file.getPath() ) ).collect( Collectors.toList() );
+
+    // Reading the files is the slow part, so spread it over the common fork/join pool
+    Map< String, SessionMetrics > computed = Maps.newConcurrentMap();
+    stale.parallelStream().forEach( e -> {
+      SessionMetrics m = compute( e.file );
+      if (m != null) {
+        computed.put( e.file.getPath(), m );
+      }
+    } );
+
+    List< List< Object > > rows = Lists.newArrayList();
+    for (SessionCatalog.Entry e : stale) {
+      SessionMetrics m = computed.get( e.file.getPath() );
+      if (m != null) {
+        cached.put( e.file.getPath(), m );
+        rows.add( Lists.newArrayList( e.file.getPath(), e.size, e.mtime, GsonUtils.gson.toJson( m ) ) );
+      }
+    }
+    SqliteDao.transaction( ( ) -> {
+      SqliteDao.batch( "INSERT OR REPLACE INTO " + TBL_NAME + " VALUES (?,?,?,?)", rows );
+    } );
+
+    List< SessionMetrics > sessions = entries.stream()
+                                             .map( e -> cached.get( e.file.getPath() ) )
+                                             .filter( Objects::nonNull )
+                                             .sorted( Comparator.comparingLong( m -> m.startTime ) )
+                                             .collect( Collectors.toList() );
+    writeXls( sessions, out );
+
+    reports.recordSince( start );
+    sessionsRead.add( stale.size() );
+    return sessions.size();
+  }
+
+  /**
+   * Reads a 1.1 .raw file and totals up its events by behavior uuid
+   */
+  static SessionMetrics compute( File f )
+  {
+    SessionBean1_1 bean;
+    try {
+      bean = GsonUtils.get( f, new SessionBean1_1() );
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    SessionMetrics m = new SessionMetrics();
+    m.startTime = bean.startTime;
+    m.duration = bean.duration;
+    m.sessionNumber = bean.sessionNumber;
+    m.attributes = bean.attributes == null ? Maps.newHashMap() : bean.attributes;
+    m.behaviors = bean.schema == null ? Lists.newArrayList() : bean.schema.behaviors;
+    m.totals = Maps.newHashMap();
+
+    if (bean.discreteEvents != null) {
+      for (DiscreteEvent de : bean.discreteEvents) {
+        m.totals.computeIfAbsent( de.behaviorUuid, k -> new BehaviorTotals() ).count++;
+      }
+    }
+
+    if (bean.continuousEvents != null) {
+      for (ContinuousEvent ce : bean.continuousEvents) {
+        BehaviorTotals t = m.totals.computeIfAbsent( ce.behaviorUuid, k -> new BehaviorTotals() );
+        t.count++;
+        t.millis += ce.endTime - ce.startTime;
+      }
+    }
+
+    return m;
+  }
+
+  private static void writeXls( List< SessionMetrics > sessions, File f ) throws Exception
+  {
+    // One column group per behavior, named after its most recent version
+    Map< String, KeyBehaviorMapping > columns = new LinkedHashMap< String, KeyBehaviorMapping >();
+    for (SessionMetrics m : Lists.reverse( sessions )) {
+      for (KeyBehaviorMapping kbm : m.behaviors) {
+        columns.putIfAbsent( kbm.uuid, kbm );
+      }
+    }
+
+    List< KeyBehaviorMapping > discretes = columns.values().stream()
+                                                  .filter( kbm -> !kbm.isContinuous )
+                                                  .sorted( Comparator.comparing( kbm -> kbm.key ) )
+                                                  .collect( Collectors.toList() );
+    List< KeyBehaviorMapping > continuous = columns.values().stream()
+                                                   .filter( kbm -> kbm.isContinuous )
+                                                   .sorted( Comparator.comparing( kbm -> kbm.key ) )
+                                                   .collect( Collectors.toList() );
+
+    Workbook wb = new HSSFWorkbook();
+    Sheet s = wb.createSheet( "Trends" );
+
+    // Headers:
+    Row r = s.createRow( 0 );
+    int c = 0;
+    r.createCell( c++ ).setCellValue( "Start Time" );
+    r.createCell( c++ ).setCellValue( "Session Number" );
+    r.createCell( c++ ).setCellValue( "Observer" );
+    r.createCell( c++ ).setCellValue( "Therapist" );
+    r.createCell( c++ ).setCellValue( "Condition" );
+    r.createCell( c++ ).setCellValue( "Location" );
+    r.createCell( c++ ).setCellValue( "Session Time (s)" );
+    for (KeyBehaviorMapping kbm : discretes) {
+      r.createCell( c++ ).setCellValue( kbm.description + " - Count" );
+      r.createCell( c++ ).setCellValue( kbm.description + " - Responses / Min" );
+    }
+    for (KeyBehaviorMapping kbm : continuous) {
+      r.createCell( c++ ).setCellValue( kbm.description + " - Total Time (s)" );
+      r.createCell( c++ ).setCellValue( kbm.description + " - % Session Time" );
+    }
+
+    // Data:
+    int rownum = 1;
+    for (SessionMetrics m : sessions) {
+      r = s.createRow( rownum++ );
+      c = 0;
+      r.createCell( c++ ).setCellValue( new DateTime( m.startTime ).toString( "yyyy-MM-dd HH:mm:ss" ) );
+      if (m.sessionNumber != null) {
+        r.createCell( c ).setCellValue( m.sessionNumber );
+      }
+      c++;
+      r.createCell( c++ ).setCellValue( m.attributes.get( "observer" ) );
+      r.createCell( c++ ).setCellValue( m.attributes.get( "therapist" ) );
+      r.createCell( c++ ).setCellValue( m.attributes.get( "condition" ) );
+      r.createCell( c++ ).setCellValue( m.attributes.get( "location" ) );
+      r.createCell( c++ ).setCellValue( m.duration / 1000.0 );
+
+      double mins = m.duration / (1000 * 60.0);
+      for (KeyBehaviorMapping kbm : discretes) {
+        BehaviorTotals t = m.totals.get( kbm.uuid );
+        int count = t == null ? 0 : t.count;
+        r.createCell( c++ ).setCellValue( count );
+        r.createCell( c++ ).setCellValue( mins > 0 ? count / mins : 0 );
+      }
+      for (KeyBehaviorMapping kbm : continuous) {
+        BehaviorTotals t = m.totals.get( kbm.uuid );
+        long millis = t == null ? 0 : t.millis;
+        r.createCell( c++ ).setCellValue( millis / 1000.0 );
+        r.createCell( c++ ).setCellValue( m.duration > 0 ? (double) millis / m.duration : 0 );
+      }
+    }
+
+    FileOutputStream out = new FileOutputStream( f );
+    wb.write( out );
+    wb.close();
+    out.close();
+  }
+}
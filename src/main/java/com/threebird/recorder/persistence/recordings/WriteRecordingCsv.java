@@ -0,0 +1,93 @@
+package com.threebird.recorder.persistence.recordings;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.joda.time.DateTime;
+
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.behaviors.BehaviorEvent;
+import com.threebird.recorder.models.behaviors.ContinuousBehavior;
+import com.threebird.recorder.models.behaviors.DiscreteBehavior;
+import com.threebird.recorder.persistence.CsvOutput;
+import com.threebird.recorder.persistence.recordings.Recordings.SaveDetails;
+import com.threebird.recorder.utils.BehaviorLoggerUtil;
+
+/**
+ * Writes the same figures as {@link WriteRecordingXls}, with its three sheets one after the other in a single file,
+ * separated by a blank row. The breakdown is printed event by event, so a long session doesn't build up a workbook in
+ * memory.
+ */
+public class WriteRecordingCsv
+{
+  public static void write( SaveDetails details ) throws IOException
+  {
+    try (CSVPrinter out = CsvOutput.open( details.f, false )) {
+      // __Session Summary__
+      out.printRecord( "Session Summary" );
+      out.printRecord( "Client", details.schema.client );
+      out.printRecord( "Project", details.schema.project );
+      out.printRecord( "Observer", details.observer );
+      out.printRecord( "Therapist", details.therapist );
+      out.printRecord( "Condition", details.condition );
+      out.printRecord( "Location", details.location );
+      out.printRecord( "Session Number", details.sessionNumber );
+      out.printRecord( "Start Time", new DateTime( details.startTime ).toString( "yyyy-MM-dd HH:mm:ss" ) );
+      out.printRecord( "Stop Time", new DateTime( details.stopTime ).toString( "yyyy-MM-dd HH:mm:ss" ) );
+      out.printRecord( "Session Time", BehaviorLoggerUtil.millisToTimestamp( details.totalTimeMillis ) );
+
+      out.println(); // Skip a row
+
+      // __Behavior Summary__
+      out.printRecord( "Behavior Summary" );
+
+      // Discrete Behaviors:
+      out.printRecord( "Key", "Behavior", "Count", "Responses / Min" );
+
+      Map< MappableChar, List< DiscreteBehavior > > discretes =
+          details.behaviors.stream().filter( b -> !b.isContinuous() )
+                           .map( b -> (DiscreteBehavior) b )
+                           .collect( Collectors.groupingBy( db -> db.key ) );
+
+      double mins = BehaviorLoggerUtil.millisToMinutes( details.totalTimeMillis );
+      for (Entry< MappableChar, List< DiscreteBehavior > > e : discretes.entrySet()) {
+        List< DiscreteBehavior > dbs = e.getValue();
+        out.printRecord( e.getKey().c + "", dbs.get( 0 ).name, dbs.size(), ((double) dbs.size()) / mins );
+      }
+
+      // Continuous Behaviors:
+      out.println(); // skip a row
+      out.printRecord( "Key", "Behavior", "Total Time", "% Session Time" );
+
+      Map< MappableChar, List< ContinuousBehavior > > continuous =
+          details.behaviors.stream().filter( b -> b.isContinuous() )
+                           .map( b -> (ContinuousBehavior) b )
+                           .collect( Collectors.groupingBy( db -> db.key ) );
+
+      for (Entry< MappableChar, List< ContinuousBehavior > > e : continuous.entrySet()) {
+        List< ContinuousBehavior > cbs = e.getValue();
+        double sum = 0.0;
+        for (ContinuousBehavior cb : cbs) {
+          sum += cb.getDuration();
+        }
+        out.printRecord( e.getKey().c + "", cbs.get( 0 ).name, sum / 1000.0 + "s", sum / details.totalTimeMillis );
+      }
+
+      // __Behavior Log and Breakdown__
+      out.println();
+      out.printRecord( "Key", "Timestamp", "Behavior" );
+      for (BehaviorEvent b : details.behaviors) {
+        out.printRecord( b.key.c + "", b.timeDisplay(), b.name );
+      }
+
+      // __Notes__
+      out.println();
+      out.printRecord( "Session Notes" );
+      out.printRecord( details.notes );
+    }
+  }
+}
@@ -237,6 +237,50 @@ public class BehaviorLoggerUtil
     return String.format( "%02d : %02d : %02d", hours, minutes, seconds );
   }
 
+  /**
+   * Writes the same "hh : mm : ss" timestamp as {@link BehaviorLoggerUtil#millisToTimestamp(int)} into 'buf' without
+   * allocating. Used by render loops that redraw the session clock every frame.
+   * 
+   * @param buf
+   *          - must have a length of at least 12
+   * @return the number of chars written, or -1 if the timestamp doesn't fit (100 hours or more)
+   */
+  public static int millisToTimestamp( int totalMillis, char[] buf )
+  {
+    int totalSeconds = (totalMillis / 1000);
+    int remaining = totalSeconds % (60 * 60);
+    int hours = totalSeconds / (60 * 60);
+    int minutes = remaining / 60;
+    int seconds = remaining % 60;
+
+    if (hours > 99 || totalMillis < 0) {
+      return -1;
+    }
+
+    int i = 0;
+    i = writeTwoDigits( hours, buf, i );
+    i = writeSeparator( buf, i );
+    i = writeTwoDigits( minutes, buf, i );
+    i = writeSeparator( buf, i );
+    i = writeTwoDigits( seconds, buf, i );
+    return i;
+  }
+
+  private static int writeTwoDigits( int n, char[] buf, int i )
+  {
+    buf[i++] = (char) ('0' + n / 10);
+    buf[i++] = (char) ('0' + n % 10);
+    return i;
+  }
+
+  private static int writeSeparator( char[] buf, int i )
+  {
+    buf[i++] = ' ';
+    buf[i++] = ':';
+    buf[i++] = ' ';
+    return i;
+  }
+
   public static double millisToMinutes( int millis )
   {
     return ((double) millis) / (1000 * 60.0);
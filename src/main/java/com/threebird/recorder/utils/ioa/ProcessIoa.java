@@ -3,17 +3,20 @@ package com.threebird.recorder.utils.ioa;
 import java.io.File;
 import java.io.IOException;
 
-import com.google.common.base.Strings;
 import com.threebird.recorder.persistence.GsonUtils;
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_0.SessionBean1_0;
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.persistence.recordings.SessionArchive;
 import com.threebird.recorder.utils.ioa.version1_0.ConvertTo1_1;
 import com.threebird.recorder.utils.ioa.version1_1.IoaUtils1_1;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 
 import javafx.scene.layout.VBox;
 
 public class ProcessIoa
 {
+  private static final Histogram runs = Metrics.histogram( "ioa.process" );
 
   private static class Versioned
   {
@@ -50,28 +53,24 @@ public class ProcessIoa
                               File out )
       throws Exception
   {
-    Versioned v1 = GsonUtils.get( f1, new Versioned() );
-    Versioned v2 = GsonUtils.get( f2, new Versioned() );
-    v1.version = Strings.nullToEmpty( v1.version );
-    v1.blVersion = Strings.nullToEmpty( v1.blVersion );
-    v2.version = Strings.nullToEmpty( v2.version );
-    v2.blVersion = Strings.nullToEmpty( v2.blVersion );
-
-    SessionBean1_1 stream1;
-    if (v1.version.equals( "1.0" )) {
-      SessionBean1_0 temp = GsonUtils.get( f1, new SessionBean1_0() );
-      stream1 = ConvertTo1_1.convert( temp );
-    } else {
-      stream1 = GsonUtils.get( f1, new SessionBean1_1() );
+    long start = System.nanoTime();
+    try {
+      return calculate( f1, f2, method, blockSize, appendToFile, out );
+    } finally {
+      runs.recordSince( start );
     }
+  }
 
-    SessionBean1_1 stream2;
-    if (v2.version.equals( "1.0" )) {
-      SessionBean1_0 temp = GsonUtils.get( f2, new SessionBean1_0() );
-      stream2 = ConvertTo1_1.convert( temp );
-    } else {
-      stream2 = GsonUtils.get( f2, new SessionBean1_1() );
-    }
+  private static VBox calculate( File f1,
+                                 File f2,
+                                 IoaMethod method,
+                                 int blockSize,
+                                 boolean appendToFile,
+                                 File out )
+      throws Exception
+  {
+    SessionBean1_1 stream1 = load( f1 );
+    SessionBean1_1 stream2 = load( f2 );
 
     if (method != IoaMethod.Time_Window) {
       return IoaUtils1_1.processTimeBlock( method, blockSize, appendToFile, out, stream1, stream2 );
@@ -86,4 +85,20 @@ public class ProcessIoa
     }
   }
 
+  /**
+   * Reads a session from a .raw file of either version, or from a {@link SessionArchive} reference
+   */
+  public static SessionBean1_1 load( File f ) throws Exception
+  {
+    if (SessionArchive.isReference( f )) {
+      return SessionArchive.read( f );
+    }
+
+    Versioned v = GsonUtils.get( f, new Versioned() );
+    if ("1.0".equals( v.version )) {
+      SessionBean1_0 temp = GsonUtils.get( f, new SessionBean1_0() );
+      return ConvertTo1_1.convert( temp );
+    }
+    return GsonUtils.get( f, new SessionBean1_1() );
+  }
 }
@@ -0,0 +1,318 @@
+package com.threebird.recorder.utils.ioa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.threebird.recorder.models.schemas.CompiledSchema;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+
+/**
+ * An immutable, per-key index over one session's events, so time-range questions ("how many times was 'a' pressed
+ * between 10s and 20s?") are answered with a couple of binary searches instead of a walk over every event. Keys are the
+ * mapped characters, as in {@link KeyToInterval}, and all times are in milliseconds unless the method says seconds.
+ */
+public final class SessionIndex
+{
+  /**
+   * A continuous event's start and end time
+   */
+  public static final class Span
+  {
+    public final int start;
+    public final int end;
+
+    Span( int start, int end )
+    {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override public String toString()
+    {
+      return "Span [" + start + ", " + end + "]";
+    }
+  }
+
+  /**
+   * Half-open [start, end) intervals, kept sorted by start (with their ends alongside) and again as independently sorted
+   * starts and ends with prefix sums, so the total covered length below any point is two binary searches away
+   */
+  private static final class Spans
+  {
+    final int[] starts;
+    final int[] ends; // paired with starts
+    final int[] maxEnd; // maxEnd[i] is the largest of ends[0..i]
+    final int[] sortedEnds;
+    final long[] startSums; // startSums[i] is the sum of starts[0..i)
+    final long[] endSums; // endSums[i] is the sum of sortedEnds[0..i)
+
+    Spans( int[] unsortedStarts, int[] unsortedEnds )
+    {
+      int n = unsortedStarts.length;
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      }
+      Arrays.sort( order, ( a, b ) -> Integer.compare( unsortedStarts[a], unsortedStarts[b] ) );
+
+      starts = new int[n];
+      ends = new int[n];
+      maxEnd = new int[n];
+      for (int i = 0; i < n; i++) {
+        starts[i] = unsortedStarts[order[i]];
+        ends[i] = unsortedEnds[order[i]];
+        maxEnd[i] = i == 0 ? ends[i] : Math.max( maxEnd[i - 1], ends[i] );
+      }
+
+      sortedEnds = unsortedEnds.clone();
+      Arrays.sort( sortedEnds );
+      startSums = prefixSums( starts );
+      endSums = prefixSums( sortedEnds );
+    }
+
+    /**
+     * @return the total length of every span clipped to (-inf, x)
+     */
+    long coveredBelow( int x )
+    {
+      int started = lowerBound( starts, x );
+      int ended = lowerBound( sortedEnds, x );
+      return ((long) x * started - startSums[started]) - ((long) x * ended - endSums[ended]);
+    }
+
+    /**
+     * @return how many spans contain x
+     */
+    int containing( int x )
+    {
+      return upperBound( starts, x, starts.length ) - upperBound( sortedEnds, x, sortedEnds.length );
+    }
+
+    long covered( int from, int to )
+    {
+      return to <= from ? 0 : coveredBelow( to ) - coveredBelow( from );
+    }
+
+    /**
+     * Spans that start before 'to' are a prefix of 'starts'; of those, the running max of their ends skips past every
+     * span that finished before 'from'. What's left is scanned, which stays short unless long spans enclose many others.
+     */
+    List< Span > overlapping( int from, int to )
+    {
+      int candidates = lowerBound( starts, to );
+      int first = upperBound( maxEnd, from, candidates );
+      List< Span > result = Lists.newArrayList();
+      for (int i = first; i < candidates; i++) {
+        if (ends[i] > from) {
+          result.add( new Span( starts[i], ends[i] ) );
+        }
+      }
+      return result;
+    }
+
+    int end()
+    {
+      return sortedEnds.length == 0 ? 0 : sortedEnds[sortedEnds.length - 1];
+    }
+
+    private static long[] prefixSums( int[] values )
+    {
+      long[] sums = new long[values.length + 1];
+      for (int i = 0; i < values.length; i++) {
+        sums[i + 1] = sums[i] + values[i];
+      }
+      return sums;
+    }
+  }
+
+  public final long durationMillis;
+  private final ImmutableMap< String, int[] > discrete;
+  private final ImmutableMap< String, Spans > continuous;
+  private final ImmutableMap< String, Spans > continuousSeconds;
+  private final int endSecond;
+
+  private SessionIndex( long durationMillis,
+                        Map< String, List< Integer > > discreteTimes,
+                        Map< String, List< Integer > > continuousStarts,
+                        Map< String, List< Integer > > continuousEnds )
+  {
+    this.durationMillis = durationMillis;
+
+    int lastSecond = -1;
+    ImmutableMap.Builder< String, int[] > d = ImmutableMap.builder();
+    for (Map.Entry< String, List< Integer > > e : discreteTimes.entrySet()) {
+      int[] times = Ints.toArray( e.getValue() );
+      Arrays.sort( times );
+      d.put( e.getKey(), times );
+      lastSecond = Math.max( lastSecond, times[times.length - 1] / 1000 );
+    }
+    discrete = d.build();
+
+    ImmutableMap.Builder< String, Spans > c = ImmutableMap.builder();
+    ImmutableMap.Builder< String, Spans > cs = ImmutableMap.builder();
+    for (String key : continuousStarts.keySet()) {
+      int[] starts = Ints.toArray( continuousStarts.get( key ) );
+      int[] ends = Ints.toArray( continuousEnds.get( key ) );
+      for (int i = 0; i < ends.length; i++) {
+        ends[i] = Math.max( starts[i], ends[i] );
+      }
+      c.put( key, new Spans( starts, ends ) );
+
+      // The IOA calculator has always treated a continuous event as every whole second it touches, end included
+      int[] startSeconds = new int[starts.length];
+      int[] endSeconds = new int[ends.length];
+      for (int i = 0; i < starts.length; i++) {
+        startSeconds[i] = starts[i] / 1000;
+        endSeconds[i] = ends[i] / 1000 + 1;
+      }
+      Spans seconds = new Spans( startSeconds, endSeconds );
+      cs.put( key, seconds );
+      lastSecond = Math.max( lastSecond, seconds.end() - 1 );
+    }
+    continuous = c.build();
+    continuousSeconds = cs.build();
+    endSecond = lastSecond + 1;
+  }
+
+  public static SessionIndex of( SessionBean1_1 bean )
+  {
+    CompiledSchema schema = CompiledSchema.of( bean.schema );
+    HashMap< String, List< Integer > > times = Maps.newHashMap();
+    HashMap< String, List< Integer > > starts = Maps.newHashMap();
+    HashMap< String, List< Integer > > ends = Maps.newHashMap();
+
+    for (DiscreteEvent de : bean.discreteEvents) {
+      String key = schema.mappingForUuid( de.behaviorUuid ).key.toString();
+      times.computeIfAbsent( key, k -> new ArrayList<>() ).add( de.time );
+    }
+    for (ContinuousEvent ce : bean.continuousEvents) {
+      String key = schema.mappingForUuid( ce.behaviorUuid ).key.toString();
+      starts.computeIfAbsent( key, k -> new ArrayList<>() ).add( ce.startTime );
+      ends.computeIfAbsent( key, k -> new ArrayList<>() ).add( ce.endTime );
+    }
+
+    return new SessionIndex( bean.duration, times, starts, ends );
+  }
+
+  /**
+   * @return keys with at least one discrete event
+   */
+  public Set< String > discreteKeys()
+  {
+    return discrete.keySet();
+  }
+
+  /**
+   * @return keys with at least one continuous event
+   */
+  public Set< String > continuousKeys()
+  {
+    return continuous.keySet();
+  }
+
+  /**
+   * @return one past the last whole second touched by any event, which can be past the session's duration
+   */
+  public int endSecond()
+  {
+    return endSecond;
+  }
+
+  /**
+   * @return the number of discrete events for 'key' in [from, to)
+   */
+  public int count( String key, int from, int to )
+  {
+    int[] times = discrete.get( key );
+    if (times == null || to <= from) {
+      return 0;
+    }
+    return lowerBound( times, to ) - lowerBound( times, from );
+  }
+
+  /**
+   * @return how many milliseconds of [from, to) the continuous events for 'key' cover. Events of the same key that
+   *         overlap each other are counted once each.
+   */
+  public long occupancy( String key, int from, int to )
+  {
+    Spans spans = continuous.get( key );
+    return spans == null ? 0 : spans.covered( from, to );
+  }
+
+  /**
+   * @return true if a continuous event for 'key' is running at 'time', i.e. started at or before it and ends after it
+   */
+  public boolean isRunning( String key, int time )
+  {
+    Spans spans = continuous.get( key );
+    return spans != null && spans.containing( time ) > 0;
+  }
+
+  /**
+   * @return the number of (event, whole second) pairs for 'key' in seconds [fromSecond, toSecond), where an event
+   *         touches every second from its start's to its end's inclusive. This is the measure the IOA and bin
+   *         calculators use for continuous behaviors.
+   */
+  public long secondsTouched( String key, int fromSecond, int toSecond )
+  {
+    Spans spans = continuousSeconds.get( key );
+    return spans == null ? 0 : spans.covered( fromSecond, toSecond );
+  }
+
+  /**
+   * @return the continuous events for 'key' that overlap [from, to), in order of start time
+   */
+  public List< Span > overlapping( String key, int from, int to )
+  {
+    Spans spans = continuous.get( key );
+    return spans == null || to <= from ? Collections.emptyList() : spans.overlapping( from, to );
+  }
+
+  /**
+   * @return the first index in 'sorted' whose value is >= x
+   */
+  private static int lowerBound( int[] sorted, int x )
+  {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the first index in sorted[0..limit) whose value is > x
+   */
+  private static int upperBound( int[] sorted, int x, int limit )
+  {
+    int lo = 0;
+    int hi = limit;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
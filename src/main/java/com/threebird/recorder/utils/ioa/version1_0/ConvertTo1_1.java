@@ -4,9 +4,9 @@ import java.util.ArrayList;
 import java.util.Map.Entry;
 import java.util.UUID;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
 import com.threebird.recorder.models.schemas.SchemaVersion;
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_0.BehaviorBean1_0;
@@ -34,15 +34,13 @@ public class ConvertTo1_1
     bean1.duration = bean0.totalTimeMillis;
     bean1.startTime = bean0.startTime.getMillis();
 
-    // Index behaviors by character
-    ImmutableMap< Character, KeyBehaviorMapping > behaviors =
-        Maps.uniqueIndex( bean1.schema.behaviors, ( b ) -> b.key.c );
+    CompiledSchema schema = CompiledSchema.of( bean1.schema );
 
     // Copy over discrete events
     bean1.discreteEvents = Lists.newArrayList();
     for (Entry< Character, ArrayList< Integer > > entry : bean0.discretes.entrySet()) {
       Character key = entry.getKey();
-      String behUuid = behaviors.get( key ).uuid;
+      String behUuid = schema.behaviorUuid( MappableChar.getForChar( key ).get() );
       ArrayList< Integer > timesSeconds = entry.getValue();
       for (Integer t : timesSeconds) {
         bean1.discreteEvents.add( new DiscreteEvent( behUuid, t * 1000 ) );
@@ -53,7 +51,7 @@ public class ConvertTo1_1
     bean1.continuousEvents = Lists.newArrayList();
     for (Entry< Character, ArrayList< Integer > > entry : bean0.continuous.entrySet()) {
       Character key = entry.getKey();
-      String behUuid = behaviors.get( key ).uuid;
+      String behUuid = schema.behaviorUuid( MappableChar.getForChar( key ).get() );
       ArrayList< Integer > timesSeconds = entry.getValue();
 
       for (Integer t : timesSeconds) {
@@ -5,13 +5,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.HashMultiset;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
-import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.google.common.collect.Sets;
+import com.threebird.recorder.models.schemas.CompiledSchema;
 import com.threebird.recorder.persistence.GsonUtils;
 import com.threebird.recorder.persistence.WriteIoaIntervals;
 import com.threebird.recorder.persistence.WriteIoaTimeWindows;
@@ -21,6 +23,7 @@ import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.Session
 import com.threebird.recorder.utils.ioa.IntervalCalculations;
 import com.threebird.recorder.utils.ioa.IoaMethod;
 import com.threebird.recorder.utils.ioa.KeyToInterval;
+import com.threebird.recorder.utils.ioa.SessionIndex;
 import com.threebird.recorder.utils.ioa.TimeWindowCalculations;
 import com.threebird.recorder.views.ioa.IoaTimeBlockSummary;
 import com.threebird.recorder.views.ioa.IoaTimeWindowSummary;
@@ -48,6 +51,65 @@ public class IoaUtils1_1
     return new KeyToInterval( idToIntervals, numIntervals, size );
   }
 
+  /**
+   * The same partition as {@link #partition(HashMap, long, int)} over {@link #createIoaMap(SessionBean1_1)}, but each
+   * interval is counted with range queries on the index instead of by expanding every continuous event into seconds
+   */
+  public static KeyToInterval partition( SessionIndex index, int size )
+  {
+    return partition( index, size, true, true );
+  }
+
+  /**
+   * Like {@link #partition(SessionIndex, int)} with only the discrete events
+   */
+  public static KeyToInterval partitionDiscrete( SessionIndex index, int size )
+  {
+    return partition( index, size, true, false );
+  }
+
+  /**
+   * Like {@link #partition(SessionIndex, int)} with only the continuous events
+   */
+  public static KeyToInterval partitionContinuous( SessionIndex index, int size )
+  {
+    return partition( index, size, false, true );
+  }
+
+  private static KeyToInterval partition( SessionIndex index, int size, boolean discrete, boolean continuous )
+  {
+    HashMap< String, Multiset< Integer > > idToIntervals = Maps.newHashMap();
+    Set< String > keys = Sets.union( discrete ? index.discreteKeys() : ImmutableSet.of(),
+                                     continuous ? index.continuousKeys() : ImmutableSet.of() );
+
+    // Events can run past the end of the session; they still get their intervals, as they always have
+    int lastInterval = (index.endSecond() + size - 1) / size;
+    for (String key : keys) {
+      HashMultiset< Integer > intervals = HashMultiset.create();
+      for (int i = 0; i < lastInterval; i++) {
+        int from = i * size;
+        int to = from + size;
+        long n = 0;
+        if (discrete) {
+          n += index.count( key, from * 1000, to * 1000 );
+        }
+        if (continuous) {
+          n += index.secondsTouched( key, from, to );
+        }
+        if (n > 0) {
+          intervals.add( i, (int) n );
+        }
+      }
+      if (!intervals.isEmpty()) {
+        idToIntervals.put( key, intervals );
+      }
+    }
+
+    int numIntervals = (int) Math.ceil( (index.durationMillis / 1000.0) / size );
+
+    return new KeyToInterval( idToIntervals, numIntervals, size );
+  }
+
   public static VBox processTimeBlock( IoaMethod method,
                                        int blockSize,
                                        boolean appendToFile,
@@ -57,11 +119,8 @@ public class IoaUtils1_1
       throws Exception
   {
     int size = blockSize < 1 ? 1 : blockSize;
-    HashMap< String, ArrayList< Integer > > map1 = createIoaMap( stream1 );
-    HashMap< String, ArrayList< Integer > > map2 = createIoaMap( stream2 );
-
-    KeyToInterval data1 = partition( map1, stream1.duration, size );
-    KeyToInterval data2 = partition( map2, stream2.duration, size );
+    KeyToInterval data1 = partition( SessionIndex.of( stream1 ), size );
+    KeyToInterval data2 = partition( SessionIndex.of( stream2 ), size );
 
     Map< String, IntervalCalculations > intervals =
         method == IoaMethod.Exact_Agreement
@@ -69,7 +128,7 @@ public class IoaUtils1_1
             : IoaCalculations.partialAgreement( data1, data2 );
 
     WriteIoaIntervals.write( intervals, appendToFile, out );
-    return new IoaTimeBlockSummary( intervals );
+    return new IoaTimeBlockSummary( intervals, size );
   }
 
   public static HashMap< String, ArrayList< Integer > > createIoaMap( SessionBean1_1 bean )
@@ -85,11 +144,11 @@ public class IoaUtils1_1
    */
   public static void populateContinuous( SessionBean1_1 stream1, HashMap< String, ArrayList< Integer > > map1 )
   {
-    ImmutableMap< String, KeyBehaviorMapping > behaviors = Maps.uniqueIndex( stream1.schema.behaviors, b -> b.uuid );
+    CompiledSchema schema = CompiledSchema.of( stream1.schema );
 
     for (ContinuousEvent ce : stream1.continuousEvents) {
       String buuid = ce.behaviorUuid;
-      String key = behaviors.get( buuid ).key.toString();
+      String key = schema.mappingForUuid( buuid ).key.toString();
 
       if (!map1.containsKey( key )) {
         map1.put( key, Lists.newArrayList() );
@@ -108,11 +167,11 @@ public class IoaUtils1_1
    */
   public static void populateDiscrete( SessionBean1_1 stream1, HashMap< String, ArrayList< Integer > > map1 )
   {
-    ImmutableMap< String, KeyBehaviorMapping > behaviors = Maps.uniqueIndex( stream1.schema.behaviors, b -> b.uuid );
+    CompiledSchema schema = CompiledSchema.of( stream1.schema );
 
     for (DiscreteEvent de : stream1.discreteEvents) {
       String buuid = de.behaviorUuid;
-      String key = behaviors.get( buuid ).key.toString();
+      String key = schema.mappingForUuid( buuid ).key.toString();
 
       if (!map1.containsKey( key )) {
         map1.put( key, Lists.newArrayList() );
@@ -131,19 +190,12 @@ public class IoaUtils1_1
                                         SessionBean1_1 stream2 )
       throws Exception
   {
-    HashMap< String, ArrayList< Integer > > discretes1 = Maps.newHashMap();
-    HashMap< String, ArrayList< Integer > > discretes2 = Maps.newHashMap();
-    populateDiscrete( stream1, discretes1 );
-    populateDiscrete( stream2, discretes2 );
-    KeyToInterval discrete1 = partition( discretes1, stream1.duration, 1 );
-    KeyToInterval discrete2 = partition( discretes2, stream2.duration, 1 );
-
-    HashMap< String, ArrayList< Integer > > continuous1 = Maps.newHashMap();
-    HashMap< String, ArrayList< Integer > > continuous2 = Maps.newHashMap();
-    populateContinuous( stream1, continuous1 );
-    populateContinuous( stream2, continuous2 );
-    KeyToInterval cont1 = partition( continuous1, stream1.duration, 1 );
-    KeyToInterval cont2 = partition( continuous2, stream2.duration, 1 );
+    SessionIndex index1 = SessionIndex.of( stream1 );
+    SessionIndex index2 = SessionIndex.of( stream2 );
+    KeyToInterval discrete1 = partitionDiscrete( index1, 1 );
+    KeyToInterval discrete2 = partitionDiscrete( index2, 1 );
+    KeyToInterval cont1 = partitionContinuous( index1, 1 );
+    KeyToInterval cont2 = partitionContinuous( index2, 1 );
 
     Map< String, TimeWindowCalculations > ioaDiscrete =
         IoaCalculations.windowAgreementDiscrete( discrete1, discrete2, threshold );
@@ -0,0 +1,26 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up. Cheap to increment from many threads at once.
+ */
+public class Counter
+{
+  private final LongAdder count = new LongAdder();
+
+  public void increment()
+  {
+    count.increment();
+  }
+
+  public void add( long n )
+  {
+    count.add( n );
+  }
+
+  public long get()
+  {
+    return count.sum();
+  }
+}
@@ -0,0 +1,21 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that's set rather than counted, like the most recent clock drift
+ */
+public class Gauge implements LongSupplier
+{
+  private volatile long value;
+
+  public void set( long value )
+  {
+    this.value = value;
+  }
+
+  @Override public long getAsLong()
+  {
+    return value;
+  }
+}
@@ -0,0 +1,112 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size latency histogram in the style of HdrHistogram. Each power of two is split into 32 linear buckets, so a
+ * recorded value is off by at most ~3%, and recording is a couple of atomic increments with no allocation. Values are
+ * in nanoseconds.
+ */
+public class Histogram
+{
+  private static final int SUB_BITS = 5;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a value, in nanoseconds. Negative values are recorded as 0.
+   */
+  public void record( long nanos )
+  {
+    long v = Math.max( 0, nanos );
+    buckets.incrementAndGet( bucketOf( v ) );
+    count.increment();
+    total.add( v );
+
+    long m;
+    while (v > (m = max.get())) {
+      if (max.compareAndSet( m, v )) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Records the time elapsed since 'startNanos', which came from {@link System#nanoTime()}
+   */
+  public void recordSince( long startNanos )
+  {
+    record( System.nanoTime() - startNanos );
+  }
+
+  public long count()
+  {
+    return count.sum();
+  }
+
+  public long max()
+  {
+    return max.get();
+  }
+
+  public double mean()
+  {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) total.sum() / n;
+  }
+
+  /**
+   * @param percentile
+   *          - between 0 and 100
+   * @return the value at the given percentile, or 0 if nothing has been recorded
+   */
+  public long percentile( double percentile )
+  {
+    long n = count.sum();
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max( 1, (long) Math.ceil( n * percentile / 100.0 ) );
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get( i );
+      if (seen >= rank) {
+        return Math.min( highestIn( i ), max.get() );
+      }
+    }
+    return max.get();
+  }
+
+  static int bucketOf( long v )
+  {
+    if (v < SUB_COUNT) {
+      return (int) v;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros( v ) - SUB_BITS;
+    int sub = (int) (v >>> shift);
+    return (shift + 1) * SUB_COUNT + (sub - SUB_COUNT);
+  }
+
+  /**
+   * @return the largest value that falls into bucket 'i'
+   */
+  static long highestIn( int i )
+  {
+    if (i < SUB_COUNT) {
+      return i;
+    }
+
+    int shift = i / SUB_COUNT - 1;
+    long sub = i % SUB_COUNT + SUB_COUNT;
+    return ((sub + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,91 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The application's metrics, by name. Look a metric up once and keep it in a static field; after that, recording is
+ * cheap enough to leave on everywhere. Use dotted names, starting with the area of the app, e.g. "sqlite.query".
+ *
+ * Everything registered here is visible through JMX (see {@link MetricsMBean}) and in the log written by
+ * {@link MetricsLog}.
+ */
+public class Metrics
+{
+  private static final Map< String, Counter > counters = new ConcurrentHashMap< String, Counter >();
+  private static final Map< String, LongSupplier > gauges = new ConcurrentHashMap< String, LongSupplier >();
+  private static final Map< String, Histogram > histograms = new ConcurrentHashMap< String, Histogram >();
+
+  /**
+   * @return the counter with the given name, creating it if needed
+   */
+  public static Counter counter( String name )
+  {
+    return counters.computeIfAbsent( name, n -> new Counter() );
+  }
+
+  /**
+   * @return the settable gauge with the given name, creating it if needed
+   * @throws IllegalStateException
+   *           if the name was registered with {@link #gauge(String, LongSupplier)}
+   */
+  public static Gauge gauge( String name )
+  {
+    LongSupplier gauge = gauges.computeIfAbsent( name, n -> new Gauge() );
+    if (!(gauge instanceof Gauge)) {
+      throw new IllegalStateException( "Gauge '" + name + "' is read from a supplier, so it can't be set" );
+    }
+    return (Gauge) gauge;
+  }
+
+  /**
+   * Registers a gauge whose value is read from 'value' whenever the metrics are sampled
+   */
+  public static void gauge( String name, LongSupplier value )
+  {
+    gauges.put( name, value );
+  }
+
+  /**
+   * @return the latency histogram with the given name, creating it if needed
+   */
+  public static Histogram histogram( String name )
+  {
+    return histograms.computeIfAbsent( name, n -> new Histogram() );
+  }
+
+  /**
+   * Registers a histogram that's owned by someone else
+   */
+  public static void histogram( String name, Histogram histogram )
+  {
+    histograms.put( name, histogram );
+  }
+
+  /**
+   * @return the current value of every metric, sorted by name. Histograms are flattened into their count, mean,
+   *         percentiles, and max, in milliseconds.
+   */
+  public static SortedMap< String, Number > snapshot()
+  {
+    SortedMap< String, Number > result = new TreeMap< String, Number >();
+    counters.forEach( ( name, c ) -> result.put( name, c.get() ) );
+    gauges.forEach( ( name, g ) -> result.put( name, g.getAsLong() ) );
+    histograms.forEach( ( name, h ) -> {
+      result.put( name + ".count", h.count() );
+      result.put( name + ".mean_ms", toMillis( h.mean() ) );
+      result.put( name + ".p50_ms", toMillis( h.percentile( 50 ) ) );
+      result.put( name + ".p99_ms", toMillis( h.percentile( 99 ) ) );
+      result.put( name + ".max_ms", toMillis( h.max() ) );
+    } );
+    return result;
+  }
+
+  private static double toMillis( double nanos )
+  {
+    return Math.round( nanos / 1000.0 ) / 1000.0;
+  }
+}
@@ -0,0 +1,59 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+/**
+ * Appends a line with every metric to a {@link RollingLog} on a fixed period
+ */
+public class MetricsLog
+{
+  public static final long MAX_BYTES = 1024 * 1024;
+
+  private static ScheduledExecutorService timer;
+  private static RollingLog log;
+
+  /**
+   * Starts logging to 'f' every 'periodMillis'. Does nothing if the log is already running.
+   */
+  public static synchronized void start( File f, long periodMillis )
+  {
+    if (timer != null) {
+      return;
+    }
+
+    log = new RollingLog( f, MAX_BYTES );
+    timer = Executors.newSingleThreadScheduledExecutor( r -> {
+      Thread t = new Thread( r, "metrics-log" );
+      t.setDaemon( true );
+      return t;
+    } );
+    timer.scheduleAtFixedRate( MetricsLog::append, periodMillis, periodMillis, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Stops the timer and writes one last line
+   */
+  public static synchronized void stop()
+  {
+    if (timer == null) {
+      return;
+    }
+
+    timer.shutdownNow();
+    timer = null;
+    append();
+  }
+
+  private static void append()
+  {
+    StringBuilder line = new StringBuilder( DateTime.now().toString() );
+    Metrics.snapshot().forEach( ( name, value ) -> line.append( ' ' ).append( name ).append( '=' ).append( value ) );
+    line.append( System.lineSeparator() );
+    log.append( line.toString() );
+  }
+}
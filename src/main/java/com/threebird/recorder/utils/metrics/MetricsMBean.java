@@ -0,0 +1,96 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes {@link Metrics#snapshot()} over JMX, one read-only attribute per value, so it can be browsed in JConsole or
+ * VisualVM under "com.threebird.recorder:type=Metrics".
+ */
+public class MetricsMBean implements DynamicMBean
+{
+  public static final String NAME = "com.threebird.recorder:type=Metrics";
+
+  /**
+   * Registers the bean with the platform MBeanServer. Failing to register only costs us the JMX view, so errors are
+   * printed and swallowed.
+   */
+  public static void register()
+  {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName( NAME );
+      if (!server.isRegistered( name )) {
+        server.registerMBean( new MetricsMBean(), name );
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override public Object getAttribute( String attribute ) throws AttributeNotFoundException
+  {
+    Number value = Metrics.snapshot().get( attribute );
+    if (value == null) {
+      throw new AttributeNotFoundException( attribute );
+    }
+    return value;
+  }
+
+  @Override public AttributeList getAttributes( String[] attributes )
+  {
+    SortedMap< String, Number > snapshot = Metrics.snapshot();
+    AttributeList result = new AttributeList();
+    for (String attribute : attributes) {
+      Number value = snapshot.get( attribute );
+      if (value != null) {
+        result.add( new Attribute( attribute, value ) );
+      }
+    }
+    return result;
+  }
+
+  @Override public MBeanInfo getMBeanInfo()
+  {
+    SortedMap< String, Number > snapshot = Metrics.snapshot();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+    int i = 0;
+    for (Map.Entry< String, Number > e : snapshot.entrySet()) {
+      attributes[i++] = new MBeanAttributeInfo( e.getKey(),
+                                                e.getValue().getClass().getName(),
+                                                e.getKey(),
+                                                true,
+                                                false,
+                                                false );
+    }
+
+    return new MBeanInfo( getClass().getName(), "Behavior Logger metrics", attributes, null, null, null );
+  }
+
+  @Override public void setAttribute( Attribute attribute ) throws AttributeNotFoundException
+  {
+    throw new AttributeNotFoundException( "Metrics are read-only" );
+  }
+
+  @Override public AttributeList setAttributes( AttributeList attributes )
+  {
+    return new AttributeList();
+  }
+
+  @Override public Object invoke( String actionName, Object[] params, String[] signature ) throws ReflectionException
+  {
+    // There are no operations, only attributes
+    throw new ReflectionException( new NoSuchMethodException( actionName ) );
+  }
+}
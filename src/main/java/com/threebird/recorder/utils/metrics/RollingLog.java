@@ -0,0 +1,45 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An append-only text file that, once it grows past a limit, is renamed to "[name].1" (replacing the previous one) and
+ * started over. The log never takes more than about twice the limit on disk.
+ */
+public class RollingLog
+{
+  private final File file;
+  private final long maxBytes;
+
+  public RollingLog( File file, long maxBytes )
+  {
+    this.file = file;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Appends 'text' as-is. Errors are printed and swallowed, since losing a log entry shouldn't affect the app.
+   */
+  public synchronized void append( String text )
+  {
+    try {
+      if (file.length() > maxBytes) {
+        File old = new File( file.getPath() + ".1" );
+        old.delete();
+        file.renameTo( old );
+      }
+
+      file.getParentFile().mkdirs();
+      try (Writer writer = new OutputStreamWriter( new FileOutputStream( file, true ), StandardCharsets.UTF_8 )) {
+        writer.write( text );
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.threebird.recorder.utils.metrics;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+import javafx.application.Platform;
+
+/**
+ * Watches for the UI thread being blocked. Every few milliseconds it posts an empty task to the UI thread and measures
+ * how long the task takes to run. If it hasn't run after the threshold, the UI thread's stack is captured; once the
+ * thread frees up, the stall's duration and that stack are appended to a {@link RollingLog}. The stack shows what was
+ * blocking the thread, e.g. file or database I/O that should be moved off of it.
+ *
+ * Stalls are also counted in the "fx.stalls" metric, and every ping's delay is recorded in "fx.ping".
+ */
+public class StallWatchdog
+{
+  public static final long PING_MILLIS = 5;
+  public static final long THRESHOLD_MILLIS = 200;
+  public static final long MAX_LOG_BYTES = 1024 * 1024;
+
+  /**
+   * A stall that lasts this long is logged right away, in case the thread never frees up
+   */
+  private static final long HANG_MILLIS = 5000;
+
+  private static final Counter stalls = Metrics.counter( "fx.stalls" );
+  private static final Histogram pings = Metrics.histogram( "fx.ping" );
+  private static final Histogram stallDurations = Metrics.histogram( "fx.stall" );
+
+  private final Executor uiThread;
+  private final long pingMillis;
+  private final long thresholdNanos;
+  private final RollingLog log;
+
+  private volatile Thread watched;
+  private volatile long ackedAt = 0;
+  private volatile boolean running = false;
+  private Thread watcher;
+
+  /**
+   * @return a watchdog for the JavaFX Application Thread that logs to 'logFile'
+   */
+  public static StallWatchdog forFxThread( File logFile )
+  {
+    return new StallWatchdog( Platform::runLater,
+                              PING_MILLIS,
+                              THRESHOLD_MILLIS,
+                              new RollingLog( logFile, MAX_LOG_BYTES ) );
+  }
+
+  /**
+   * @param uiThread
+   *          - runs tasks on the thread being watched
+   */
+  public StallWatchdog( Executor uiThread, long pingMillis, long thresholdMillis, RollingLog log )
+  {
+    this.uiThread = uiThread;
+    this.pingMillis = pingMillis;
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos( thresholdMillis );
+    this.log = log;
+  }
+
+  public synchronized void start()
+  {
+    if (running) {
+      return;
+    }
+
+    running = true;
+    watcher = new Thread( this::watch, "stall-watchdog" );
+    watcher.setDaemon( true );
+    watcher.start();
+  }
+
+  /**
+   * Stops the watchdog and waits for its thread to finish
+   */
+  public synchronized void stop()
+  {
+    running = false;
+    if (watcher == null) {
+      return;
+    }
+
+    watcher.interrupt();
+    try {
+      watcher.join( 1000 );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    watcher = null;
+  }
+
+  private void ack()
+  {
+    watched = Thread.currentThread();
+    ackedAt = System.nanoTime();
+  }
+
+  private void watch()
+  {
+    long sentAt = 0;
+    StackTraceElement[] blame = null;
+    boolean hangLogged = false;
+
+    while (running) {
+      long now = System.nanoTime();
+
+      if (sentAt == 0 || ackedAt >= sentAt) {
+        if (sentAt != 0) {
+          long delay = ackedAt - sentAt;
+          pings.record( delay );
+          if (blame != null) {
+            stallDurations.record( delay );
+            report( delay, blame, false );
+          }
+        }
+
+        sentAt = now;
+        blame = null;
+        hangLogged = false;
+        uiThread.execute( this::ack );
+      } else {
+        long waited = now - sentAt;
+        Thread t = watched;
+        if (blame == null && waited > thresholdNanos && t != null) {
+          blame = t.getStackTrace();
+          stalls.increment();
+        }
+        if (blame != null && !hangLogged && waited > TimeUnit.MILLISECONDS.toNanos( HANG_MILLIS )) {
+          hangLogged = true;
+          report( waited, t.getStackTrace(), true );
+        }
+      }
+
+      try {
+        Thread.sleep( pingMillis );
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void report( long nanos, StackTraceElement[] stack, boolean ongoing )
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append( DateTime.now() )
+      .append( ongoing ? " UI thread blocked for " : " UI thread stalled for " )
+      .append( TimeUnit.NANOSECONDS.toMillis( nanos ) )
+      .append( ongoing ? " ms so far" : " ms" )
+      .append( System.lineSeparator() );
+
+    for (StackTraceElement frame : stack) {
+      sb.append( "\tat " ).append( frame ).append( System.lineSeparator() );
+    }
+
+    log.append( sb.toString() );
+  }
+}
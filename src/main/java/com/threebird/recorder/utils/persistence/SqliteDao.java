@@ -6,6 +6,8 @@ import java.sql.PreparedStatement;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import com.threebird.recorder.utils.metrics.Histogram;
+import com.threebird.recorder.utils.metrics.Metrics;
 import com.threebird.recorder.utils.resources.ResourceUtils;
 
 /**
@@ -25,6 +27,11 @@ public class SqliteDao
 
   private static Connection conn;
 
+  private static final Histogram queries = Metrics.histogram( "sqlite.query" );
+  private static final Histogram updates = Metrics.histogram( "sqlite.update" );
+  private static final Histogram batches = Metrics.histogram( "sqlite.batch" );
+  private static final Histogram transactions = Metrics.histogram( "sqlite.transaction" );
+
   /**
    * @return false if a Connection is already open, or true if a new Connection was successfully created
    * 
@@ -50,6 +57,7 @@ public class SqliteDao
    */
   private static void execute( SqlQueryData sqd, boolean isDML ) throws Exception
   {
+    long start = System.nanoTime();
     boolean topLevel = open();
     PreparedStatement stmt = conn.prepareStatement( sqd.getSql() );
 
@@ -70,6 +78,7 @@ public class SqliteDao
     if (topLevel) {
       conn.close();
     }
+    (isDML ? updates : queries).recordSince( start );
   }
 
   /**
@@ -106,6 +115,67 @@ public class SqliteDao
     execute( sqd, true );
   }
 
+  /**
+   * Executes the same DML statement once for each row of 'rows', as a single JDBC batch
+   * 
+   * @throws Exception
+   */
+  synchronized public static void batch( final String sql, final List< List< Object > > rows ) throws Exception
+  {
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean topLevel = open();
+    PreparedStatement stmt = conn.prepareStatement( sql );
+
+    for (List< Object > row : rows) {
+      int i = 1;
+      for (Object o : row) {
+        stmt.setObject( i, o );
+        i++;
+      }
+      stmt.addBatch();
+    }
+
+    stmt.executeBatch();
+    stmt.close();
+
+    if (topLevel) {
+      conn.close();
+    }
+    batches.recordSince( start );
+  }
+
+  /**
+   * Runs 'task' in a single transaction. Any calls to SqliteDao within the task use the same Connection, and are
+   * rolled back if the task throws.
+   * 
+   * @throws Exception
+   */
+  synchronized public static void transaction( final SqlTask task ) throws Exception
+  {
+    long start = System.nanoTime();
+    boolean topLevel = open();
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit( false );
+
+    try {
+      task.run();
+      conn.commit();
+    } catch (Exception e) {
+      conn.rollback();
+      throw e;
+    } finally {
+      conn.setAutoCommit( autoCommit );
+      if (topLevel) {
+        conn.close();
+      }
+      transactions.recordSince( start );
+    }
+  }
+
   /**
    * Same as calling SqliteDao.update( SqlQueryData.create( sql ) );
    * 
@@ -109,4 +109,16 @@ public class ResourceUtils
     String path = resources().getAbsolutePath() + "/positions.json";
     return new File( path );
   }
+
+  public static File getMetricsLog()
+  {
+    String path = resources().getAbsolutePath() + "/metrics.log";
+    return new File( path );
+  }
+
+  public static File getStallLog()
+  {
+    String path = resources().getAbsolutePath() + "/stalls.log";
+    return new File( path );
+  }
 }
@@ -0,0 +1,81 @@
+package com.threebird.recorder.views.ioa;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+import com.threebird.recorder.utils.ioa.IntervalCalculations;
+
+/**
+ * Helpers shared by the IOA summary tables
+ */
+class IoaTables
+{
+  static final double ROW_HEIGHT = 24;
+  private static final double HEADER_HEIGHT = 28;
+  private static final int MAX_VISIBLE_ROWS = 10;
+
+  static ObservableList< IntervalCalculations > sortedByKey( Map< String, IntervalCalculations > intervals )
+  {
+    List< IntervalCalculations > sorted = intervals.values().stream()
+                                                   .sorted( Comparator.comparing( calc -> calc.key ) )
+                                                   .collect( Collectors.toList() );
+    return FXCollections.observableList( sorted );
+  }
+
+  static ObservableList< String > sortedKeys( Map< String, ? > map )
+  {
+    return FXCollections.observableList( map.keySet().stream().sorted().collect( Collectors.toList() ) );
+  }
+
+  /**
+   * @return the list 0, 1, ... size - 1, without storing it
+   */
+  static ObservableList< Integer > indices( int size )
+  {
+    return FXCollections.observableList( new AbstractList< Integer >() {
+      @Override public Integer get( int i )
+      {
+        return i;
+      }
+
+      @Override public int size()
+      {
+        return size;
+      }
+    } );
+  }
+
+  static < T > TableColumn< T, String > column( String title, Function< T, String > value )
+  {
+    TableColumn< T, String > col = new TableColumn<>( title );
+    col.setCellValueFactory( cdf -> new ReadOnlyStringWrapper( value.apply( cdf.getValue() ) ) );
+    return col;
+  }
+
+  static String percent( double ratio )
+  {
+    return "%" + String.format( "%.2f", ratio * 100 );
+  }
+
+  /**
+   * Sizes a table to its rows, up to a few, and fixes the row height so the table never has to measure its cells
+   */
+  static void fitRows( TableView< ? > table )
+  {
+    table.setColumnResizePolicy( TableView.CONSTRAINED_RESIZE_POLICY );
+    table.setFixedCellSize( ROW_HEIGHT );
+    int rows = Math.max( 1, Math.min( table.getItems().size(), MAX_VISIBLE_ROWS ) );
+    table.setPrefHeight( HEADER_HEIGHT + rows * ROW_HEIGHT + 2 );
+    table.setMinHeight( table.getPrefHeight() );
+  }
+}
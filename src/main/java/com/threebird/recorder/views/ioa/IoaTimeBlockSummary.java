@@ -1,26 +1,32 @@
 package com.threebird.recorder.views.ioa;
 
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.function.IntFunction;
 
-import javafx.geometry.Orientation;
-import javafx.geometry.Pos;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
 import javafx.scene.control.Label;
-import javafx.scene.control.Separator;
-import javafx.scene.layout.HBox;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 
+import com.threebird.recorder.utils.BehaviorLoggerUtil;
 import com.threebird.recorder.utils.ioa.IntervalCalculations;
 
+/**
+ * Average IOA per key, and below it every interval of the selected key. Both are TableViews, which only create cells
+ * for the rows on screen, and the interval rows are read straight out of {@link IntervalCalculations}' arrays, so a
+ * small block size over a long session doesn't mean tens of thousands of nodes.
+ */
 public class IoaTimeBlockSummary extends VBox
 {
-  private int colWidth = 35;
   private Font boldVerdana = Font.font( "Verdana", FontWeight.BOLD, 12 );
 
-  public IoaTimeBlockSummary( Map< String, IntervalCalculations > intervals )
+  public IoaTimeBlockSummary( Map< String, IntervalCalculations > intervals, int blockSize )
   {
     this.setSpacing( 5 );
 
@@ -29,35 +35,56 @@ public class IoaTimeBlockSummary extends VBox
     txt.setFont( boldVerdana );
     this.getChildren().add( txt );
 
-    // Headers
-    Label keys = new Label( "Keys" );
-    keys.setMinWidth( colWidth );
-    keys.setAlignment( Pos.TOP_RIGHT );
-    keys.setFont( boldVerdana );
-    Label avgIoa = new Label( "Average IOA" );
-    avgIoa.setFont( boldVerdana );
-    HBox header = new HBox( keys, new Separator( Orientation.VERTICAL ), avgIoa );
-    header.setSpacing( 5 );
-    this.getChildren().add( header );
-
     // Key | Average summaries
-    for (Entry< String, IntervalCalculations > entry : intervals.entrySet()) {
-      String buuid = entry.getKey();
-      IntervalCalculations calc = entry.getValue();
+    TableView< IntervalCalculations > keys = new TableView<>( IoaTables.sortedByKey( intervals ) );
+    keys.getColumns().add( IoaTables.column( "Keys", calc -> calc.key ) );
+    keys.getColumns().add( IoaTables.column( "Average IOA", calc -> IoaTables.percent( calc.avg ) ) );
+    IoaTables.fitRows( keys );
+    this.getChildren().add( keys );
 
-      Label left = new Label( "" + buuid );
-      left.setMinWidth( colWidth );
-      left.setAlignment( Pos.TOP_RIGHT );
+    // Interval | Observer 1 | Observer 2 | IOA, for whichever key is selected
+    Label drilldownLbl = new Label();
+    drilldownLbl.setFont( boldVerdana );
+    TableView< Integer > drilldown = new TableView<>();
+    drilldown.setColumnResizePolicy( TableView.CONSTRAINED_RESIZE_POLICY );
+    drilldown.setFixedCellSize( IoaTables.ROW_HEIGHT );
+    VBox.setVgrow( drilldown, Priority.ALWAYS );
+    this.getChildren().addAll( drilldownLbl, drilldown );
 
-      Separator sep = new Separator( Orientation.VERTICAL );
+    keys.getSelectionModel().selectedItemProperty().addListener( ( obs, old, calc ) -> {
+      drilldown.getColumns().clear();
+      if (calc == null) {
+        drilldownLbl.setText( "" );
+        drilldown.setItems( FXCollections.observableArrayList() );
+        return;
+      }
 
-      String percent = String.format( "%.2f", calc.avg * 100 );
-      Label right = new Label( "%" + percent );
+      drilldownLbl.setText( "Intervals for '" + calc.key + "'" );
+      drilldown.getColumns().add( intervalColumn( "Interval", i -> timeRange( i, blockSize ) ) );
+      drilldown.getColumns().add( intervalColumn( "Observer 1", i -> calc.intervals1[i] ) );
+      drilldown.getColumns().add( intervalColumn( "Observer 2", i -> calc.intervals2[i] ) );
+      drilldown.getColumns().add( intervalColumn( "IOA", i -> IoaTables.percent( calc.result[i] ) ) );
+      drilldown.setItems( IoaTables.indices( calc.result.length ) );
+    } );
+    keys.getSelectionModel().selectFirst();
+  }
 
-      HBox row = new HBox( left, sep, right );
-      row.setSpacing( 5 );
+  /**
+   * A column over interval indices. Cells get their values only when they're shown.
+   */
+  private static TableColumn< Integer, Object > intervalColumn( String title, IntFunction< Object > value )
+  {
+    TableColumn< Integer, Object > col = new TableColumn<>( title );
+    col.setSortable( false );
+    col.setCellValueFactory( cdf -> new ReadOnlyObjectWrapper<>( value.apply( cdf.getValue() ) ) );
+    return col;
+  }
 
-      this.getChildren().add( row );
-    }
+  private static String timeRange( int interval, int blockSize )
+  {
+    int from = interval * blockSize * 1000;
+    int to = from + blockSize * 1000;
+    return BehaviorLoggerUtil.millisToTimestampNoSpaces( from ) + " - "
+        + BehaviorLoggerUtil.millisToTimestampNoSpaces( to );
   }
 }
@@ -11,6 +11,7 @@ import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
 public class ContinuousCountBox extends BehaviorCountBox
 {
   private boolean toggled = false;
+  private int displayedSeconds = 0;
 
   public ContinuousCountBox( KeyBehaviorMapping kbm )
   {
@@ -19,14 +20,21 @@ public class ContinuousCountBox extends BehaviorCountBox
 
   @Override public boolean toggle()
   {
-    toggled = !toggled;
+    setToggled( !toggled );
+    return toggled;
+  }
+
+  /**
+   * Turns the box on or off without flipping its current state, e.g. after an undo
+   */
+  public void setToggled( boolean toggled )
+  {
+    this.toggled = toggled;
     if (toggled) {
       this.setStyle( TOGGLED_STYLE );
     } else {
       this.setStyle( "" );
     }
-
-    return toggled;
   }
 
   @Override public void setCount( Integer millis )
@@ -36,6 +44,12 @@ public class ContinuousCountBox extends BehaviorCountBox
       seconds = 0;
     }
 
+    // This gets called every frame, so only touch the label when the displayed value changes
+    if (seconds == displayedSeconds) {
+      return;
+    }
+
+    displayedSeconds = seconds;
     this.countLbl.setText( "" + seconds );
   }
 }
@@ -0,0 +1,42 @@
+package com.threebird.recorder.controllers;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+
+import javafx.scene.input.KeyCode;
+
+public class KeyDispatchTableTest
+{
+  @Test public void get_byKeyCode()
+  {
+    KeyDispatchTable table = new KeyDispatchTable();
+    KeyBehaviorMapping kbm = new KeyBehaviorMapping( "uuid", MappableChar.Q, "hit", false, false );
+    table.put( kbm, null );
+
+    assertSame( kbm, table.get( KeyCode.Q ).mapping );
+    assertNull( table.get( KeyCode.W ) );
+    assertNull( table.get( KeyCode.F1 ) );
+
+    table.remove( MappableChar.Q );
+    assertNull( table.get( KeyCode.Q ) );
+  }
+
+  @Test public void get_everyMappableChar()
+  {
+    KeyDispatchTable table = new KeyDispatchTable();
+    for (MappableChar mc : MappableChar.values()) {
+      table.put( new KeyBehaviorMapping( "uuid", mc, mc.toString(), false, false ), null );
+    }
+
+    for (MappableChar mc : MappableChar.values()) {
+      assertSame( mc, table.get( mc.code ).mapping.key );
+    }
+    assertNull( table.get( KeyCode.SPACE ) );
+    assertNull( table.get( KeyCode.SHIFT ) );
+  }
+}
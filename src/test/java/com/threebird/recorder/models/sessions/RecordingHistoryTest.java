@@ -0,0 +1,94 @@
+package com.threebird.recorder.models.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.sessions.RecordingHistory.Entry;
+
+public class RecordingHistoryTest
+{
+  private static class Logged implements Entry
+  {
+    final MappableChar key;
+    final List< MappableChar > log;
+    boolean live = true;
+
+    Logged( MappableChar key, List< MappableChar > log )
+    {
+      this.key = key;
+      this.log = log;
+      log.add( key );
+    }
+
+    @Override public MappableChar key()
+    {
+      return key;
+    }
+
+    @Override public boolean isLive()
+    {
+      return live;
+    }
+
+    @Override public void undo()
+    {
+      log.remove( log.size() - 1 );
+    }
+
+    @Override public void redo()
+    {
+      log.add( key );
+    }
+  }
+
+  @Test public void undoThenRedo_restoresOrder()
+  {
+    List< MappableChar > log = Lists.newArrayList();
+    RecordingHistory history = new RecordingHistory();
+    history.push( new Logged( MappableChar.A, log ) );
+    history.push( new Logged( MappableChar.B, log ) );
+
+    assertEquals( MappableChar.B, history.undo().key() );
+    assertEquals( MappableChar.A, history.undo().key() );
+    assertNull( history.undo() );
+    assertEquals( 0, log.size() );
+
+    history.redo();
+    history.redo();
+    assertNull( history.redo() );
+    assertEquals( Lists.newArrayList( MappableChar.A, MappableChar.B ), log );
+  }
+
+  @Test public void push_clearsRedo()
+  {
+    List< MappableChar > log = Lists.newArrayList();
+    RecordingHistory history = new RecordingHistory();
+    history.push( new Logged( MappableChar.A, log ) );
+    history.undo();
+
+    history.push( new Logged( MappableChar.C, log ) );
+
+    assertNull( history.redo() );
+    assertEquals( Lists.newArrayList( MappableChar.C ), log );
+  }
+
+  @Test public void deadEntries_areSkipped()
+  {
+    List< MappableChar > log = Lists.newArrayList();
+    RecordingHistory history = new RecordingHistory();
+    Logged a = new Logged( MappableChar.A, log );
+    Logged b = new Logged( MappableChar.B, log );
+    history.push( a );
+    history.push( b );
+    b.live = false;
+
+    assertSame( a, history.undo() );
+  }
+}
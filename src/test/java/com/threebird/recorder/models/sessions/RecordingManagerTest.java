@@ -0,0 +1,131 @@
+package com.threebird.recorder.models.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.behaviors.ContinuousBehavior;
+import com.threebird.recorder.models.behaviors.DiscreteBehavior;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.persistence.SaveScheduler.Priority;
+
+import javafx.beans.property.SimpleIntegerProperty;
+
+public class RecordingManagerTest
+{
+  /**
+   * Records saves instead of writing files
+   */
+  private static class TestManager extends RecordingManager
+  {
+    final List< Priority > saves = Lists.newArrayList();
+    int coalescedSaves = 0;
+
+    TestManager( SchemaVersion schema )
+    {
+      super( schema, "unused" );
+    }
+
+    @Override void persist( Priority priority )
+    {
+      saves.add( priority );
+    }
+
+    @Override void persistSoon()
+    {
+      coalescedSaves++;
+    }
+  }
+
+  @Test public void undoRedo_restoresCounts() throws Exception
+  {
+    TestManager manager = new TestManager( schema() );
+    SimpleIntegerProperty hits = new SimpleIntegerProperty( 0 );
+    ContinuousCounter cries = new ContinuousCounter();
+    manager.discreteCounts.put( MappableChar.D, hits );
+    manager.continuousCounts.put( MappableChar.C, cries );
+    manager.clock.start();
+
+    manager.log( new DiscreteBehavior( "d", MappableChar.D, "hit", manager.count() ) );
+    manager.startContinuous( new ContinuousBehavior( "c", MappableChar.C, "cry", manager.count(), null ) );
+    assertEquals( 1, hits.get() );
+    assertTrue( cries.isRunning() );
+
+    // An open continuous behavior is cancelled, then restarted
+    assertEquals( MappableChar.C, manager.undo() );
+    assertFalse( cries.isRunning() );
+    assertTrue( manager.midContinuous.isEmpty() );
+    assertEquals( MappableChar.C, manager.redo() );
+    assertTrue( cries.isRunning() );
+
+    Thread.sleep( 20 );
+    manager.stopContinuous( MappableChar.C );
+    int duration = manager.continuous.get( 0 ).getDuration();
+    assertTrue( duration > 0 );
+    assertEquals( duration, cries.total( manager.count() ) );
+
+    // Undoing the closed behavior skips its dead open entry, so the next undo reaches the discrete one
+    assertEquals( MappableChar.C, manager.undo() );
+    assertTrue( manager.continuous.isEmpty() );
+    assertEquals( 0, cries.total( manager.count() ) );
+    assertEquals( MappableChar.D, manager.undo() );
+    assertTrue( manager.discrete.isEmpty() );
+    assertEquals( 0, hits.get() );
+    assertEquals( null, manager.undo() );
+
+    assertEquals( MappableChar.D, manager.redo() );
+    assertEquals( 1, hits.get() );
+    assertEquals( MappableChar.C, manager.redo() );
+    assertEquals( 1, manager.continuous.size() );
+    assertEquals( duration, cries.total( manager.count() ) );
+    assertEquals( null, manager.redo() );
+    assertEquals( 6, manager.coalescedSaves );
+  }
+
+  @Test public void resolveUnknowns_remapsHistoryAndSavesOnce()
+  {
+    SchemaVersion schema = schema();
+    TestManager manager = new TestManager( schema );
+    manager.discreteCounts.put( MappableChar.D, new SimpleIntegerProperty( 0 ) );
+    for (MappableChar mc : EnumSet.of( MappableChar.X, MappableChar.Y )) {
+      manager.unknowns.put( mc, new KeyBehaviorMapping( null, mc, "[unknown]", false, false ) );
+      manager.discreteCounts.put( mc, new SimpleIntegerProperty( 0 ) );
+    }
+
+    manager.log( new DiscreteBehavior( "d", MappableChar.D, "hit", 10 ) );
+    manager.log( new DiscreteBehavior( null, MappableChar.X, "[unknown]", 20 ) );
+    manager.log( new DiscreteBehavior( null, MappableChar.Y, "[unknown]", 30 ) );
+
+    // 'x' is kept as a new behavior, 'y' is discarded
+    schema.behaviors.add( new KeyBehaviorMapping( "x", 'x', "kick", false, false ) );
+    manager.saves.clear();
+    manager.resolveUnknowns( EnumSet.of( MappableChar.X ) );
+
+    assertEquals( Lists.newArrayList( Priority.FINAL ), manager.saves );
+    assertEquals( 2, manager.discrete.size() );
+    DiscreteBehavior kick = manager.discrete.get( 1 );
+    assertEquals( "x", kick.uuid );
+    assertEquals( "kick", kick.name );
+
+    // The discarded 'y' can't be undone any more; the remapped 'x' can
+    assertEquals( MappableChar.X, manager.undo() );
+    assertEquals( 1, manager.discrete.size() );
+    assertEquals( MappableChar.D, manager.discrete.get( 0 ).key );
+  }
+
+  private static SchemaVersion schema()
+  {
+    SchemaVersion schema = new SchemaVersion();
+    schema.behaviors = Lists.newArrayList( new KeyBehaviorMapping( "d", 'd', "hit", false, false ),
+                                           new KeyBehaviorMapping( "c", 'c', "cry", true, false ) );
+    return schema;
+  }
+}
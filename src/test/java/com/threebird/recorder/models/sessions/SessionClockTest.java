@@ -0,0 +1,29 @@
+package com.threebird.recorder.models.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SessionClockTest
+{
+  @Test public void stopAt_holdsTheClockAtTheLimit() throws Exception
+  {
+    SessionClock clock = new SessionClock();
+    clock.stopAt( 5 );
+
+    clock.start();
+    Thread.sleep( 30 );
+    assertEquals( 5, clock.millis() );
+
+    // However late the pause comes, the session is exactly as long as the limit
+    clock.pause();
+    assertEquals( 5, clock.millis() );
+
+    // Continuing picks up from the limit and runs past it
+    clock.start();
+    Thread.sleep( 30 );
+    clock.pause();
+    assertTrue( clock.millis() >= 5 + 30 );
+  }
+}
@@ -0,0 +1,92 @@
+package com.threebird.recorder.models.sessions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.models.MappableChar;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+
+public class SessionReplayTest
+{
+  private static final long MILLI = 1000000L;
+
+  @Test public void seek_restoresCounts()
+  {
+    AtomicLong now = new AtomicLong( 0 );
+    SessionReplay replay = new SessionReplay( session(), new ReplayClock( 60000, now::get ) );
+
+    // The archived behavior wasn't recorded, so there's nothing to show for it
+    assertEquals( 2, replay.behaviors().size() );
+
+    replay.clock.seek( 30000 );
+    int t = replay.clock.millis();
+    assertEquals( 30000, t );
+    assertEquals( 2, replay.count( MappableChar.D, t ) );
+    assertEquals( 10000 + 5000, replay.occupancy( MappableChar.C, t ) );
+    assertTrue( replay.isRunning( MappableChar.C, t ) );
+
+    replay.clock.seek( 1000 );
+    t = replay.clock.millis();
+    assertEquals( 1, replay.count( MappableChar.D, t ) );
+    assertEquals( 1000, replay.occupancy( MappableChar.C, t ) );
+
+    replay.clock.seek( 100000 );
+    assertEquals( 60000, replay.clock.millis() );
+    assertTrue( replay.clock.isFinished() );
+    assertEquals( 3, replay.count( MappableChar.D, replay.clock.millis() ) );
+    assertFalse( replay.isRunning( MappableChar.C, replay.clock.millis() ) );
+  }
+
+  @Test public void clock_runsAtSpeed()
+  {
+    AtomicLong now = new AtomicLong( 0 );
+    ReplayClock clock = new ReplayClock( 60000, now::get );
+
+    clock.play();
+    now.addAndGet( 1000 * MILLI );
+    assertEquals( 1000, clock.millis() );
+
+    clock.setSpeed( 8 );
+    now.addAndGet( 1000 * MILLI );
+    assertEquals( 9000, clock.millis() );
+
+    clock.pause();
+    now.addAndGet( 1000 * MILLI );
+    assertEquals( 9000, clock.millis() );
+
+    // Stops at the end, and starts over if played again
+    clock.play();
+    now.addAndGet( 10000 * MILLI );
+    assertEquals( 60000, clock.millis() );
+    assertTrue( clock.isFinished() );
+    clock.pause();
+    clock.play();
+    assertEquals( 0, clock.millis() );
+  }
+
+  private static SessionBean1_1 session()
+  {
+    SessionBean1_1 bean = new SessionBean1_1();
+    bean.duration = 60000;
+    bean.discreteEvents = Lists.newArrayList( new DiscreteEvent( "d", 1000 ),
+                                              new DiscreteEvent( "d", 30000 ),
+                                              new DiscreteEvent( "d", 59000 ) );
+    bean.continuousEvents = Lists.newArrayList( new ContinuousEvent( "c", 0, 10000 ),
+                                                new ContinuousEvent( "c", 25000, 40000 ) );
+    bean.schema = new SchemaVersion();
+    bean.schema.behaviors = Lists.newArrayList( new KeyBehaviorMapping( "d", 'd', "discrete", false, false ),
+                                                new KeyBehaviorMapping( "c", 'c', "continuous", true, false ),
+                                                new KeyBehaviorMapping( "x", 'x', "old", false, true ) );
+    return bean;
+  }
+}
@@ -0,0 +1,87 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+public class DirectoryMonitorTest
+{
+  @Test public void exists_followsChanges() throws Exception
+  {
+    File dir = Files.createTempDirectory( "sessions" ).toFile();
+    File existing = new File( dir, "before.raw" );
+    existing.createNewFile();
+
+    DirectoryMonitor monitor = new DirectoryMonitor();
+    Set< Path > reported = ConcurrentHashMap.newKeySet();
+    monitor.addListener( reported::add );
+
+    try {
+      // Before the directory is watched, the disk is checked
+      assertTrue( monitor.exists( existing ) );
+      assertTrue( monitor.watch( dir ) );
+      assertTrue( monitor.exists( existing ) );
+
+      File created = new File( dir, "after.raw" );
+      assertFalse( monitor.exists( created ) );
+      created.createNewFile();
+      assertTrue( eventually( ( ) -> monitor.exists( created ) ) );
+      assertTrue( eventually( ( ) -> reported.contains( DirectoryMonitor.normalize( created ) ) ) );
+
+      existing.delete();
+      assertTrue( eventually( ( ) -> !monitor.exists( existing ) ) );
+    } finally {
+      monitor.close();
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test public void ignoresCase_matchesFileSystem() throws Exception
+  {
+    File dir = Files.createTempDirectory( "Sessions" ).toFile();
+    File f = new File( dir, "Session.raw" );
+    f.createNewFile();
+
+    try {
+      boolean expected = new File( dir, "SESSION.RAW" ).exists();
+      assertEquals( expected, DirectoryMonitor.ignoresCase( DirectoryMonitor.normalize( dir ) ) );
+    } finally {
+      f.delete();
+      dir.delete();
+    }
+  }
+
+  @Test public void exists_missingDirectory()
+  {
+    DirectoryMonitor monitor = new DirectoryMonitor();
+    assertFalse( monitor.exists( new File( "no-such-directory/session.raw" ) ) );
+    monitor.close();
+  }
+
+  /**
+   * File events are delivered asynchronously, and some platforms poll for them every few seconds
+   */
+  private static boolean eventually( BooleanSupplier condition ) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 15000;
+    while (System.currentTimeMillis() < deadline) {
+      if (condition.getAsBoolean()) {
+        return true;
+      }
+      Thread.sleep( 20 );
+    }
+    return false;
+  }
+}
@@ -0,0 +1,59 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+
+public class KeyBehaviorsTest
+{
+  @Test public void diff_onlyChangedBehaviors()
+  {
+    KeyBehaviorMapping a = new KeyBehaviorMapping( "a", 'a', "hit", false, false );
+    KeyBehaviorMapping b = new KeyBehaviorMapping( "b", 'b', "cry", true, false );
+    KeyBehaviorMapping c = new KeyBehaviorMapping( "c", 'c', "run", false, false );
+    KeyBehaviorMapping bEdited = new KeyBehaviorMapping( "b", 'b', "cry", true, true );
+    KeyBehaviorMapping d = new KeyBehaviorMapping( "d", 'd', "sit", false, false );
+
+    List< KeyBehaviors.Change > changes =
+        KeyBehaviors.diff( 2, Lists.newArrayList( a, b, c ), Lists.newArrayList( a, bEdited, d ) );
+
+    assertEquals( 3, changes.size() );
+    assertEquals( bEdited, changes.get( 0 ).mapping );
+    assertEquals( d, changes.get( 1 ).mapping );
+    assertEquals( c, changes.get( 2 ).mapping );
+    assertFalse( changes.get( 0 ).removed );
+    assertTrue( changes.get( 2 ).removed );
+    assertTrue( KeyBehaviors.diff( 3, Lists.newArrayList( a ), Lists.newArrayList( a ) ).isEmpty() );
+  }
+
+  @Test public void replay_rebuildsEachVersionInOrder()
+  {
+    KeyBehaviorMapping a = new KeyBehaviorMapping( "a", 'a', "hit", false, false );
+    KeyBehaviorMapping b = new KeyBehaviorMapping( "b", 'b', "cry", true, false );
+    KeyBehaviorMapping aEdited = new KeyBehaviorMapping( "a", 'a', "hit hard", false, false );
+
+    List< KeyBehaviors.Change > changes = Lists.newArrayList();
+    changes.addAll( KeyBehaviors.diff( 1, Lists.newArrayList(), Lists.newArrayList( a, b ) ) );
+    changes.addAll( KeyBehaviors.diff( 3, Lists.newArrayList( a, b ), Lists.newArrayList( aEdited, b ) ) );
+    changes.addAll( KeyBehaviors.diff( 4, Lists.newArrayList( aEdited, b ), Lists.newArrayList( aEdited ) ) );
+
+    // Schemas.forEachVersion walks the versions like this, one after another
+    KeyBehaviors.Replay replay = new KeyBehaviors.Replay( changes );
+    assertEquals( Lists.newArrayList( a, b ), replay.upTo( 1 ) );
+    assertEquals( Lists.newArrayList( a, b ), replay.upTo( 2 ) );
+    assertEquals( Lists.newArrayList( aEdited, b ), replay.upTo( 3 ) );
+    List< KeyBehaviorMapping > v4 = replay.upTo( 4 );
+    assertEquals( Lists.newArrayList( aEdited ), v4 );
+
+    // Each version gets its own copies, so editing one doesn't change the next
+    v4.get( 0 ).description = "changed";
+    assertEquals( "hit hard", replay.upTo( 4 ).get( 0 ).description );
+  }
+}
@@ -0,0 +1,83 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+
+public class RawArchiveTest
+{
+  @Test public void write_gzipsByName() throws Exception
+  {
+    File dir = Files.createTempDirectory( "sessions" ).toFile();
+    File gz = new File( dir, "session" + RawArchive.COMPRESSED_EXTENSION );
+    try {
+      GsonUtils.write( gz, session() );
+
+      try (InputStream in = Files.newInputStream( gz.toPath() )) {
+        assertEquals( 0x1f, in.read() );
+        assertEquals( 0x8b, in.read() );
+      }
+      assertEquals( 400, GsonUtils.get( gz, new SessionBean1_1() ).discreteEvents.size() );
+    } finally {
+      gz.delete();
+      dir.delete();
+    }
+  }
+
+  @Test public void compact_onlyOldSessions() throws Exception
+  {
+    File dir = Files.createTempDirectory( "sessions" ).toFile();
+    File old = new File( dir, "old.raw" );
+    File recent = new File( dir, "recent.raw" );
+    try {
+      GsonUtils.write( old, session() );
+      GsonUtils.write( recent, session() );
+      long mtime = (System.currentTimeMillis() - TimeUnit.DAYS.toMillis( 10 )) / 1000 * 1000;
+      old.setLastModified( mtime );
+      long size = old.length();
+
+      RawArchive.Report report = RawArchive.compact( Lists.newArrayList( dir ), 7 );
+
+      File gz = new File( dir, "old" + RawArchive.COMPRESSED_EXTENSION );
+      assertEquals( 1, report.files );
+      assertEquals( 0, report.failures );
+      assertEquals( size, report.bytesBefore );
+      assertTrue( report.bytesSaved() > size / 2 );
+      assertFalse( old.exists() );
+      assertTrue( gz.exists() );
+      assertEquals( mtime, gz.lastModified() );
+      assertTrue( recent.exists() );
+
+      SessionBean1_1 bean = GsonUtils.get( gz, new SessionBean1_1() );
+      assertEquals( 400, bean.discreteEvents.size() );
+      assertEquals( 123456, bean.duration );
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static SessionBean1_1 session()
+  {
+    SessionBean1_1 bean = new SessionBean1_1();
+    bean.duration = 123456;
+    bean.discreteEvents = Lists.newArrayList();
+    for (int i = 0; i < 400; i++) {
+      bean.discreteEvents.add( new DiscreteEvent( "0f8fad5b-d9cb-469f-a165-70867728950e", i * 1000 ) );
+    }
+    return bean;
+  }
+}
@@ -0,0 +1,104 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.persistence.SaveScheduler.Priority;
+
+public class SaveSchedulerTest
+{
+  @Test public void queuedWrites_areCoalesced() throws Exception
+  {
+    SaveScheduler scheduler = new SaveScheduler( 1 );
+    File blocker = new File( "blocker" );
+    File target = new File( "target" );
+    CountDownLatch release = new CountDownLatch( 1 );
+    List< Long > written = Lists.newCopyOnWriteArrayList();
+
+    // Keep the only worker busy so the next writes have to wait
+    block( scheduler, blocker, release );
+
+    List< CompletableFuture< Long > > results = Lists.newArrayList();
+    for (long i = 1; i <= 100; i++) {
+      long value = i;
+      results.add( scheduler.schedule( target, Priority.CHECKPOINT, ( ) -> {
+        written.add( value );
+        return value;
+      } ) );
+    }
+
+    release.countDown();
+    for (CompletableFuture< Long > result : results) {
+      assertEquals( 100L, (long) result.get( 5, TimeUnit.SECONDS ) );
+    }
+
+    assertEquals( Lists.newArrayList( 100L ), written );
+    assertEquals( 99, scheduler.coalescedCount() );
+    scheduler.shutdown( 1000 );
+  }
+
+  @Test public void finalSaves_runBeforeCheckpoints() throws Exception
+  {
+    SaveScheduler scheduler = new SaveScheduler( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    List< String > order = Lists.newCopyOnWriteArrayList();
+
+    block( scheduler, new File( "blocker" ), release );
+    CompletableFuture< Long > checkpoint = scheduler.schedule( new File( "a" ), Priority.CHECKPOINT, ( ) -> {
+      order.add( "checkpoint" );
+      return 0L;
+    } );
+    CompletableFuture< Long > fin = scheduler.schedule( new File( "b" ), Priority.FINAL, ( ) -> {
+      order.add( "final" );
+      return 0L;
+    } );
+
+    assertEquals( 2, scheduler.queueDepth() );
+    release.countDown();
+    CompletableFuture.allOf( checkpoint, fin ).get( 5, TimeUnit.SECONDS );
+
+    assertEquals( Lists.newArrayList( "final", "checkpoint" ), order );
+    scheduler.shutdown( 1000 );
+  }
+
+  @Test public void shutdown_cancelsWhatCantRun() throws Exception
+  {
+    SaveScheduler scheduler = new SaveScheduler( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+
+    CompletableFuture< Long > running = block( scheduler, new File( "blocker" ), release );
+    CompletableFuture< Long > queued = scheduler.schedule( new File( "a" ), Priority.CHECKPOINT, ( ) -> 0L );
+
+    scheduler.shutdown( 50 );
+    assertTrue( queued.isCancelled() );
+    assertTrue( scheduler.schedule( new File( "b" ), Priority.FINAL, ( ) -> 0L ).isCancelled() );
+
+    release.countDown();
+    assertEquals( 0L, (long) running.get( 5, TimeUnit.SECONDS ) );
+  }
+
+  /**
+   * Schedules a write that holds its worker until 'release' counts down, and waits for it to start
+   */
+  private static CompletableFuture< Long > block( SaveScheduler scheduler, File file, CountDownLatch release )
+      throws InterruptedException
+  {
+    CountDownLatch started = new CountDownLatch( 1 );
+    CompletableFuture< Long > result = scheduler.schedule( file, Priority.CHECKPOINT, ( ) -> {
+      started.countDown();
+      release.await();
+      return 0L;
+    } );
+    assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+    return result;
+  }
+}
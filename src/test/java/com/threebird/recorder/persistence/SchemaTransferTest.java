@@ -0,0 +1,129 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+public class SchemaTransferTest
+{
+  private static final String SCHEMA = UUID.randomUUID().toString();
+
+  @Test public void inspect_readsEveryVersion() throws Exception
+  {
+    File f = schemaFile( version( 1 ), version( 2 ), version( 3 ) );
+
+    SchemaTransfer.Plan plan = SchemaTransfer.inspect( f );
+    assertEquals( SCHEMA, plan.schemaUuid );
+    assertEquals( 3, plan.versions() );
+    assertEquals( 3, (int) plan.latest.versionNumber );
+    assertEquals( "c", plan.latest.behaviors.get( 0 ).description );
+  }
+
+  @Test public void inspect_empty() throws Exception
+  {
+    assertEquals( 0, SchemaTransfer.inspect( schemaFile() ).versions() );
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void inspect_outOfOrder() throws Exception
+  {
+    SchemaTransfer.inspect( schemaFile( version( 1 ), version( 3 ) ) );
+  }
+
+  @Test public void inspect_checksBehaviors() throws Exception
+  {
+    String a = behavior( UUID.randomUUID().toString(), "a", false );
+    String[] invalid = { behavior( "not-a-uuid", "a", false ),
+                         a + "," + a,
+                         a + "," + behavior( UUID.randomUUID().toString(), "a", false ),
+                         "{\"uuid\":null,\"description\":\"c\"}" };
+    for (String behaviors : invalid) {
+      try {
+        SchemaTransfer.inspect( schemaFile( version( 1 ), version( SCHEMA, 2, behaviors ) ) );
+        fail( behaviors );
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+
+    // Keys only have to be unique among behaviors that aren't archived, and new behaviors don't have a uuid yet
+    String ok = a + "," + behavior( UUID.randomUUID().toString(), "a", true ) + "," + behavior( null, "b", false );
+    assertEquals( 2, SchemaTransfer.inspect( schemaFile( version( 1 ), version( SCHEMA, 2, ok ) ) ).versions() );
+  }
+
+  @Test public void readAll_directoriesAndZips() throws Exception
+  {
+    File dir = java.nio.file.Files.createTempDirectory( "schemas" ).toFile();
+    File zip = new File( dir, "more" + SchemaTransfer.ZIP_EXTENSION );
+    try {
+      String other = UUID.randomUUID().toString();
+      Files.write( "[" + version( SCHEMA, 1 ) + "," + version( SCHEMA, 2 ) + "]",
+                   new File( dir, "a" + SchemaTransfer.EXTENSION ),
+                   StandardCharsets.UTF_8 );
+      try (ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) )) {
+        out.putNextEntry( new ZipEntry( "b" + SchemaTransfer.EXTENSION ) );
+        out.write( ("[" + version( other, 1 ) + "]").getBytes( StandardCharsets.UTF_8 ) );
+        out.closeEntry();
+      }
+
+      SchemaTransfer.Bulk bulk = SchemaTransfer.readAll( Lists.newArrayList( dir, zip ) );
+      assertEquals( 2, bulk.schemas() );
+      assertEquals( 3, bulk.versions() );
+      assertEquals( Sets.newHashSet( SCHEMA, other ), Sets.newHashSet( bulk.schemaUuids() ) );
+
+      // The same schema in two files is ambiguous
+      File copy = new File( dir, "copy" + SchemaTransfer.EXTENSION );
+      Files.copy( new File( dir, "a" + SchemaTransfer.EXTENSION ), copy );
+      try {
+        SchemaTransfer.readAll( Lists.newArrayList( dir ) );
+        fail();
+      } catch (IllegalArgumentException expected) {
+      }
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static String version( int n )
+  {
+    return version( SCHEMA, n );
+  }
+
+  private static String version( String schema, int n )
+  {
+    return version( schema, n, behavior( UUID.randomUUID().toString(), "a", false ) );
+  }
+
+  private static String version( String schema, int n, String behaviors )
+  {
+    return "{\"uuid\":\"" + schema + "\",\"versionUuid\":\"" + UUID.randomUUID() + "\",\"versionNumber\":" + n
+        + ",\"client\":\"Ann\",\"project\":\"P\",\"behaviors\":[" + behaviors + "]}";
+  }
+
+  private static String behavior( String uuid, String key, boolean archived )
+  {
+    return "{\"uuid\":" + (uuid == null ? "null" : "\"" + uuid + "\"") + ",\"key\":\"" + key
+        + "\",\"description\":\"c\",\"isContinuous\":false,\"archived\":" + archived + "}";
+  }
+
+  private static File schemaFile( String... versions ) throws Exception
+  {
+    File f = File.createTempFile( "versions", SchemaTransfer.EXTENSION );
+    f.deleteOnExit();
+    Files.write( "[" + String.join( ",", versions ) + "]", f, StandardCharsets.UTF_8 );
+    return f;
+  }
+}
@@ -0,0 +1,74 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class SessionCatalogTest
+{
+  @Test public void read_version1_1()
+  {
+    File f = raw( "{\"uuid\":\"s1\",\"blVersion\":\"1.1.2\",\"versionUuid\":\"v1\",\"sessionNumber\":3,"
+        + "\"duration\":60000,\"startTime\":1500000000000,"
+        + "\"schema\":{\"uuid\":\"schema\",\"versionNumber\":2,\"client\":\"Ann\",\"project\":\"P\"},"
+        + "\"attributes\":{\"observer\":\"Obs\",\"therapist\":\"Ther\",\"condition\":\"C\"},"
+        + "\"discreteEvents\":[],\"continuousEvents\":[]}" );
+
+    SessionCatalog.Entry e = SessionCatalog.read( f );
+    assertEquals( "s1", e.sessionUuid );
+    assertEquals( "schema", e.schemaUuid );
+    assertEquals( "v1", e.schemaVersionUuid );
+    assertEquals( 2, (int) e.schemaVersionNumber );
+    assertEquals( "Ann", e.client );
+    assertEquals( "Obs", e.observer );
+    assertNull( e.location );
+    assertEquals( 3, (int) e.sessionNumber );
+    assertEquals( 1500000000000L, (long) e.startTime );
+    assertEquals( 60000L, (long) e.duration );
+    assertEquals( f.length(), e.size );
+  }
+
+  @Test public void read_version1_0()
+  {
+    File f = raw( "{\"uuid\":\"s0\",\"version\":\"1.0\",\"observer\":\"Obs\",\"sessionNumber\":1,"
+        + "\"totalTimeMillis\":5000,\"startTime\":\"2015-06-01T10:00:00.000Z\","
+        + "\"schema\":{\"uuid\":\"schema\",\"client\":\"Ann\",\"project\":\"P\"}}" );
+
+    SessionCatalog.Entry e = SessionCatalog.read( f );
+    assertEquals( "s0", e.sessionUuid );
+    assertEquals( "Ann", e.client );
+    assertEquals( "Obs", e.observer );
+    assertNull( e.schemaVersionUuid );
+    assertEquals( new DateTime( "2015-06-01T10:00:00.000Z" ).getMillis(), (long) e.startTime );
+    assertEquals( 5000L, (long) e.duration );
+  }
+
+  @Test public void read_unparseable()
+  {
+    File f = raw( "not json" );
+
+    SessionCatalog.Entry e = SessionCatalog.read( f );
+    assertNull( e.sessionUuid );
+    assertEquals( f.length(), e.size );
+  }
+
+  private static File raw( String json )
+  {
+    try {
+      File f = File.createTempFile( "session", ".raw" );
+      f.deleteOnExit();
+      Files.write( json, f, StandardCharsets.UTF_8 );
+      return f;
+    } catch (IOException e) {
+      throw new RuntimeException( e );
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ThrottledWriterTest
+{
+  @Test public void burstOfMoves_isCoalesced() throws Exception
+  {
+    List< Double > writes = Lists.newCopyOnWriteArrayList();
+    ThrottledWriter< Double > writer = new ThrottledWriter< Double >( 200, writes::add );
+
+    // Simulate dragging a window across the screen
+    for (int x = 1; x <= 1000; x++) {
+      writer.request( (double) x );
+    }
+    writer.shutdown();
+
+    assertTrue( "Expected a handful of writes but got " + writes.size(), writes.size() <= 3 );
+    assertEquals( 1000.0, writes.get( writes.size() - 1 ), 0 );
+  }
+
+  @Test public void flush_withNothingPending_doesNotWrite()
+  {
+    List< Double > writes = Lists.newCopyOnWriteArrayList();
+    ThrottledWriter< Double > writer = new ThrottledWriter< Double >( 200, writes::add );
+
+    writer.flush();
+
+    assertEquals( 0, writes.size() );
+  }
+
+  @Test public void requestsAfterInterval_areWritten() throws Exception
+  {
+    List< Double > writes = Lists.newCopyOnWriteArrayList();
+    ThrottledWriter< Double > writer = new ThrottledWriter< Double >( 50, writes::add );
+
+    writer.request( 1.0 );
+    Thread.sleep( 150 );
+    writer.request( 2.0 );
+    Thread.sleep( 150 );
+
+    assertEquals( Lists.newArrayList( 1.0, 2.0 ), writes );
+  }
+}
@@ -0,0 +1,66 @@
+package com.threebird.recorder.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.threebird.recorder.utils.ioa.KeyToInterval;
+
+public class WriteBinIntervalsTest
+{
+  @Test public void write_csv() throws Exception
+  {
+    HashMap< String, Multiset< Integer > > map = Maps.newLinkedHashMap();
+    map.put( "a", HashMultiset.create( Arrays.asList( 0, 0, 2 ) ) );
+    map.put( "b", HashMultiset.create( Arrays.asList( 1 ) ) );
+    KeyToInterval bins = new KeyToInterval( map, 3, 10 );
+
+    File f = File.createTempFile( "bins", ".csv" );
+    f.deleteOnExit();
+    WriteBinIntervals.write( bins, false, f );
+    WriteBinIntervals.write( bins, true, f );
+
+    List< String > lines = Files.readAllLines( f.toPath(), StandardCharsets.UTF_8 );
+    assertEquals( 9, lines.size() );
+    assertEquals( "Interval,Time Range (s),a,b", lines.get( 0 ) );
+    assertEquals( "0,0 - 9,2,0", lines.get( 1 ) );
+    assertEquals( "1,10 - 19,0,1", lines.get( 2 ) );
+    assertEquals( "2,20 - 29,1,0", lines.get( 3 ) );
+    assertEquals( "", lines.get( 4 ) );
+    assertEquals( "Interval,Time Range (s),a,b", lines.get( 5 ) );
+  }
+
+  @Test public void write_xls() throws Exception
+  {
+    HashMap< String, Multiset< Integer > > map = Maps.newLinkedHashMap();
+    map.put( "a", HashMultiset.create( Arrays.asList( 0, 0, 2 ) ) );
+    map.put( "b", HashMultiset.create( Arrays.asList( 1 ) ) );
+    KeyToInterval bins = new KeyToInterval( map, 3, 10 );
+
+    File f = File.createTempFile( "bins", ".xls" );
+    f.deleteOnExit();
+    WriteBinIntervals.write( bins, false, f );
+
+    try (Workbook wb = WorkbookFactory.create( f )) {
+      Sheet s = wb.getSheetAt( 0 );
+      assertEquals( 4, s.getPhysicalNumberOfRows() );
+      assertEquals( "b", s.getRow( 0 ).getCell( 3 ).getStringCellValue() );
+      assertEquals( "0 - 9", s.getRow( 1 ).getCell( 1 ).getStringCellValue() );
+      assertEquals( 2, (int) s.getRow( 1 ).getCell( 2 ).getNumericCellValue() );
+      assertEquals( 1, (int) s.getRow( 2 ).getCell( 3 ).getNumericCellValue() );
+    }
+  }
+}
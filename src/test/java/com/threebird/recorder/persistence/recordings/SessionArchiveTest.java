@@ -0,0 +1,107 @@
+package com.threebird.recorder.persistence.recordings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+
+public class SessionArchiveTest
+{
+  @Test public void append_indexesAndReadsBack() throws Exception
+  {
+    File f = File.createTempFile( "sessions", SessionArchive.EXTENSION );
+    f.deleteOnExit();
+
+    assertEquals( 2, SessionArchive.append( f, Lists.newArrayList( session( "s1", 1000, "hit" ),
+                                                                   session( "s2", 5000, "cry" ) ) ) );
+    long sizeAfterFirst = f.length();
+
+    // Appending again skips what's already there and leaves the earlier bytes alone
+    assertEquals( 1, SessionArchive.append( f, Lists.newArrayList( session( "s2", 5000, "cry" ),
+                                                                   session( "s3", 9000, "hit" ) ) ) );
+    assertTrue( f.length() > sizeAfterFirst );
+
+    try (SessionArchive.Reader reader = SessionArchive.Reader.open( f )) {
+      assertEquals( 3, reader.entries().size() );
+      assertEquals( 9000, reader.entry( "s3" ).startTime );
+      assertEquals( 69000, reader.entry( "s3" ).endTime );
+
+      assertEquals( Lists.newArrayList( "s1", "s3" ),
+                    Lists.transform( reader.withBehavior( "hit" ), e -> e.sessionUuid ) );
+      assertEquals( 1, reader.withBehavior( "cry" ).size() );
+      assertTrue( reader.withBehavior( "other" ).isEmpty() );
+
+      SessionBean1_1 s2 = reader.read( "s2" );
+      assertEquals( 5000, s2.startTime );
+      assertEquals( 1, s2.continuousEvents.size() );
+      assertNull( reader.read( "missing" ) );
+    }
+
+    File ref = SessionArchive.reference( f, "s1" );
+    assertTrue( SessionArchive.isReference( ref ) );
+    assertEquals( f, SessionArchive.archiveOf( ref ) );
+    assertTrue( SessionArchive.exists( ref ) );
+    assertFalse( SessionArchive.exists( SessionArchive.reference( f, "missing" ) ) );
+    assertEquals( 2, SessionArchive.read( ref ).discreteEvents.size() );
+  }
+
+  @Test public void append_recoversFromInterruptedAppend() throws Exception
+  {
+    File f = File.createTempFile( "sessions", SessionArchive.EXTENSION );
+    f.deleteOnExit();
+    SessionArchive.append( f, Lists.newArrayList( session( "s1", 1000, "hit" ), session( "s2", 5000, "cry" ) ) );
+    byte[] good = Files.readAllBytes( f.toPath() );
+    SessionArchive.append( f, Lists.newArrayList( session( "s3", 9000, "hit" ) ) );
+    byte[] appended = Files.readAllBytes( f.toPath() );
+
+    // Cut off part way through the next session, its footer, and its trailer
+    int[] cuts = { good.length + 1, good.length + 40, appended.length - 30, appended.length - 1 };
+    for (int cut : cuts) {
+      Files.write( f.toPath(), Arrays.copyOf( appended, cut ) );
+      try (SessionArchive.Reader reader = SessionArchive.Reader.open( f )) {
+        assertEquals( "cut at " + cut, 2, reader.entries().size() );
+      }
+
+      assertEquals( 1, SessionArchive.append( f, Lists.newArrayList( session( "s3", 9000, "hit" ) ) ) );
+      assertEquals( appended.length, f.length() );
+      assertEquals( 9000, SessionArchive.read( SessionArchive.reference( f, "s3" ) ).startTime );
+    }
+
+    // Leftovers that happen to contain the trailer's magic number aren't mistaken for a trailer
+    byte[] junk = Arrays.copyOf( good, good.length + 24 );
+    System.arraycopy( "BLSA".getBytes( StandardCharsets.US_ASCII ), 0, junk, junk.length - 4, 4 );
+    Files.write( f.toPath(), junk );
+    try (SessionArchive.Reader reader = SessionArchive.Reader.open( f )) {
+      assertEquals( 2, reader.entries().size() );
+    }
+  }
+
+  private static SessionBean1_1 session( String uuid, long startTime, String behaviorUuid )
+  {
+    SessionBean1_1 bean = new SessionBean1_1();
+    bean.uuid = uuid;
+    bean.startTime = startTime;
+    bean.duration = 60000;
+    bean.discreteEvents = Lists.newArrayList();
+    bean.continuousEvents = Lists.newArrayList();
+    if (behaviorUuid.equals( "cry" )) {
+      bean.continuousEvents.add( new ContinuousEvent( behaviorUuid, 0, 1000 ) );
+    } else {
+      bean.discreteEvents.add( new DiscreteEvent( behaviorUuid, 10 ) );
+      bean.discreteEvents.add( new DiscreteEvent( behaviorUuid, 20 ) );
+    }
+    return bean;
+  }
+}
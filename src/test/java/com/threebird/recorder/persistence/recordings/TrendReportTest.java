@@ -0,0 +1,54 @@
+package com.threebird.recorder.persistence.recordings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.persistence.GsonUtils;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.persistence.recordings.TrendReport.SessionMetrics;
+
+public class TrendReportTest
+{
+  @Test public void compute_totalsByBehaviorUuid() throws Exception
+  {
+    SessionBean1_1 bean = new SessionBean1_1();
+    bean.startTime = 1000;
+    bean.duration = 120000;
+    bean.sessionNumber = 4;
+    bean.attributes = Maps.newHashMap();
+    bean.attributes.put( "observer", "Obs" );
+    bean.schema = new SchemaVersion();
+    bean.schema.behaviors.add( new KeyBehaviorMapping( "hit", "h", "Hit", false, false ) );
+    bean.schema.behaviors.add( new KeyBehaviorMapping( "cry", "c", "Cry", true, false ) );
+    bean.discreteEvents = Lists.newArrayList( new DiscreteEvent( "hit", 10 ),
+                                              new DiscreteEvent( "hit", 20 ),
+                                              new DiscreteEvent( "hit", 30 ) );
+    bean.continuousEvents = Lists.newArrayList( new ContinuousEvent( "cry", 0, 1500 ),
+                                                new ContinuousEvent( "cry", 5000, 6000 ) );
+
+    File f = File.createTempFile( "session", ".raw" );
+    f.deleteOnExit();
+    GsonUtils.write( f, bean );
+
+    SessionMetrics m = TrendReport.compute( f );
+    assertEquals( 1000, m.startTime );
+    assertEquals( 120000, m.duration );
+    assertEquals( 4, (int) m.sessionNumber );
+    assertEquals( "Obs", m.attributes.get( "observer" ) );
+    assertEquals( 2, m.behaviors.size() );
+    assertEquals( 3, m.totals.get( "hit" ).count );
+    assertEquals( 2, m.totals.get( "cry" ).count );
+    assertEquals( 2500, m.totals.get( "cry" ).millis );
+    assertNull( m.totals.get( "other" ) );
+  }
+}
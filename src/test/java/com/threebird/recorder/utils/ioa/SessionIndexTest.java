@@ -0,0 +1,71 @@
+package com.threebird.recorder.utils.ioa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.threebird.recorder.models.schemas.KeyBehaviorMapping;
+import com.threebird.recorder.models.schemas.SchemaVersion;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.ContinuousEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
+import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
+import com.threebird.recorder.utils.ioa.SessionIndex.Span;
+
+public class SessionIndexTest
+{
+  @Test public void rangeQueries()
+  {
+    SessionBean1_1 bean = new SessionBean1_1();
+    bean.duration = 60000;
+    bean.discreteEvents = Lists.newArrayList( new DiscreteEvent( "d", 3000 ),
+                                              new DiscreteEvent( "d", 1000 ),
+                                              new DiscreteEvent( "d", 1000 ),
+                                              new DiscreteEvent( "d", 9999 ) );
+    bean.continuousEvents = Lists.newArrayList( new ContinuousEvent( "c", 0, 10000 ),
+                                                new ContinuousEvent( "c", 2000, 3000 ),
+                                                new ContinuousEvent( "c", 20000, 25000 ) );
+    bean.schema = new SchemaVersion();
+    bean.schema.behaviors = Lists.newArrayList( new KeyBehaviorMapping( "d", 'd', "discrete", false, false ),
+                                                new KeyBehaviorMapping( "c", 'c', "continuous", true, false ) );
+
+    SessionIndex index = SessionIndex.of( bean );
+
+    assertEquals( 4, index.count( "d", 0, 60000 ) );
+    assertEquals( 2, index.count( "d", 1000, 3000 ) );
+    assertEquals( 3, index.count( "d", 1000, 3001 ) );
+    assertEquals( 0, index.count( "d", 10000, 60000 ) );
+    assertEquals( 0, index.count( "c", 0, 60000 ) );
+    assertEquals( 0, index.count( "x", 0, 60000 ) );
+
+    assertEquals( 16000, index.occupancy( "c", 0, 60000 ) );
+    assertEquals( 5000 + 1000, index.occupancy( "c", 0, 5000 ) );
+    assertEquals( 2000, index.occupancy( "c", 22000, 24000 ) );
+    assertEquals( 0, index.occupancy( "c", 10000, 20000 ) );
+    assertEquals( 0, index.occupancy( "d", 0, 60000 ) );
+
+    assertTrue( index.isRunning( "c", 0 ) );
+    assertTrue( index.isRunning( "c", 9999 ) );
+    assertFalse( index.isRunning( "c", 10000 ) );
+    assertTrue( index.isRunning( "c", 20000 ) );
+    assertFalse( index.isRunning( "c", 60000 ) );
+    assertFalse( index.isRunning( "d", 1000 ) );
+
+    // 0s-10s touches 11 seconds, 2s-3s touches 2
+    assertEquals( 11 + 2 + 6, index.secondsTouched( "c", 0, 60 ) );
+    assertEquals( 26, index.endSecond() );
+
+    List< Span > spans = index.overlapping( "c", 2500, 20001 );
+    assertEquals( 3, spans.size() );
+    assertEquals( 0, spans.get( 0 ).start );
+    assertEquals( 2000, spans.get( 1 ).start );
+    assertEquals( 20000, spans.get( 2 ).start );
+    assertEquals( 1, index.overlapping( "c", 3000, 20000 ).size() );
+    assertTrue( index.overlapping( "c", 10000, 20000 ).isEmpty() );
+    assertTrue( index.overlapping( "c", 25000, 60000 ).isEmpty() );
+  }
+}
@@ -20,6 +20,7 @@ import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.Continu
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.DiscreteEvent;
 import com.threebird.recorder.persistence.recordings.RecordingRawJson1_1.SessionBean1_1;
 import com.threebird.recorder.utils.ioa.KeyToInterval;
+import com.threebird.recorder.utils.ioa.SessionIndex;
 
 public class IoaUtilsTest
 {
@@ -311,4 +312,23 @@ public class IoaUtilsTest
     assertEquals( expected2, actualContinuous );
   }
 
+  @Test public void partition_index_matchesMap()
+  {
+    for (SessionBean1_1 bean : Lists.newArrayList( standard, empty, multi, zero_len )) {
+      SessionIndex index = SessionIndex.of( bean );
+      for (int blockSize = 1; blockSize <= 5; blockSize++) {
+        HashMap< String, ArrayList< Integer > > mapD = Maps.newHashMap();
+        HashMap< String, ArrayList< Integer > > mapC = Maps.newHashMap();
+        IoaUtils1_1.populateDiscrete( bean, mapD );
+        IoaUtils1_1.populateContinuous( bean, mapC );
+
+        assertEquals( IoaUtils1_1.partition( IoaUtils1_1.createIoaMap( bean ), bean.duration, blockSize ),
+                      IoaUtils1_1.partition( index, blockSize ) );
+        assertEquals( IoaUtils1_1.partition( mapD, bean.duration, blockSize ),
+                      IoaUtils1_1.partitionDiscrete( index, blockSize ) );
+        assertEquals( IoaUtils1_1.partition( mapC, bean.duration, blockSize ),
+                      IoaUtils1_1.partitionContinuous( index, blockSize ) );
+      }
+    }
+  }
 }
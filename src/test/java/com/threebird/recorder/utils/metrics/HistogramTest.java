@@ -0,0 +1,43 @@
+package com.threebird.recorder.utils.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest
+{
+  @Test public void buckets_coverEveryValue()
+  {
+    long[] values = { 0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE };
+    for (long v : values) {
+      int bucket = Histogram.bucketOf( v );
+      assertTrue( "value " + v, Histogram.highestIn( bucket ) >= v );
+      if (bucket > 0) {
+        assertTrue( "value " + v, Histogram.highestIn( bucket - 1 ) < v );
+      }
+    }
+  }
+
+  @Test public void percentile_withinThreePercent()
+  {
+    Histogram h = new Histogram();
+    for (long i = 1; i <= 10000; i++) {
+      h.record( i * 1000 );
+    }
+
+    assertEquals( 10000, h.count() );
+    assertEquals( 10000000, h.max() );
+    assertEquals( 5000500, h.mean(), 1 );
+    assertEquals( 5000000, h.percentile( 50 ), 5000000 * 0.03 );
+    assertEquals( 9900000, h.percentile( 99 ), 9900000 * 0.03 );
+    assertEquals( 10000000, h.percentile( 100 ) );
+  }
+
+  @Test public void empty_isZero()
+  {
+    Histogram h = new Histogram();
+    assertEquals( 0, h.percentile( 99 ) );
+    assertEquals( 0, h.mean(), 0 );
+  }
+}
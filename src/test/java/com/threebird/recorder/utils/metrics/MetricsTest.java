@@ -0,0 +1,23 @@
+package com.threebird.recorder.utils.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MetricsTest
+{
+  @Test public void gauge_sameNameSameGauge()
+  {
+    Gauge g = Metrics.gauge( "test.settable" );
+    g.set( 42 );
+    assertSame( g, Metrics.gauge( "test.settable" ) );
+    assertEquals( 42L, Metrics.snapshot().get( "test.settable" ) );
+  }
+
+  @Test(expected = IllegalStateException.class) public void gauge_supplierCantBeSet()
+  {
+    Metrics.gauge( "test.supplied", ( ) -> 7 );
+    Metrics.gauge( "test.supplied" );
+  }
+}
@@ -0,0 +1,51 @@
+package com.threebird.recorder.utils.metrics;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StallWatchdogTest
+{
+  @Test public void stall_isLoggedWithBlame() throws Exception
+  {
+    File file = File.createTempFile( "stalls", ".log" );
+    file.deleteOnExit();
+    ExecutorService ui = Executors.newSingleThreadExecutor();
+    StallWatchdog watchdog = new StallWatchdog( ui, 5, 50, new RollingLog( file, 1024 * 1024 ) );
+    watchdog.start();
+
+    // Let the watchdog see the thread once before blocking it
+    Thread.sleep( 50 );
+    ui.submit( StallWatchdogTest::blockingIo ).get();
+
+    // The stall is reported once the watchdog notices the thread is free again
+    long deadline = System.currentTimeMillis() + 5000;
+    while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep( 10 );
+    }
+
+    watchdog.stop();
+    ui.shutdown();
+    ui.awaitTermination( 1, TimeUnit.SECONDS );
+
+    String log = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+    assertTrue( log, log.contains( "UI thread stalled for" ) );
+    assertTrue( log, log.contains( "blockingIo" ) );
+  }
+
+  private static void blockingIo()
+  {
+    try {
+      Thread.sleep( 300 );
+    } catch (InterruptedException e) {
+      throw new RuntimeException( e );
+    }
+  }
+}